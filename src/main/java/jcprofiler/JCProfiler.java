@@ -10,16 +10,18 @@ import jcprofiler.compilation.Compiler;
 import jcprofiler.installation.Installer;
 import jcprofiler.instrumentation.Instrumenter;
 import jcprofiler.profiling.AbstractProfiler;
+import jcprofiler.profiling.ForkedProfiler;
 import jcprofiler.util.enums.Mode;
 import jcprofiler.util.enums.Stage;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.SpoonModelService;
+import jcprofiler.util.TrapManifest;
 import jcprofiler.visualisation.AbstractVisualiser;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.CtModel;
-import spoon.reflect.declaration.CtClass;
+import java.util.List;
 
 /**
  * JCProfilerNext's main class
@@ -43,29 +45,36 @@ public class JCProfiler {
             return;
         }
 
+        // every model is built at most once and shared between the stages
+        final SpoonModelService models = new SpoonModelService(args);
+
         // Instrumentation
         if (args.startFrom.ordinal() <= Stage.instrumentation.ordinal()) {
             log.info("Instrumentation started.");
             JCProfilerUtil.moveToSubDirIfNotExists(args.workDir, JCProfilerUtil.getSourceInputDirectory(args.workDir));
 
-            new Instrumenter(args).process();
+            new Instrumenter(args, models).process();
             log.info("Instrumentation complete.");
         }
 
         // check that the generated sources are compilable by rebuilding the model after instrumentation
-        final CtModel model = JCProfilerUtil.getInstrumentedSpoon(args).getModel();
+        // unless they were already checked, and get the trap manifest for the later stages
+        final TrapManifest instrumented = models.getManifest();
+        if (instrumented.getMode() != args.mode)
+            throw new RuntimeException(String.format(
+                    "The sources were instrumented in %s mode!%nPlease, reinstrument the given sources!",
+                    instrumented.getMode()));
+
+        // the sources may be instrumented for more executables, select the profiled one
+        final TrapManifest manifest = instrumented.select(args.executable);
+
         if (args.stopAfter == Stage.instrumentation)
             return;
 
-        // get entry point class (needed from compilation to profiling)
-        final CtClass<?> entryPoint = args.startFrom != Stage.visualisation
-                                            ? JCProfilerUtil.getEntryPoint(model, args.entryPoint)
-                                            : null;
-
         // Compilation
         if (args.startFrom.ordinal() <= Stage.compilation.ordinal()) {
             log.info("Compilation started.");
-            Compiler.compile(args, entryPoint);
+            Compiler.compile(args, manifest.getEntryPoint());
             log.info("Compilation complete.");
         }
 
@@ -73,14 +82,14 @@ public class JCProfiler {
             return;
 
         // Installation
-        CardManager cardManager = null;
+        List<CardManager> cardManagers = null;
         if (args.startFrom.ordinal() <= Stage.installation.ordinal()) {
             // noop for --simulator
             if (args.useSimulator) {
                 log.info("Skipping installation because simulator is used.");
             } else {
                 log.info("Installation started.");
-                cardManager = Installer.installOnCard(args, entryPoint);
+                cardManagers = Installer.installOnCards(args, manifest.getEntryPoint());
                 log.info("Installation complete.");
             }
         }
@@ -89,14 +98,21 @@ public class JCProfiler {
             return;
 
         // Profiling
-        if (args.startFrom.ordinal() <= Stage.profiling.ordinal()) {
+        if (args.startFrom.ordinal() <= Stage.profiling.ordinal() && args.forks > 0) {
+            // every fork connects to its own simulator
+            log.info("Profiling started.");
+            final ForkedProfiler profiler = new ForkedProfiler(args);
+            profiler.profile();
+            profiler.generateCSV();
+            log.info("Profiling complete.");
+        } else if (args.startFrom.ordinal() <= Stage.profiling.ordinal()) {
             // Connect if the installation was skipped or simulator is used
-            if (cardManager == null)
+            if (cardManagers == null)
                 // TODO: move connection stuff to a separate class?
-                cardManager = Installer.connect(args, entryPoint);
+                cardManagers = Installer.connectAll(args, manifest.getEntryPoint());
 
             log.info("Profiling started.");
-            final AbstractProfiler profiler = AbstractProfiler.create(args, cardManager, model);
+            final AbstractProfiler profiler = AbstractProfiler.create(args, cardManagers, manifest);
             profiler.profile();
             profiler.generateCSV();
             log.info("Profiling complete.");
@@ -107,7 +123,7 @@ public class JCProfiler {
 
         // Visualisation
         log.info("Visualising results.");
-        final AbstractVisualiser vis = AbstractVisualiser.create(args, model);
+        final AbstractVisualiser vis = AbstractVisualiser.create(args, manifest);
         vis.loadAndProcessMeasurements();
         vis.generateHTML();
         vis.insertMeasurementsToSources();
@@ -7,8 +7,11 @@ import com.beust.jcommander.JCommander;
 
 import jcprofiler.args.Args;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.enums.InputDivision;
 import jcprofiler.util.enums.Mode;
+import jcprofiler.util.enums.Schedule;
 import jcprofiler.util.enums.Stage;
+import jcprofiler.util.enums.TimeSource;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -17,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.jar.JarFile;
 
 /**
@@ -42,6 +46,7 @@ public class Main {
 
         try {
             jc.parse(argv);
+            args.commandLine = Arrays.asList(argv);
         } catch (Exception e) {
             log.error("Argument parsing failed!", e);
             System.exit(1);
@@ -95,6 +100,10 @@ public class Main {
                     "Nothing to do! Cannot start with %s and end with %s.",
                     args.startFrom, args.stopAfter));
 
+        // memory mode measures a single input unless said otherwise
+        if (args.repeatCount == null)
+            args.repeatCount = args.mode == Mode.memory ? 1 : 1000;
+
         // validate custom mode
         if (args.mode == Mode.custom) {
             // --custom-pm must be set
@@ -106,6 +115,148 @@ public class Main {
                         "Visualisation of applet instrumented in custom mode is unsupported!");
         }
 
+        // validate --readers
+        if (args.readers != null) {
+            if (args.useSimulator)
+                throw new UnsupportedOperationException(
+                        "Options --readers and --simulator cannot be specified simultaneously.");
+
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --readers can be used only in time mode!");
+        }
+
+        // validate --simulators
+        if (args.simulators > 1) {
+            if (!args.useSimulator)
+                throw new UnsupportedOperationException("Option --simulators requires --simulator!");
+
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --simulators can be used only in time mode!");
+        }
+
+        // validate --resume
+        if (args.resume) {
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --resume can be used only in time mode!");
+
+            if (args.startFrom != Stage.profiling)
+                throw new UnsupportedOperationException("Option --resume requires --start-from profiling!");
+        }
+
+        // --jcpm is not applicable in custom mode
+        if (args.jcpm && args.mode == Mode.custom)
+            throw new UnsupportedOperationException("Option --jcpm cannot be used in custom mode!");
+
+        // validate --calibration-rounds and --subtract-overhead
+        if (args.calibrationRounds != null && args.mode != Mode.time)
+            throw new UnsupportedOperationException("Option --calibration-rounds can be used only in time mode!");
+        if (args.subtractOverhead && args.calibrationRounds == null)
+            throw new UnsupportedOperationException("Option --subtract-overhead requires --calibration-rounds!");
+
+        // --warmup-rounds is applicable only in time mode
+        if (args.warmupRounds > 0 && args.mode != Mode.time)
+            throw new UnsupportedOperationException("Option --warmup-rounds can be used only in time mode!");
+
+        // --seed is applicable only to the interleavedRandom schedule
+        if (args.seed != null && (args.mode != Mode.time || args.schedule != Schedule.interleavedRandom))
+            throw new UnsupportedOperationException(
+                    "Option --seed can be used only in time mode with the interleavedRandom schedule!");
+
+        // validate --time-source
+        if (args.timeSource != TimeSource.wallClock) {
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --time-source can be used only in time mode!");
+
+            if (!args.useSimulator)
+                throw new UnsupportedOperationException(String.format(
+                        "Option --time-source %s requires --simulator!", args.timeSource));
+        }
+
+        // validate --forks and --fork-jvm-arg
+        if (args.forks > 0) {
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --forks can be used only in time mode!");
+
+            if (!args.useSimulator)
+                throw new UnsupportedOperationException("Option --forks requires --simulator!");
+
+            if (args.resume)
+                throw new UnsupportedOperationException(
+                        "Options --forks and --resume cannot be specified simultaneously.");
+
+            if (args.targetPrecision != null)
+                throw new UnsupportedOperationException(
+                        "Options --forks and --target-precision cannot be specified simultaneously.");
+        }
+        if (!args.forkJvmArgs.isEmpty() && args.forks == 0)
+            throw new UnsupportedOperationException("Option --fork-jvm-arg requires --forks!");
+
+        // validate --direct-dispatch
+        if (args.directDispatch) {
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --direct-dispatch can be used only in time mode!");
+
+            if (!args.useSimulator)
+                throw new UnsupportedOperationException("Option --direct-dispatch requires --simulator!");
+        }
+
+        // --fused-apdu is applicable only in time mode
+        if (args.fusedApdu && args.mode != Mode.time)
+            throw new UnsupportedOperationException("Option --fused-apdu can be used only in time mode!");
+
+        // --extended-apdu is applicable only in memory mode
+        if (args.extendedApdu && args.mode != Mode.memory)
+            throw new UnsupportedOperationException("Option --extended-apdu can be used only in memory mode!");
+
+        // --allocation-sites is applicable only in memory mode
+        if (args.allocationSites && args.mode != Mode.memory)
+            throw new UnsupportedOperationException("Option --allocation-sites can be used only in memory mode!");
+
+        // --executables is applicable only in time, memory and count mode
+        if (!args.executables.isEmpty()) {
+            if (args.mode != Mode.time && args.mode != Mode.memory && args.mode != Mode.count)
+                throw new UnsupportedOperationException(
+                        "Option --executables can be used only in time, memory and count mode!");
+
+            if (args.allocationSites)
+                throw new UnsupportedOperationException(
+                        "Options --executables and --allocation-sites cannot be specified simultaneously.");
+        }
+
+        // --leak-iterations is applicable only in memory mode
+        if (args.leakIterations > 0 && args.mode != Mode.memory)
+            throw new UnsupportedOperationException("Option --leak-iterations can be used only in memory mode!");
+        if (args.leakIterations == 1)
+            throw new UnsupportedOperationException("Option --leak-iterations requires at least two iterations!");
+
+        // --coverage is applicable only in time mode
+        if (args.coverage && args.mode != Mode.time)
+            throw new UnsupportedOperationException("Option --coverage can be used only in time mode!");
+
+        // validate --count-bytecodes
+        if (args.countBytecodes) {
+            if (args.mode != Mode.count)
+                throw new UnsupportedOperationException("Option --count-bytecodes can be used only in count mode!");
+
+            if (!args.useSimulator)
+                throw new UnsupportedOperationException("Option --count-bytecodes requires --simulator!");
+        }
+
+        // validate --target-precision
+        if (args.targetPrecision != null) {
+            if (args.mode != Mode.time)
+                throw new UnsupportedOperationException("Option --target-precision can be used only in time mode!");
+
+            if (args.inputDivision != InputDivision.none)
+                throw new UnsupportedOperationException(
+                        "Options --target-precision and --input-division cannot be specified simultaneously.");
+
+            if (args.maxRounds < args.repeatCount)
+                throw new UnsupportedOperationException(String.format(
+                        "Option --max-rounds (%d) must not be smaller than --repeat-count (%d)!",
+                        args.maxRounds, args.repeatCount));
+        }
+
         // validate --data-regex and --data-file
         if ((args.dataRegex == null) == (args.dataFile == null)) {
             if (args.dataRegex != null)
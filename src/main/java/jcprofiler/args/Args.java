@@ -61,11 +61,41 @@ public class Args {
                description = "Use jCardSim simulator instead of a real card")
     public boolean useSimulator = false;
 
+    @Parameter(names = {"--simulators"},
+               description = "Number of isolated jCardSim instances to split the profiling rounds among " +
+                             "(time profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public int simulators = 1;
+
+    @Parameter(names = {"--forks"},
+               description = "Number of JVMs forked one after another that measure --repeat-count rounds each " +
+                             "in the simulator, their rounds are merged and the variance between them is reported " +
+                             "(time profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public int forks = 0;
+
+    @Parameter(names = {"--fork-jvm-arg"},
+               description = "Option of the forked JVMs, e.g. -Xmx1g or -XX:+UseSerialGC " +
+                             "(can be specified multiple times)")
+    public List<String> forkJvmArgs = new ArrayList<>();
+
+    @Parameter(names = {"--readers"},
+               description = "Use cards in all or in the given comma separated list of card readers indexed " +
+                             "from zero and split profiling rounds among them (time profiling only)",
+               validateWith = ReadersValidator.class)
+    public String readers;
+
     @Parameter(names = {"--executable"},
                description = "Constructor or method to profile or leave unset to instrument applet entry point " +
                              "constructor (constructors are custom and memory profiling only)")
     public String executable;
 
+    @Parameter(names = {"--executables"},
+               description = "Comma separated list of additional executables to instrument in the same CAP file, " +
+                             "'*' and '?' wildcards are supported; the profiled one is selected by --executable " +
+                             "(time, memory and count profiling only)")
+    public List<String> executables = new ArrayList<>();
+
     @Parameter(names = {"--entry-point"},
                description = "Qualified name of a class to be used as an entry point (useful when there are more)")
     public String entryPoint;
@@ -96,9 +126,104 @@ public class Args {
     public Path customHandler;
 
     @Parameter(names = {"--repeat-count"},
-               description = "Number of profiling rounds (custom or time profiling only)",
+               description = "Number of profiling rounds or inputs in memory mode (default: 1 in memory mode, " +
+                             "1000 otherwise)",
                validateWith = PositiveIntegerValidator.class)
-    public int repeatCount = 1000;
+    public Integer repeatCount;
+
+    @Parameter(names = {"--jcpm"},
+               description = "Store measurements also in the binary measurements.jcpm file that is preferred " +
+                             "during visualisation (time, memory or count profiling only)")
+    public boolean jcpm = false;
+
+    @Parameter(names = {"--calibration-rounds"},
+               description = "Number of round-trips to the profiler APDU handler per input length used to " +
+                             "estimate the transport overhead (time profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public Integer calibrationRounds;
+
+    @Parameter(names = {"--subtract-overhead"},
+               description = "Subtract the calibrated transport overhead from the first reached trap of every " +
+                             "round (time profiling only)")
+    public boolean subtractOverhead = false;
+
+    @Parameter(names = {"--warmup-rounds"},
+               description = "Number of rounds executed on every card before the profiling rounds whose " +
+                             "measurements are stored separately and excluded from the statistics " +
+                             "(time profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public int warmupRounds = 0;
+
+    @Parameter(names = {"--resume"},
+               description = "Resume interrupted profiling from the checkpoint in the working directory " +
+                             "(time profiling only)")
+    public boolean resume = false;
+
+    @Parameter(names = {"--target-precision"},
+               description = "Keep measuring traps after --repeat-count rounds until the 95% confidence interval " +
+                             "of their mean is narrower than the given relative error, e.g. 1% (time profiling only)",
+               converter = PercentageConverter.class)
+    public Double targetPrecision;
+
+    @Parameter(names = {"--max-rounds"},
+               description = "Maximal number of profiling rounds with --target-precision (time profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public int maxRounds = 10000;
+
+    @Parameter(names = {"--schedule"},
+               description = "Order in which the traps are measured for each input (time profiling only)",
+               converter = ScheduleConverter.class)
+    public Schedule schedule = Schedule.roundMajor;
+
+    @Parameter(names = {"--seed"},
+               description = "Seed of the random order of measurements in the interleavedRandom schedule, " +
+                             "a random one is generated and stored with the measurements if unset " +
+                             "(time profiling only)")
+    public Long seed;
+
+    @Parameter(names = {"--time-source"},
+               description = "Source of elapsed time measurements, cpuTime measures the CPU time of the thread " +
+                             "executing the simulator and rejects samples overlapping a garbage collection " +
+                             "(time profiling only, cpuTime requires --simulator)",
+               converter = TimeSourceConverter.class)
+    public TimeSource timeSource = TimeSource.wallClock;
+
+    @Parameter(names = {"--direct-dispatch"},
+               description = "Dispatch APDUs directly to the jCardSim simulator with reused command buffers and " +
+                             "without logging, so that only the simulator's APDU processing is timed " +
+                             "(time profiling with --simulator only)")
+    public boolean directDispatch = false;
+
+    @Parameter(names = {"--fused-apdu"},
+               description = "Transmit the trap ID together with the trigger APDU (time profiling only)")
+    public boolean fusedApdu = false;
+
+    @Parameter(names = {"--extended-apdu"},
+               description = "Let the entry point accept extended length APDUs, so that memory measurements " +
+                             "can be retrieved in a single response (memory profiling only)")
+    public boolean extendedApdu = false;
+
+    @Parameter(names = {"--allocation-sites"},
+               description = "Insert traps only around statements allocating memory in the profiled executable " +
+                             "and its callees (memory profiling only)")
+    public boolean allocationSites = false;
+
+    @Parameter(names = {"--leak-iterations"},
+               description = "Execute the first input repeatedly without resetting the applet and flag traps " +
+                             "whose free memory decreases in every iteration (memory profiling only)",
+               validateWith = PositiveIntegerValidator.class)
+    public int leakIterations = 0;
+
+    @Parameter(names = {"--coverage"},
+               description = "Record visited traps in an on-card bitmap and measure only the traps reached " +
+                             "by each input (time profiling only)")
+    public boolean coverage = false;
+
+    @Parameter(names = {"--count-bytecodes"},
+               description = "Count bytecodes and JavaCard API invocations executed between consecutive traps " +
+                             "by rewriting the applet classes loaded by the simulator (count profiling with " +
+                             "--simulator only)")
+    public boolean countBytecodes = false;
 
     @Parameter(names = {"--reset-ins"},
                description = "Applet reset instruction in hex",
@@ -144,4 +269,9 @@ public class Args {
                description = "Time unit to be used in result visualisation (time profiling only)",
                converter = TimeUnitConverter.class)
     public TimeUnit timeUnit = TimeUnit.micro;
+
+    /**
+     * Unparsed commandline arguments passed to the forked JVMs
+     */
+    public List<String> commandLine = new ArrayList<>();
 }
@@ -0,0 +1,45 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.args.converters;
+
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.converters.BaseConverter;
+
+/**
+ * Parameter converter for percentages
+ */
+public class PercentageConverter extends BaseConverter<Double> {
+    public PercentageConverter(final String optionName) {
+        super(optionName);
+    }
+
+    /**
+     * Converts a percentage, e.g. {@code 1%}, or a fraction, e.g. {@code 0.01}, into a fraction.
+     *
+     * @param  value input string
+     * @return       converted {@link Double} in the (0, 1) interval
+     *
+     * @throws ParameterException if the value is not a valid percentage between 0 % and 100 % (exclusive)
+     */
+    @Override
+    public Double convert(String value) {
+        value = value.trim();
+        final boolean isPercentage = value.endsWith("%");
+        if (isPercentage)
+            value = value.substring(0, value.length() - 1).trim();
+
+        try {
+            double fraction = Double.parseDouble(value);
+            if (isPercentage)
+                fraction /= 100.;
+
+            if (0. < fraction && fraction < 1.)
+                return fraction;
+        } catch (NumberFormatException e) {
+            throw new ParameterException(getErrorString(value, "a percentage"), e);
+        }
+
+        throw new ParameterException(getErrorString(value, "a percentage between 0 % and 100 % (exclusive)"));
+    }
+}
@@ -0,0 +1,16 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.args.converters;
+
+import com.beust.jcommander.converters.EnumConverter;
+import jcprofiler.util.enums.Schedule;
+
+/**
+ * Parameter converter for the {@link Schedule} enum
+ */
+public class ScheduleConverter extends EnumConverter<Schedule> {
+    public ScheduleConverter(final String optionName, final Class<Schedule> clazz) {
+        super(optionName, clazz);
+    }
+}
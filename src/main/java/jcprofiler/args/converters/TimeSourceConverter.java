@@ -0,0 +1,16 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.args.converters;
+
+import com.beust.jcommander.converters.EnumConverter;
+import jcprofiler.util.enums.TimeSource;
+
+/**
+ * Parameter converter for the {@link TimeSource} enum
+ */
+public class TimeSourceConverter extends EnumConverter<TimeSource> {
+    public TimeSourceConverter(final String optionName, final Class<TimeSource> clazz) {
+        super(optionName, clazz);
+    }
+}
@@ -0,0 +1,27 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.args.validators;
+
+import com.beust.jcommander.IParameterValidator;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Parameter validator for card reader selections
+ */
+public class ReadersValidator implements IParameterValidator {
+    /**
+     * Checks that the parameter is either {@code all} or a comma separated list of reader indices.
+     *
+     * @param  name  parameter name
+     * @param  value input string
+     *
+     * @throws ParameterException if the value is not a valid reader selection
+     */
+    @Override
+    public void validate(final String name, final String value) throws ParameterException {
+        if (!value.matches("all|\\d+(,\\d+)*"))
+            throw new ParameterException(String.format(
+                    "\"%s\": \"%s\" is neither 'all' nor a comma separated list of reader indices", name, value));
+    }
+}
@@ -6,6 +6,8 @@ package jcprofiler.compilation;
 import jcprofiler.args.Args;
 import jcprofiler.util.JCProfilerUtil;
 
+import org.apache.commons.lang3.StringUtils;
+
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Target;
@@ -18,8 +20,6 @@ import pro.javacard.ant.JavaCard.JCCap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.declaration.CtClass;
-
 import java.nio.file.Path;
 
 /**
@@ -36,9 +36,9 @@ public class Compiler {
      * and stores in the {@link JCProfilerUtil#APPLET_OUT_DIRNAME} directory.
      *
      * @param args       object with commandline arguments
-     * @param entryPoint applet entry point class
+     * @param entryPoint fully qualified name of the applet entry point class
      */
-    public static void compile(final Args args, final CtClass<?> entryPoint) {
+    public static void compile(final Args args, final String entryPoint) {
         // NOTE: Check that the code was instrumented is already done in the JCProfiler class.
 
         // always recreate the output directory
@@ -99,14 +99,15 @@ public class Compiler {
         cap.setStrip(false);
 
         cap.setAID(JCProfilerUtil.PACKAGE_AID);
-        cap.setJca(entryPoint.getPackage().getSimpleName() + ".jca");
-        cap.setPackage(entryPoint.getPackage().getQualifiedName());
-        cap.setOutput(entryPoint.getSimpleName() + ".cap");
+        final String packageName = StringUtils.substringBeforeLast(entryPoint, ".");
+        cap.setJca(JCProfilerUtil.getSimpleName(packageName) + ".jca");
+        cap.setPackage(packageName);
+        cap.setOutput(JCProfilerUtil.getSimpleName(entryPoint) + ".cap");
         cap.setInts(true);
 
         // add applet to the CAP file
         final JCApplet app = cap.createApplet();
-        app.setClass(entryPoint.getQualifiedName());
+        app.setClass(entryPoint);
 
         // add JAR files with dependencies to the project
         for (final Path jar : args.jars) {
@@ -114,7 +115,7 @@ public class Compiler {
             cap.createImport().setJar(jar.toString());
         }
 
-        log.debug("Compiling into {}.cap", entryPoint.getSimpleName());
+        log.debug("Compiling into {}.cap", JCProfilerUtil.getSimpleName(entryPoint));
         project.executeTarget(project.getDefaultTarget());
     }
 }
@@ -0,0 +1,206 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.installation;
+
+import jcprofiler.util.BytecodeCounter;
+
+import org.apache.commons.io.IOUtils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class loader for the simulator that rewrites the applet classes at load time, so that they report
+ * executed bytecodes, JavaCard API invocations and reached traps to the {@link BytecodeCounter} class.
+ * <br>
+ * Bytecodes are counted per basic block when the block is entered.  A block ends with a label, a jump,
+ * a switch, a return, a throw or an invocation, so the count is exact unless an instruction other than
+ * an invocation throws an exception.  Bytecodes of the PM and PMC classes and the invocations of PM methods
+ * with their argument are not counted since they are not part of the profiled applet.
+ */
+public class BytecodeCountingClassLoader extends URLClassLoader {
+    private static final String COUNTER = Type.getInternalName(BytecodeCounter.class);
+    private static final List<String> API_PACKAGES = Arrays.asList("javacard/", "javacardx/", "org/globalplatform/");
+
+    private final String pmName;
+    private final String pmcName;
+
+    private static final Logger log = LoggerFactory.getLogger(BytecodeCountingClassLoader.class);
+
+    /**
+     * Constructs the {@link BytecodeCountingClassLoader} class.
+     *
+     * @param urls        URLs of the applet JAR and its dependencies
+     * @param packageName name of the applet package containing the PM and PMC classes
+     */
+    public BytecodeCountingClassLoader(final URL[] urls, final String packageName) {
+        super(urls);
+        final String prefix = packageName.isEmpty() ? "" : packageName.replace('.', '/') + '/';
+        pmName = prefix + "PM";
+        pmcName = prefix + "PMC";
+    }
+
+    /**
+     * Loads and rewrites the class with the given name.
+     *
+     * @param  name binary name of the class
+     * @return      the resulting {@link Class} object
+     *
+     * @throws ClassNotFoundException if the class could not be found or read
+     */
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        final String internalName = name.replace('.', '/');
+        final URL resource = findResource(internalName + ".class");
+        if (resource == null)
+            throw new ClassNotFoundException(name);
+
+        final byte[] bytes;
+        try (final InputStream is = resource.openStream()) {
+            final byte[] original = IOUtils.toByteArray(is);
+            bytes = internalName.equals(pmName) || internalName.equals(pmcName) ? original : instrument(original);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        log.debug("Loaded {} with bytecode counting.", name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Inserts the counting code into every method of the given class.
+     *
+     * @param  bytes class file contents
+     * @return       rewritten class file contents
+     */
+    private byte[] instrument(final byte[] bytes) {
+        final ClassNode cls = new ClassNode();
+        new ClassReader(bytes).accept(cls, 0);
+        for (final MethodNode method : cls.methods)
+            instrumentMethod(method.instructions);
+
+        // the inserted code does not change the stack at block boundaries, so the existing frames stay valid
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cls.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Inserts the counting code into the given method body.
+     *
+     * @param insns list of method instructions, empty for abstract and native methods
+     */
+    private void instrumentMethod(final InsnList insns) {
+        AbstractInsnNode blockStart = null;
+        int blockLength = 0;
+
+        for (final AbstractInsnNode insn : insns.toArray()) {
+            // a label may be a jump target
+            if (insn instanceof LabelNode) {
+                countBlock(insns, blockStart, blockLength);
+                blockStart = null;
+                blockLength = 0;
+                continue;
+            }
+
+            // skip frames and line numbers
+            if (insn.getOpcode() < 0)
+                continue;
+
+            if (blockStart == null)
+                blockStart = insn;
+
+            if (insn instanceof MethodInsnNode && ((MethodInsnNode) insn).owner.equals(pmName)) {
+                final MethodInsnNode call = (MethodInsnNode) insn;
+
+                // do not count the push of the PM method argument either
+                if (Type.getArgumentTypes(call.desc).length == 1 && blockLength > 0)
+                    blockLength--;
+
+                if (call.name.equals("check") && call.desc.equals("(S)V")) {
+                    // report the trap ID and count the rest of the block towards the next trap
+                    insns.insertBefore(call, new InsnNode(Opcodes.DUP));
+                    insns.insertBefore(call, new MethodInsnNode(Opcodes.INVOKESTATIC, COUNTER, "trap", "(S)V"));
+                    countBlock(insns, blockStart, blockLength);
+                    blockStart = null;
+                    blockLength = 0;
+                }
+                continue;
+            }
+
+            if (insn instanceof MethodInsnNode && isApiCall((MethodInsnNode) insn)) {
+                final MethodInsnNode call = (MethodInsnNode) insn;
+                insns.insertBefore(call, new LdcInsnNode(call.owner.replace('/', '.') + "." + call.name));
+                insns.insertBefore(call, new MethodInsnNode(
+                        Opcodes.INVOKESTATIC, COUNTER, "api", "(Ljava/lang/String;)V"));
+            }
+
+            blockLength++;
+            if (endsBlock(insn)) {
+                countBlock(insns, blockStart, blockLength);
+                blockStart = null;
+                blockLength = 0;
+            }
+        }
+
+        countBlock(insns, blockStart, blockLength);
+    }
+
+    /**
+     * Inserts the call of {@link BytecodeCounter#count(int)} at the start of a basic block.
+     *
+     * @param insns       list of method instructions
+     * @param blockStart  first instruction of the block or null if it has none
+     * @param blockLength number of counted bytecodes in the block
+     */
+    private static void countBlock(final InsnList insns, final AbstractInsnNode blockStart, final int blockLength) {
+        if (blockStart == null || blockLength == 0)
+            return;
+
+        final InsnList count = new InsnList();
+        count.add(new LdcInsnNode(blockLength));
+        count.add(new MethodInsnNode(Opcodes.INVOKESTATIC, COUNTER, "count", "(I)V"));
+        insns.insertBefore(blockStart, count);
+    }
+
+    /**
+     * Checks whether the given invocation targets the JavaCard API.
+     *
+     * @param  call method invocation
+     * @return      true if the owner of the invoked method belongs to the JavaCard API packages
+     */
+    private static boolean isApiCall(final MethodInsnNode call) {
+        return API_PACKAGES.stream().anyMatch(call.owner::startsWith);
+    }
+
+    /**
+     * Checks whether the given instruction ends a basic block.
+     *
+     * @param  insn instruction
+     * @return      true if the next instruction need not be executed right after the given one
+     */
+    private static boolean endsBlock(final AbstractInsnNode insn) {
+        if (insn instanceof JumpInsnNode || insn instanceof TableSwitchInsnNode ||
+                insn instanceof LookupSwitchInsnNode || insn instanceof MethodInsnNode ||
+                insn instanceof InvokeDynamicInsnNode)
+            return true;
+
+        final int opcode = insn.getOpcode();
+        return (Opcodes.IRETURN <= opcode && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW ||
+               opcode == Opcodes.RET;
+    }
+}
@@ -21,12 +21,11 @@ import jcprofiler.util.enums.Stage;
 
 import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.declaration.CtClass;
-
 import javax.smartcardio.*;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
@@ -63,22 +62,59 @@ public class Installer {
      * Installs the applet on a selected card.
      *
      * @param  args       object with commandline arguments
-     * @param  entryPoint applet entry point class
+     * @param  entryPoint fully qualified name of the applet entry point class
      * @return            {@link CardManager} connection instance
      *
      * @throws RuntimeException if the applet could not be installed or selected successfully
      */
-    public static CardManager installOnCard(final Args args, final CtClass<?> entryPoint) {
+    public static CardManager installOnCard(final Args args, final String entryPoint) {
         if (args.useSimulator)
             throw new UnsupportedOperationException("Installation on a simulator is not possible");
 
         // connect to the card
         final CardManager cardManager = connectToCard(/* select */ false);
+        install(args, entryPoint, cardManager);
+        return cardManager;
+    }
+
+    /**
+     * Installs the applet on every card in readers selected by {@link Args#readers}
+     * or on a single selected card if unset.
+     *
+     * @param  args       object with commandline arguments
+     * @param  entryPoint fully qualified name of the applet entry point class
+     * @return            list of {@link CardManager} connection instances
+     *
+     * @throws RuntimeException if the applet could not be installed or selected successfully
+     */
+    public static List<CardManager> installOnCards(final Args args, final String entryPoint) {
+        if (args.readers == null)
+            return Collections.singletonList(installOnCard(args, entryPoint));
+
+        final List<CardManager> cardManagers = connectToCards(args.readers, /* select */ false);
+        for (final CardManager cardManager : cardManagers)
+            install(args, entryPoint, cardManager);
+        return cardManagers;
+    }
+
+    /**
+     * Installs the applet on a card behind the given connection and selects it.
+     *
+     * @param  args        object with commandline arguments
+     * @param  entryPoint  fully qualified name of the applet entry point class
+     * @param  cardManager {@link CardManager} connection instance
+     *
+     * @throws RuntimeException if the applet could not be installed or selected successfully
+     */
+    private static void install(final Args args, final String entryPoint, final CardManager cardManager) {
+        if (args.useSimulator)
+            throw new UnsupportedOperationException("Installation on a simulator is not possible");
+
         final BIBO bibo = CardBIBO.wrap(cardManager.getChannel().getCard());
 
         // get path to CAP package
         final Path capPath = JCProfilerUtil.getAppletOutputDirectory(args.workDir)
-                .resolve(entryPoint.getSimpleName() + ".cap");
+                .resolve(JCProfilerUtil.getSimpleName(entryPoint) + ".cap");
         JCProfilerUtil.checkFile(capPath, Stage.compilation);
 
         // construct argv for GPTool
@@ -103,8 +139,6 @@ public class Installer {
         } catch (CardException e) {
             throw new RuntimeException(e);
         }
-
-        return cardManager;
     }
 
     /**
@@ -112,38 +146,63 @@ public class Installer {
      * commandline arguments.
      *
      * @param  args       object with commandline arguments
-     * @param  entryPoint applet entry point class
+     * @param  entryPoint fully qualified name of the applet entry point class
      * @return            {@link CardManager} connection instance
      */
-    public static CardManager connect(final Args args, final CtClass<?> entryPoint) {
+    public static CardManager connect(final Args args, final String entryPoint) {
         return args.useSimulator ? configureSimulator(args, entryPoint)
                                  : connectToCard(/* select */ true);
     }
 
+    /**
+     * Either connects to physical cards in readers selected by {@link Args#readers},
+     * creates a pool of {@link Args#simulators} jCardSim instances or behaves as
+     * {@link #connect(Args, String)} if neither is requested.
+     *
+     * @param  args       object with commandline arguments
+     * @param  entryPoint fully qualified name of the applet entry point class
+     * @return            list of {@link CardManager} connection instances
+     */
+    public static List<CardManager> connectAll(final Args args, final String entryPoint) {
+        if (args.readers != null)
+            return connectToCards(args.readers, /* select */ true);
+        if (!args.useSimulator || args.simulators == 1)
+            return Collections.singletonList(connect(args, entryPoint));
+
+        // every instance loads the applet in its own class loader, so the static fields are not shared
+        log.info("Creating a pool of {} jCardSim simulators.", args.simulators);
+        final List<CardManager> cardManagers = new ArrayList<>(args.simulators);
+        for (int i = 0; i < args.simulators; i++)
+            cardManagers.add(configureSimulator(args, entryPoint));
+        return cardManagers;
+    }
+
     /**
      * Creates and configures a jCardSim simulator instance for given applet.
      *
      * @param  args       object with commandline arguments
-     * @param  entryPoint applet entry point class
+     * @param  entryPoint fully qualified name of the applet entry point class
      * @return            {@link CardManager} connection instance
      *
      * @throws RuntimeException if the simulator could not be executed or the applet
      *                          could not be  selected successfully
      */
-    private static CardManager configureSimulator(final Args args, final CtClass<?> entryPoint) {
+    private static CardManager configureSimulator(final Args args, final String entryPoint) {
         log.info("Configuring jCardSim simulator.");
 
         // assure jCardsSim compatibility with newer bouncycastle
         System.setProperty("com.licel.jcardsim.bouncycastle.rsa.allow_unsafe_mod", "true");
 
         // get path to JAR archive
+        final String packageName = StringUtils.substringBeforeLast(entryPoint, ".");
         final Path jarPath = JCProfilerUtil.getAppletOutputDirectory(args.workDir)
-                        .resolve(entryPoint.getPackage().getSimpleName() + ".jar");
+                        .resolve(JCProfilerUtil.getSimpleName(packageName) + ".jar");
         JCProfilerUtil.checkFile(jarPath, Stage.compilation);
-        final CardManager cardManager = new CardManager(/* logging */ true, APPLET_AID);
+        final CardManager cardManager = args.directDispatch ? new SimulatorCardManager(APPLET_AID)
+                                                            : new CardManager(/* logging */ true, APPLET_AID);
 
         try {
-            log.debug("Loading {} from {}.", entryPoint.getQualifiedName(), jarPath);
+            log.debug("Loading {} from {}.", entryPoint, jarPath);
 
             // get a list of all classes that must be loaded for the simulator
             final Set<Path> jarList = new HashSet<>();
@@ -173,8 +232,14 @@ public class Installer {
 
             // load the simulated class
             // FIXME: this leak is intentional so that the simulator can access every class in the loaded JAR
-            final URLClassLoader classLoader = new URLClassLoader(jarURLArray);
-            final Class<? extends Applet> cls = classLoader.loadClass(entryPoint.getQualifiedName())
+            final URLClassLoader classLoader;
+            if (args.countBytecodes) {
+                log.info("Counting bytecodes and JavaCard API invocations executed by the applet.");
+                classLoader = new BytecodeCountingClassLoader(jarURLArray, packageName);
+            } else {
+                classLoader = new URLClassLoader(jarURLArray);
+            }
+            final Class<? extends Applet> cls = classLoader.loadClass(entryPoint)
                     .asSubclass(Applet.class);
             final RunConfig runCfg = RunConfig.getDefaultConfig()
                     .setTestCardType(CardType.JCARDSIMLOCAL)
@@ -247,6 +312,67 @@ public class Installer {
         }
     }
 
+    /**
+     * Connects to physical cards in the given readers.
+     *
+     * @param  readers either {@code all} for all readers with a card or a comma separated list
+     *                 of reader indices
+     * @param  select  decides whether the profiled applet should be selected
+     * @return         list of {@link CardManager} connection instances
+     *
+     * @throws RuntimeException if some reader does not exist, does not contain a card,
+     *                          the card connection failed or the applet could not be selected successfully
+     */
+    private static List<CardManager> connectToCards(final String readers, final boolean select) {
+        log.info("Connecting to physical card readers.");
+
+        // for better portability across different platforms
+        TerminalManager.fixPlatformPaths();
+        final CardTerminals terminals = TerminalManager.getTerminalFactory().terminals();
+
+        try {
+            final List<CardTerminal> terminalList = terminals.list();
+            final List<CardTerminal> selected = new ArrayList<>();
+            if (readers.equals("all")) {
+                selected.addAll(terminals.list(CardTerminals.State.CARD_PRESENT));
+                if (selected.isEmpty())
+                    throw new RuntimeException("No connected terminals with a card found!");
+            } else {
+                for (final String idxStr : readers.split(",")) {
+                    final int idx = Integer.parseInt(idxStr);
+                    if (idx >= terminalList.size())
+                        throw new RuntimeException(String.format(
+                                "Reader index %d out of range, only %d readers found!", idx, terminalList.size()));
+
+                    final CardTerminal terminal = terminalList.get(idx);
+                    if (selected.contains(terminal))
+                        throw new RuntimeException(String.format("Reader %d selected more than once!", idx));
+                    if (!terminal.isCardPresent())
+                        throw new RuntimeException(String.format(
+                                "No card present in terminal %d: %s", idx, terminal.getName()));
+                    selected.add(terminal);
+                }
+            }
+
+            final List<CardManager> cardManagers = new ArrayList<>(selected.size());
+            for (final CardTerminal terminal : selected) {
+                final CardManager cardManager = new CardManager(/* logging */ true, APPLET_AID);
+                log.info("Connecting to a card in terminal {}.", terminal.getName());
+                cardManager.connectTerminal(terminal);
+                log.info("Successfully connected.");
+                log.info("Card ATR: {}", Util.bytesToHex(cardManager.getChannel().getCard().getATR().getBytes()));
+
+                if (select)
+                    selectApplet(cardManager);
+                cardManagers.add(cardManager);
+            }
+
+            return cardManagers;
+        } catch (CardException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Helper method to display a selection screen with terminals with present cards.
      *
@@ -0,0 +1,67 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.installation;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.smartcardio.CardTerminalSimulator;
+import com.licel.jcardsim.utils.AIDUtil;
+
+import cz.muni.fi.crocs.rcard.client.CardManager;
+
+import javacard.framework.AID;
+import javacard.framework.Applet;
+
+import javax.smartcardio.CardChannel;
+
+/**
+ * Connection to a local jCardSim simulator that keeps the {@link Simulator} instance, so that APDUs can be
+ * dispatched to it directly without the {@code javax.smartcardio} emulation and logging of {@link CardManager}.
+ * APDUs transmitted through this connection are never logged.
+ */
+public class SimulatorCardManager extends CardManager {
+    private final byte[] appletAID;
+    private CardSimulator simulator;
+
+    /**
+     * Constructs the {@link SimulatorCardManager} class.
+     *
+     * @param appletAID AID of the simulated applet
+     */
+    public SimulatorCardManager(final byte[] appletAID) {
+        super(/* logging */ false, appletAID);
+        this.appletAID = appletAID.clone();
+    }
+
+    /**
+     * Installs the given applet into a new jCardSim simulator and connects to it.
+     *
+     * @param  appletClass applet entry point class
+     * @param  installData install parameters of the applet
+     * @return             channel to the simulator
+     *
+     * @throws Exception if the connection to the simulator failed
+     */
+    @Override
+    public CardChannel connectJCardSimLocalSimulator(final Class appletClass, final byte[] installData)
+            throws Exception {
+        final byte[] data = installData == null ? new byte[0] : installData;
+        final AID aid = AIDUtil.create(appletAID);
+
+        simulator = new CardSimulator();
+        simulator.installApplet(aid, ((Class<?>) appletClass).asSubclass(Applet.class),
+                data, (short) 0, (byte) data.length);
+        simulator.selectApplet(aid);
+        return CardTerminalSimulator.terminal(simulator).connect("T=1").getBasicChannel();
+    }
+
+    /**
+     * Returns the simulator behind this connection.
+     *
+     * @return a {@link Simulator} instance or null if not connected yet
+     */
+    public Simulator getSimulator() {
+        return simulator;
+    }
+}
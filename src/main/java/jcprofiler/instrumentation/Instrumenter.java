@@ -5,9 +5,12 @@ package jcprofiler.instrumentation;
 
 import jcprofiler.args.Args;
 import jcprofiler.instrumentation.processors.*;
+import jcprofiler.util.enums.Mode;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.SpoonModelService;
 
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Triple;
 
 import org.slf4j.Logger;
@@ -17,18 +20,29 @@ import pro.javacard.JavaCardSDK;
 
 import spoon.Launcher;
 import spoon.OutputType;
+import spoon.compiler.Environment;
 import spoon.compiler.ModelBuildingException;
+import spoon.compiler.SpoonResource;
+import spoon.compiler.SpoonResourceHelper;
+import spoon.processing.ProcessingManager;
 import spoon.reflect.CtModel;
 import spoon.reflect.code.*;
+import spoon.reflect.cu.SourcePosition;
 import spoon.reflect.declaration.*;
 import spoon.reflect.reference.CtFieldReference;
+import spoon.support.QueueProcessingManager;
 import spoon.support.compiler.VirtualFile;
+import spoon.support.modelobs.ChangeCollector;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 // TODO: support already instrumented stuff
 
@@ -37,6 +51,7 @@ import java.util.stream.Collectors;
  */
 public class Instrumenter {
     private final Args args;
+    private final SpoonModelService models;
 
     private static final List<String> generatedClasses = Arrays.asList("PM", "PMC");
     private static final Logger log = LoggerFactory.getLogger(Instrumenter.class);
@@ -47,32 +62,49 @@ public class Instrumenter {
      * @param args object with commandline arguments
      */
     public Instrumenter(final Args args) {
+        this(args, new SpoonModelService(args));
+    }
+
+    /**
+     * Constructs the {@link Instrumenter} class that shares Spoon models with other stages.
+     *
+     * @param args   object with commandline arguments
+     * @param models service providing Spoon models for the current run
+     */
+    public Instrumenter(final Args args, final SpoonModelService models) {
         this.args = args;
+        this.models = models;
     }
 
     /**
      * Instruments the input source code and stores the results into
-     * the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory.
+     * the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory.  Only compilation units modified by the instrumentation
+     * are pretty-printed, the rest is copied from the {@link JCProfilerUtil#SRC_IN_DIRNAME} directory.
      */
     public void process() {
-        // always recreate the output directory
-        final Path outputDir = JCProfilerUtil.getInstrOutputDirectory(args.workDir);
-        JCProfilerUtil.recreateDirectory(outputDir);
-
         // prepare and check the model
-        final Launcher spoon = new Launcher();
-        addMissingClasses(spoon);
-        final CtModel model = buildModel(spoon);
+        final Launcher spoon = models.getSourceSpoon();
+        addMissingClasses(spoon.getModel());
+        final CtModel model = spoon.getModel();
         checkArguments(model);
 
+        // track the changes made by the instrumentation
+        new ChangeCollector().attachTo(spoon.getEnvironment());
+
         // Instrument the model
 
         // The insertion of traps must be done BEFORE instrumentation of the entry point class, otherwise the custom
         // instruction handler could be unreachable due to the trap inserted before its invocation which will break
         // selection of e.g. next fatal trap.
+        InsertAllocationTrapProcessor allocationTrapProcessor = null;
         switch (args.mode) {
             case memory:
-                spoon.addProcessor(new InsertMemoryTrapProcessor(args));
+                if (args.allocationSites) {
+                    allocationTrapProcessor = new InsertAllocationTrapProcessor(args);
+                    spoon.addProcessor(allocationTrapProcessor);
+                } else {
+                    spoon.addProcessor(new InsertMemoryTrapProcessor(args));
+                }
                 spoon.addProcessor(new ModifyMemoryEntryPointProcessor(args));
                 break;
             case time:
@@ -83,62 +115,197 @@ public class Instrumenter {
                 spoon.addProcessor(new InsertCustomTrapProcessor(args));
                 spoon.addProcessor(new ModifyCustomEntryPointProcessor(args));
                 break;
+            case count:
+                spoon.addProcessor(new InsertCountTrapProcessor(args));
+                spoon.addProcessor(new ModifyCountEntryPointProcessor(args));
+                break;
             default:
                 throw new RuntimeException("Unreachable statement reached!");
         }
 
-        // add workarounds for bugs in Spoon
-        spoon.addProcessor(new SpoonWorkarounds.FixNestedClassImportProcessor());
-        spoon.addProcessor(new SpoonWorkarounds.FixStaticMethodImportProcessor());
-        spoon.addProcessor(new SpoonWorkarounds.FixStaticFieldImportProcessor());
-
         log.info("Instrumenting existing classes.");
         spoon.process();
 
-        // save the result
-        spoon.getEnvironment().setOutputType(OutputType.CLASSES);
-        spoon.setSourceOutputDirectory(outputDir.toFile());
+        final Set<CtType<?>> modifiedTypes = getModifiedTypes(model, spoon.getEnvironment());
 
-        log.info("Saving instrumented classes.");
-        spoon.prettyprint();
+        // add workarounds for bugs in Spoon, they only affect the pretty-printed types
+        final ProcessingManager workarounds = new QueueProcessingManager(spoon.getFactory());
+        workarounds.addProcessor(new SpoonWorkarounds.FixNestedClassImportProcessor());
+        workarounds.addProcessor(new SpoonWorkarounds.FixStaticMethodImportProcessor());
+        workarounds.addProcessor(new SpoonWorkarounds.FixStaticFieldImportProcessor());
+        workarounds.process(modifiedTypes);
+
+        // save the result
+        saveInstrumentedSources(spoon, modifiedTypes);
 
         // check that all PMC members are unique
         checkPMC(model);
+
+        saveAllocationSites(allocationTrapProcessor);
     }
 
     /**
-     * Builds and returns a Spoon model.
+     * Returns the top-level types that have to be pretty-printed, i.e. the generated ones and all types
+     * declared in a compilation unit that was modified by the instrumentation.
      *
-     * @param  spoon Spoon instance
-     * @return       a {@link CtModel} Spoon model
+     * @param  model Spoon model
+     * @param  env   Spoon environment with an attached {@link ChangeCollector}
+     * @return       set of top-level types
+     */
+    private Set<CtType<?>> getModifiedTypes(final CtModel model, final Environment env) {
+        final ChangeCollector changeCollector = ChangeCollector.getChangeCollector(env);
+        final Set<CtType<?>> modifiedTypes = new LinkedHashSet<>();
+        final Map<Path, List<CtType<?>>> typesByFile = new LinkedHashMap<>();
+        for (final CtType<?> type : model.getAllTypes()) {
+            final Path file = getInputFile(type);
+            if (file == null)
+                modifiedTypes.add(type);
+            else
+                typesByFile.computeIfAbsent(file, k -> new ArrayList<>()).add(type);
+        }
+
+        typesByFile.forEach((file, types) -> {
+            if (types.stream().anyMatch(t -> !changeCollector.getChanges(t).isEmpty())) {
+                log.debug("{} was modified.", file);
+                modifiedTypes.addAll(types);
+            }
+        });
+        return modifiedTypes;
+    }
+
+    /**
+     * Returns the file in the {@link JCProfilerUtil#SRC_IN_DIRNAME} directory that declares the given type.
      *
-     * @throws ModelBuildingException if the model could not be successfully built
-     * @throws RuntimeException       if the import resolution failed
+     * @param  type a top-level type
+     * @return      path to the file or null if the type was generated
      */
-    private CtModel buildModel(final Launcher spoon) {
-        JCProfilerUtil.setupSpoon(spoon, args);
-        spoon.addInputResource(JCProfilerUtil.getSourceInputDirectory(args.workDir).toString());
+    private Path getInputFile(final CtType<?> type) {
+        final SourcePosition position = type.getPosition();
+        if (!position.isValidPosition() || position.getFile() == null)
+            return null;
+
+        final Path file = position.getFile().toPath().toAbsolutePath().normalize();
+        return file.startsWith(JCProfilerUtil.getSourceInputDirectory(args.workDir).toAbsolutePath().normalize())
+               ? file : null;
+    }
 
-        log.debug("Building Spoon model.");
+    /**
+     * Stores the instrumented sources into the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory.  The given
+     * types are pretty-printed and the remaining input files are copied without any change.  Files whose contents
+     * did not change are not rewritten to keep their timestamps and stale files are removed.
+     *
+     * @param spoon         Spoon instance
+     * @param modifiedTypes top-level types that have to be pretty-printed
+     */
+    private void saveInstrumentedSources(final Launcher spoon, final Set<CtType<?>> modifiedTypes) {
+        final Path outputDir = JCProfilerUtil.getInstrOutputDirectory(args.workDir);
+        final Set<Path> outputFiles = new HashSet<>();
+        Path tmpDir = null;
         try {
-            return spoon.buildModel();
-        } catch (ModelBuildingException e) {
-            if (!e.getMessage().matches(".* cannot be resolved (to a type )?at .*"))
-                throw e;
+            Files.createDirectories(outputDir);
+
+            // pretty-print the modified types into a temporary directory
+            tmpDir = Files.createTempDirectory("jcprofiler");
+            spoon.getEnvironment().setOutputType(OutputType.CLASSES);
+            spoon.setSourceOutputDirectory(tmpDir.toFile());
+            spoon.setOutputFilter(modifiedTypes::contains);
+
+            log.info("Saving {} instrumented classes.", modifiedTypes.size());
+            spoon.prettyprint();
+
+            try (Stream<Path> s = Files.walk(tmpDir)) {
+                for (final Path file : s.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    final Path relative = tmpDir.relativize(file);
+                    updateFile(file, outputDir.resolve(relative));
+                    outputFiles.add(relative);
+                }
+            }
+
+            // copy the remaining files
+            final Set<Path> copiedFiles = new LinkedHashSet<>();
+            for (final CtType<?> type : spoon.getModel().getAllTypes()) {
+                if (modifiedTypes.contains(type))
+                    continue;
 
-            throw new RuntimeException(
-                    "Import resolution failed! Use the --jar option to add the corresponding JAR file with imports.",
-                    e);
+                final Path file = getInputFile(type);
+                if (file == null || !copiedFiles.add(file))
+                    continue;
+
+                final Path relative = Paths.get(type.getPackage().getQualifiedName().replace('.', File.separatorChar))
+                        .resolve(file.getFileName());
+                updateFile(file, outputDir.resolve(relative));
+                outputFiles.add(relative);
+            }
+            log.info("Copied {} unmodified files.", copiedFiles.size());
+
+            // remove files that are not part of the output anymore
+            try (Stream<Path> s = Files.walk(outputDir)) {
+                for (final Path file : s.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    if (!outputFiles.contains(outputDir.relativize(file))) {
+                        log.debug("Removing stale {}.", file);
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (tmpDir != null)
+                FileUtils.deleteQuietly(tmpDir.toFile());
+        }
+    }
+
+    /**
+     * Copies the source file to the target path unless the target already has the same contents.
+     *
+     * @param  source path to the source file
+     * @param  target path to the target file
+     *
+     * @throws IOException if the copying failed
+     */
+    private static void updateFile(final Path source, final Path target) throws IOException {
+        if (Files.isRegularFile(target) && FileUtils.contentEquals(source.toFile(), target.toFile()))
+            return;
+
+        log.debug("Writing {}.", target);
+        Files.createDirectories(target.getParent());
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Stores the instrumented allocation sites into the {@code allocationSites.csv} file.  The file is
+     * removed if the allocation sites were not instrumented, so that it never describes stale traps.
+     *
+     * @param processor processor that instrumented the allocation sites or null
+     */
+    private void saveAllocationSites(final InsertAllocationTrapProcessor processor) {
+        final Path csv = args.workDir.resolve("allocationSites.csv");
+        try {
+            if (processor == null) {
+                Files.deleteIfExists(csv);
+                return;
+            }
+
+            try (final CSVPrinter printer = new CSVPrinter(new FileWriter(csv.toFile()),
+                                                           JCProfilerUtil.getCSVFormat())) {
+                printer.printComment("trapBefore,trapAfter,type#signature,position,allocations,repeatable");
+                for (final InsertAllocationTrapProcessor.AllocationSite site : processor.getAllocationSites())
+                    printer.printRecord(site.toList());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+
+        log.info("Allocation sites saved to {}.", csv);
     }
 
     /**
-     * Validates the --entry-point and --executable arguments.
+     * Validates the --entry-point, --executable and --executables arguments.
      *
      * @param model Spoon model
      */
     private void checkArguments(final CtModel model) {
-        log.info("Validating '--entry-point' and '--executable' arguments.");
+        log.info("Validating '--entry-point', '--executable' and '--executables' arguments.");
 
         // validate args.entryPoint
         args.entryPoint = JCProfilerUtil.getEntryPoint(model, args.entryPoint).getQualifiedName();
@@ -150,6 +317,7 @@ public class Instrumenter {
             case memory:
                 executable = JCProfilerUtil.getProfiledExecutable(model, args.entryPoint, args.executable);
                 break;
+            case count:
             case time:
                 executable = JCProfilerUtil.getProfiledMethod(model, args.executable);
                 break;
@@ -157,24 +325,44 @@ public class Instrumenter {
                 throw new RuntimeException("Unreachable statement reached!");
         }
         args.executable = JCProfilerUtil.getFullSignature(executable);
+
+        // validate and expand args.executables
+        if (args.executables.isEmpty())
+            return;
+
+        final List<CtExecutable<?>> candidates = model
+                .filterChildren(e -> e instanceof CtMethod || (args.mode == Mode.memory && e instanceof CtConstructor))
+                .filterChildren((CtExecutable<?> e) -> e.getBody() != null && !generatedClasses.contains(
+                        ((CtTypeMember) e).getDeclaringType().getTopLevelType().getSimpleName()))
+                .list();
+
+        final Set<String> signatures = new TreeSet<>();
+        for (final String executableName : args.executables) {
+            final List<String> matching = candidates.stream().map(JCProfilerUtil::getFullSignature)
+                    .filter(s -> JCProfilerUtil.matchesExecutable(s, executableName)).collect(Collectors.toList());
+            if (matching.isEmpty())
+                throw new RuntimeException(String.format(
+                        "None of the provided types contain an executable matching %s!", executableName));
+            signatures.addAll(matching);
+        }
+
+        signatures.add(args.executable);
+        args.executables = new ArrayList<>(signatures);
+        log.info("Instrumenting {} executables: {}", args.executables.size(), args.executables);
     }
 
     /**
      * Generates the {@link Instrumenter#generatedClasses} classes
-     * and adds them to the given Spoon instance.
+     * and adds them to the given Spoon model.
      *
-     * @param spoon Spoon instance
+     * @param model Spoon model of the input sources
      *
      * @throws UnsupportedOperationException for multipackage projects, for projects using the default package
      */
-    private void addMissingClasses(final Launcher spoon) {
+    private void addMissingClasses(final CtModel model) {
         log.info("Generating additional classes.");
 
-        // this atrocity seems to be required as Spoon does not allow a module rebuild :(
-        final Launcher tmpSpoon = new Launcher();
-        buildModel(tmpSpoon);
-
-        final List<CtType<?>> types = tmpSpoon.getModel().getElements(CtType.class::isInstance);
+        final List<CtType<?>> types = model.getElements(CtType.class::isInstance);
         final Set<CtPackage> pkgs = types.stream().map(CtType::getPackage)
                 .filter(Objects::nonNull).collect(Collectors.toSet());
         log.debug("Found following packages in sources: {}", pkgs);
@@ -198,6 +386,7 @@ public class Instrumenter {
         }
 
         final String packageName = pkgs.iterator().next().getQualifiedName();
+        final List<SpoonResource> resources = new ArrayList<>();
         for (final String className : generatedClasses) {
             log.debug("Looking for existing {} class.", className);
             final long count = types.stream()
@@ -214,7 +403,7 @@ public class Instrumenter {
                     switch (args.mode) {
                     case custom:
                         log.info("Using custom PM class from {}.", args.customPM);
-                        spoon.addInputResource(args.customPM.toString());
+                        resources.add(SpoonResourceHelper.createResource(args.customPM.toFile()));
                         continue;
                     case memory:
                         actualFilename = args.mode + "/" + className;
@@ -233,6 +422,18 @@ public class Instrumenter {
                         actualFilename += (useNewerAPI ? "-new" : "-old") + ".java";
                         break;
                     case time:
+                        actualFilename = args.mode + "/" + className;
+                        if (args.fusedApdu) {
+                            log.info("Using trap IDs fused with the trigger APDU.");
+                            actualFilename += "-fused";
+                        }
+                        if (args.coverage) {
+                            log.info("Using an on-card trap coverage bitmap.");
+                            actualFilename += "-coverage";
+                        }
+                        actualFilename += ".java";
+                        break;
+                    case count:
                         actualFilename = args.mode + "/" + className + ".java";
                         break;
                     default:
@@ -250,13 +451,16 @@ public class Instrumenter {
                             .collect(Collectors.joining(System.lineSeparator()))
                             // set package name
                             .replace("jcprofiler", packageName);
-                    spoon.addInputResource(new VirtualFile(src, filename));
+                    resources.add(new VirtualFile(src, filename));
                 }
                 log.debug("Successfully generated new {} class.", filename);
             } catch (final IOException e) {
                 throw new RuntimeException(e);
             }
         }
+
+        // parse only the generated classes instead of rebuilding the whole model
+        models.addToSourceModel(resources);
     }
 
     /**
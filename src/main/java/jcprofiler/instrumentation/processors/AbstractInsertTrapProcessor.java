@@ -37,10 +37,15 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
     protected String trapNamePrefix;
 
     /**
-     * Number of inserted traps
+     * Number of traps inserted into the processed executable
      */
     protected int trapCount;
 
+    /**
+     * Number of traps inserted into all processed executables
+     */
+    protected int totalTrapCount;
+
     /**
      * Constructs the {@link AbstractInsertTrapProcessor} class.
      *
@@ -51,14 +56,16 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
     }
 
     /**
-     * Decides whether the input {@link CtExecutable} should be processed.
+     * Decides whether the input {@link CtExecutable} should be processed, i.e. whether it was selected
+     * by the {@code --executable} or {@code --executables} option.
      *
      * @param  executable the candidate {@link CtExecutable}
      * @return            true if yes, otherwise false
      */
     @Override
     public boolean isToBeProcessed(final T executable) {
-        return JCProfilerUtil.getFullSignature(executable).equals(args.executable);
+        final String signature = JCProfilerUtil.getFullSignature(executable);
+        return signature.equals(args.executable) || args.executables.contains(signature);
     }
 
     /**
@@ -231,7 +238,7 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
      * @param  statement a statement
      * @return           true if the input statement is a terminator, otherwise false
      */
-    private boolean isTerminator(final CtStatement statement) {
+    protected boolean isTerminator(final CtStatement statement) {
         // if the statement is a block just go inside
         if (statement instanceof CtBlock) {
             final CtBlock<?> block = (CtBlock<?>) statement;
@@ -302,6 +309,7 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
      */
     private CtInvocation<?> insertPMCall(final CtElement element, final Insert where) {
         final String trapName = String.format("%s_%d", trapNamePrefix, ++trapCount);
+        totalTrapCount++;
 
         final CtField<Short> trapField = addTrapField(trapName);
         if (trapCount == 1)
@@ -329,7 +337,7 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
      *
      * @param block block of statements
      */
-    private void insertTrapCheck(final CtStatementList block) {
+    protected void insertTrapCheck(final CtStatementList block) {
         final CtInvocation<?> pmCall = insertPMCall(block, Insert.INTO);
         if (block.getStatements().isEmpty())
             block.addStatement(pmCall);
@@ -340,15 +348,17 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
     /**
      * Inserts a new performance trap before/after the input statement.
      *
-     * @param statement a statement
-     * @param where     position relative to the statement
+     * @param  statement a statement
+     * @param  where     position relative to the statement
+     * @return           name of the inserted trap
      */
-    private void insertTrapCheck(final CtStatement statement, final Insert where) {
+    protected String insertTrapCheck(final CtStatement statement, final Insert where) {
         final CtInvocation<?> pmCall = insertPMCall(statement, where);
         if (where == Insert.AFTER)
             statement.insertAfter(pmCall);
         else
             statement.insertBefore(pmCall);
+        return ((CtFieldRead<?>) pmCall.getArguments().get(0)).getVariable().getSimpleName();
     }
 
     /**
@@ -367,37 +377,81 @@ public abstract class AbstractInsertTrapProcessor<T extends CtExecutable<?>> ext
                     "PMC.%s has type %s! Expected: short",
                     previousTrap.getSimpleName(), previousTrap.getType().getQualifiedName()));
 
-        @SuppressWarnings("unchecked") // the runtime check is above
-        final CtField<Short> previousTrapCasted = (CtField<Short>) previousTrap;
-        final CtFieldRead<Short> previousTrapRead = getFactory().createFieldRead();
-        previousTrapRead.setTarget(getFactory().createTypeAccess(PMC.getReference(), /* implicit */ true));
-        previousTrapRead.setVariable(previousTrapCasted.getReference());
+        // evaluate previousTrap so that trap IDs can be read without evaluating the whole PMC class
+        final CtLiteral<?> previousTrapValue = previousTrap.getDefaultExpression() != null
+                ? previousTrap.getDefaultExpression().partiallyEvaluate() : null;
+        if (previousTrapValue == null || !(previousTrapValue.getValue() instanceof Number))
+            throw new RuntimeException(String.format(
+                    "PMC.%s is not initialised with a constant!", previousTrap.getSimpleName()));
 
         // create new field
         final CtField<Short> trapField = getFactory().createCtField(
                 trapFieldName, shortType, /* init */ null,
                 ModifierKind.PUBLIC, ModifierKind.STATIC, ModifierKind.FINAL);
 
-        // initialise the new field with (short) (previousTrap + 1)
-        final CtExpression<Integer> sum = getFactory().createBinaryOperator(
-                previousTrapRead, getFactory().createLiteral(1), BinaryOperatorKind.PLUS);
-        sum.setType(getFactory().Type().integerPrimitiveType());
-        sum.addTypeCast(shortType);
+        // initialise the new field with (short) <previousTrap + 1>
+        final CtLiteral<Integer> trapID = getFactory().createLiteral(
+                ((Number) previousTrapValue.getValue()).intValue() + 1);
+        trapID.addTypeCast(shortType);
 
         @SuppressWarnings("unchecked")
         // Unfortunately, this is the best solution we have since Spoon does not reflect type casts in type parameters.
-        final CtExpression<Short> sumCasted = (CtExpression<Short>) (Object) sum;
-        trapField.setAssignment(sumCasted);
+        final CtLiteral<Short> trapIDCasted = (CtLiteral<Short>) (Object) trapID;
+        trapField.setAssignment(trapIDCasted);
 
         // add the field to PMC class
         PMC.addField(trapField);
         return trapField;
     }
 
+    /**
+     * Sets the value of {@code PM#ARRAY_LENGTH} to the number of bytes needed to store
+     * a single value for every trap of all processed executables.
+     *
+     * @param  valueBytes size of a single value in bytes
+     *
+     * @throws RuntimeException when the PM does not contain the {@code PM#ARRAY_LENGTH} field or when
+     *                          the arrays of the PM would not fit into a short.
+     */
+    protected void fixPMArrayLength(final int valueBytes) {
+        final int arrayLength = totalTrapCount * valueBytes;
+        if (arrayLength > Short.MAX_VALUE)
+            throw new RuntimeException(String.format(
+                    "%d traps need %d bytes but PM.ARRAY_LENGTH cannot exceed %d!",
+                    totalTrapCount, arrayLength, Short.MAX_VALUE));
+
+        // the memory PM addresses the records of all three memory types by offsets up to PM.TOTAL_LENGTH
+        if (PM.getField("TOTAL_LENGTH") != null && 3L * arrayLength > Short.MAX_VALUE)
+            throw new RuntimeException(String.format(
+                    "%d traps need %d bytes but PM.TOTAL_LENGTH (3 * PM.ARRAY_LENGTH) cannot exceed %d!",
+                    totalTrapCount, 3L * arrayLength, Short.MAX_VALUE));
+
+        final CtTypeReference<Short> shortRef = getFactory().Type().shortPrimitiveType();
+        final CtLiteral<Integer> arrayLengthLiteral = getFactory().createLiteral(arrayLength);
+        arrayLengthLiteral.addTypeCast(shortRef);
+
+        // get PM.ARRAY_LENGTH field
+        final CtField<?> arrayLengthField = PM.getField("ARRAY_LENGTH");
+
+        if (arrayLengthField == null)
+            throw new RuntimeException("PM does not contain an ARRAY_LENGTH field.");
+        if (!arrayLengthField.getType().equals(shortRef))
+            throw new RuntimeException(
+                    "PM.ARRAY_LENGTH field is of type " + arrayLengthField.getType() + "! Expected short.");
+
+        @SuppressWarnings("unchecked") // the runtime check is above
+        final CtField<Short> arrayLengthFieldCasted = (CtField<Short>) arrayLengthField;
+
+        @SuppressWarnings("unchecked")
+        // Unfortunately, this is the best solution we have since Spoon does not reflect type casts in type parameters.
+        final CtLiteral<Short> arrayLengthLiteralCasted = (CtLiteral<Short>) (Object) arrayLengthLiteral;
+        arrayLengthFieldCasted.setAssignment(arrayLengthLiteralCasted);
+    }
+
     /**
      * Direction of statement insertion
      */
-    private enum Insert {
+    protected enum Insert {
         AFTER,
         BEFORE,
         INTO
@@ -150,6 +150,7 @@ public abstract class AbstractModifyEntryPointProcessor extends AbstractProfiler
      * @throws RuntimeException if the process method already contains a custom
      *                          instruction handler, but with a different body,
      *                          or if the handler does not end with a return statement
+     *                          and it must not fall through
      */
     private void insertCustomInsHandler(final CtMethod<Void> processMethod, final CtField<Byte> insPerfField) {
         // ${param}
@@ -203,7 +204,7 @@ public abstract class AbstractModifyEntryPointProcessor extends AbstractProfiler
         //     ${createInsHandlerBody}
         // }
         final CtBlock<Void> insHandlerBody = createInsHandlerBody(apduParamRead);
-        if (!(insHandlerBody.getLastStatement() instanceof CtReturn))
+        if (!isFallThroughHandler() && !(insHandlerBody.getLastStatement() instanceof CtReturn))
             throw new RuntimeException("The handler body must end with a return statement!");
 
         final CtIf ifStatement = getFactory().createIf();
@@ -236,6 +237,16 @@ public abstract class AbstractModifyEntryPointProcessor extends AbstractProfiler
                 fieldName, JCProfilerUtil.getFullSignature(processMethod));
     }
 
+    /**
+     * Decides whether the custom instruction handler may continue with the rest of the process method,
+     * e.g. when the custom instruction is fused with the trigger APDU.
+     *
+     * @return true if yes, otherwise false
+     */
+    protected boolean isFallThroughHandler() {
+        return false;
+    }
+
     /**
      * Creates a body of the custom instruction handler.
      *
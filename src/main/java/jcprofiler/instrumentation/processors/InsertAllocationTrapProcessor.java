@@ -0,0 +1,299 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.instrumentation.processors;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.JCProfilerUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spoon.reflect.code.*;
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtTypeReference;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Class for performance trap insertion around allocation sites in memory mode
+ * <br>
+ * Instead of inserting a trap after every statement, only statements of the profiled executable and
+ * all its callees that allocate memory are surrounded by a pair of traps.  A statement allocates memory
+ * if it contains a {@code new} expression, an array initializer, a {@code JCSystem.makeTransient*Array}
+ * call or a {@code KeyBuilder.buildKey} call.  Callees are resolved statically, so implementations
+ * of abstract methods and interfaces are not instrumented.
+ * <br>
+ * Traps store only the free memory at their last hit, so statements that may be executed repeatedly
+ * in a single execution of the profiled executable, i.e. in a loop or in a callee, are marked as repeatable.
+ * Only their last execution is attributed to them.
+ * <br>
+ * Applicable to instances of {@link CtExecutable}.
+ */
+public class InsertAllocationTrapProcessor extends InsertMemoryTrapProcessor {
+    private static final Logger log = LoggerFactory.getLogger(InsertAllocationTrapProcessor.class);
+
+    private final List<AllocationSite> allocationSites = new ArrayList<>();
+
+    /**
+     * Constructs the {@link InsertAllocationTrapProcessor} class.
+     *
+     * @param args object with commandline arguments
+     */
+    public InsertAllocationTrapProcessor(final Args args) {
+        super(args);
+    }
+
+    /**
+     * Returns the list of instrumented allocation sites.
+     *
+     * @return unmodifiable list of allocation sites in the order of their traps
+     */
+    public List<AllocationSite> getAllocationSites() {
+        return Collections.unmodifiableList(allocationSites);
+    }
+
+    /**
+     * Inserts traps around allocation sites of the given {@link CtExecutable} instance and its callees.
+     *
+     * @param executable an executable instance
+     */
+    @Override
+    public void process(final CtExecutable<?> executable) {
+        // make e.g. default constructor visible
+        executable.setImplicit(false);
+
+        // initialise
+        fullSignature = JCProfilerUtil.getFullSignature(executable);
+        trapCount = 0;
+        trapNamePrefix = JCProfilerUtil.getTrapNamePrefix(executable);
+        allocationSites.clear();
+
+        log.info("Instrumenting allocation sites reachable from {}.", fullSignature);
+
+        // all executables must be collected before any trap is inserted
+        final Map<CtExecutable<?>, Map<CtStatement, List<CtElement>>> sites = new LinkedHashMap<>();
+        for (final CtExecutable<?> e : getReachableExecutables(executable)) {
+            final Map<CtStatement, List<CtElement>> statements = getAllocatingStatements(e);
+            if (!statements.isEmpty())
+                sites.put(e, statements);
+        }
+
+        sites.forEach((e, statements) -> statements.forEach((statement, allocations) -> {
+            final boolean repeatable = isRepeatable(statement, e, executable);
+            final String before = insertTrapCheck(statement, Insert.BEFORE);
+            final String after = insertTrapCheck(statement, Insert.AFTER);
+            allocationSites.add(new AllocationSite(before, after, JCProfilerUtil.getFullSignature(e),
+                    formatPosition(statement.getPosition()),
+                    allocations.stream().map(CtElement::toString).collect(Collectors.joining("; ")), repeatable));
+        }));
+
+        if (allocationSites.isEmpty()) {
+            log.warn("No allocation site found in {} and its callees!", fullSignature);
+
+            // the profiler needs at least one trap
+            insertTrapCheck(executable.getBody());
+        } else {
+            log.info("Instrumented {} allocation sites.", allocationSites.size());
+        }
+
+        fixPMArrayLength();
+    }
+
+    /**
+     * Collects the given executable and all executables with a body statically reachable from it.
+     *
+     * @param  root the profiled executable
+     * @return      list of executables in the breadth-first order
+     */
+    private List<CtExecutable<?>> getReachableExecutables(final CtExecutable<?> root) {
+        final Set<CtExecutable<?>> visited = new LinkedHashSet<>();
+        final Deque<CtExecutable<?>> queue = new ArrayDeque<>();
+        queue.add(root);
+
+        while (!queue.isEmpty()) {
+            final CtExecutable<?> executable = queue.poll();
+            if (executable.getBody() == null || !visited.add(executable))
+                continue;
+
+            executable.getBody().<CtAbstractInvocation<?>>getElements(CtAbstractInvocation.class::isInstance)
+                    .stream().map(CtAbstractInvocation::getExecutable).filter(Objects::nonNull)
+                    .map(CtExecutableReference::getExecutableDeclaration).filter(Objects::nonNull)
+                    .filter(e -> !isGenerated(e)).forEach(queue::add);
+        }
+
+        return new ArrayList<>(visited);
+    }
+
+    /**
+     * Checks whether the given executable is declared in the generated PM or PMC classes.
+     *
+     * @param  executable an executable
+     * @return            true if yes, otherwise false
+     */
+    private boolean isGenerated(final CtExecutable<?> executable) {
+        final CtType<?> type = executable.getParent(CtType.class);
+        return type != null && (type.equals(PM) || type.equals(PMC));
+    }
+
+    /**
+     * Groups allocation sites of the given executable by the statements they belong to.
+     * Sites whose statement cannot be surrounded by traps are skipped.
+     *
+     * @param  executable an executable
+     * @return            map between statements and their allocation sites in the source order
+     */
+    private Map<CtStatement, List<CtElement>> getAllocatingStatements(final CtExecutable<?> executable) {
+        final Map<CtStatement, List<CtElement>> statements = new LinkedHashMap<>();
+        for (final CtElement site : executable.getBody().getElements(this::isAllocationSite)) {
+            final CtStatement statement = getEnclosingStatement(site);
+            if (statement == null || isTerminator(statement) || isConstructorCall(statement)) {
+                log.warn("Skipping allocation site {} at {} that cannot be surrounded by traps.",
+                         site, formatPosition(site.getPosition()));
+                continue;
+            }
+
+            statements.computeIfAbsent(statement, k -> new ArrayList<>()).add(site);
+        }
+        return statements;
+    }
+
+    /**
+     * Checks whether the given element allocates memory.
+     *
+     * @param  element an element
+     * @return         true if yes, otherwise false
+     */
+    private boolean isAllocationSite(final CtElement element) {
+        // nested array initializers belong to the outer one
+        if (element instanceof CtNewArray)
+            return !(element.getParent() instanceof CtNewArray);
+
+        if (element instanceof CtConstructorCall)
+            return true;
+
+        if (!(element instanceof CtInvocation))
+            return false;
+
+        final CtExecutableReference<?> method = ((CtInvocation<?>) element).getExecutable();
+        final CtTypeReference<?> declaringType = method.getDeclaringType();
+        if (declaringType == null)
+            return false;
+
+        final String name = method.getSimpleName();
+        switch (declaringType.getQualifiedName()) {
+            case "javacard.framework.JCSystem":
+                return name.startsWith("makeTransient") && name.endsWith("Array");
+            case "javacard.security.KeyBuilder":
+                return name.equals("buildKey");
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the statement directly contained in a block or a switch case that contains the given element.
+     *
+     * @param  element an element
+     * @return         enclosing statement or null if there is none
+     */
+    private CtStatement getEnclosingStatement(final CtElement element) {
+        CtElement current = element;
+        while (current != null && !(current instanceof CtExecutable)) {
+            if (current instanceof CtStatement && current.getParent() instanceof CtStatementList)
+                return (CtStatement) current;
+            current = current.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the given statement may be executed repeatedly in a single execution of the profiled
+     * executable, i.e. whether it lies in a loop or in a callee.
+     *
+     * @param  statement  a statement
+     * @param  executable executable containing the statement
+     * @param  root       the profiled executable
+     * @return            true if yes, otherwise false
+     */
+    private static boolean isRepeatable(final CtStatement statement, final CtExecutable<?> executable,
+                                        final CtExecutable<?> root) {
+        if (executable != root)
+            return true;
+
+        final CtLoop loop = statement.getParent(CtLoop.class);
+        return loop != null && loop.hasParent(executable);
+    }
+
+    /**
+     * Checks whether the given statement is an explicit {@code super(...)} or {@code this(...)} call.
+     * No statement can be inserted before such calls.
+     *
+     * @param  statement a statement
+     * @return           true if yes, otherwise false
+     */
+    private boolean isConstructorCall(final CtStatement statement) {
+        return statement instanceof CtInvocation && ((CtInvocation<?>) statement).getExecutable()
+                .getSimpleName().equals(CtExecutableReference.CONSTRUCTOR_NAME);
+    }
+
+    /**
+     * Formats the given source position as {@code file:line}.
+     *
+     * @param  position source position
+     * @return          formatted position or {@code unknown} if the position is not valid
+     */
+    private static String formatPosition(final SourcePosition position) {
+        if (!position.isValidPosition())
+            return "unknown";
+        return position.getFile().getName() + ":" + position.getLine();
+    }
+
+    /**
+     * Allocation site surrounded by a pair of traps
+     */
+    public static class AllocationSite {
+        private final String trapBefore;
+        private final String trapAfter;
+        private final String executable;
+        private final String position;
+        private final String allocations;
+        private final boolean repeatable;
+
+        /**
+         * Constructs the {@link AllocationSite} class.
+         *
+         * @param trapBefore  name of the trap inserted before the allocating statement
+         * @param trapAfter   name of the trap inserted after the allocating statement
+         * @param executable  full signature of the executable containing the statement
+         * @param position    position of the statement
+         * @param allocations allocating expressions in the statement
+         * @param repeatable  whether the statement may be executed repeatedly and only its last execution
+         *                    is measured
+         */
+        public AllocationSite(final String trapBefore, final String trapAfter, final String executable,
+                              final String position, final String allocations, final boolean repeatable) {
+            this.trapBefore = trapBefore;
+            this.trapAfter = trapAfter;
+            this.executable = executable;
+            this.position = position;
+            this.allocations = allocations;
+            this.repeatable = repeatable;
+        }
+
+        /**
+         * Returns the values in the order of the {@code allocationSites.csv} columns.
+         *
+         * @return list of values
+         */
+        public List<String> toList() {
+            return Arrays.asList(trapBefore, trapAfter, executable, position, allocations,
+                                 String.valueOf(repeatable));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.instrumentation.processors;
+
+import jcprofiler.args.Args;
+
+import spoon.reflect.declaration.CtMethod;
+
+/**
+ * Class for performance trap insertion in count mode
+ * <br>
+ * Applicable to instances of {@link CtMethod}.
+ */
+public class InsertCountTrapProcessor extends AbstractInsertTrapProcessor<CtMethod<?>> {
+    /**
+     * Constructs the {@link InsertCountTrapProcessor} class.
+     *
+     * @param args object with commandline arguments
+     */
+    public InsertCountTrapProcessor(final Args args) {
+        super(args);
+    }
+
+    /**
+     * Inserts traps into the given {@link CtMethod} instance.
+     *
+     * @param method a method instance
+     */
+    @Override
+    public void process(final CtMethod<?> method) {
+        super.process(method);
+
+        // every trap has a short counter
+        fixPMArrayLength(Short.BYTES);
+    }
+}
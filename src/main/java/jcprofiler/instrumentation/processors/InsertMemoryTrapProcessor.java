@@ -7,10 +7,7 @@ import jcprofiler.args.Args;
 
 import pro.javacard.JavaCardSDK;
 
-import spoon.reflect.code.CtLiteral;
 import spoon.reflect.declaration.CtExecutable;
-import spoon.reflect.declaration.CtField;
-import spoon.reflect.reference.CtTypeReference;
 
 /**
  * Class for performance trap insertion in memory mode
@@ -40,36 +37,12 @@ public class InsertMemoryTrapProcessor extends AbstractInsertTrapProcessor<CtExe
 
     /**
      * Sets the value of {@code PM#ARRAY_LENGTH} to the expected number of bytes
-     * needed for memory profiling of given executable.
-     *
-     * @throws RuntimeException when the PM does not contain the {@code PM#ARRAY_LENGTH} field.
+     * needed for memory profiling of all processed executables.
      */
-    private void fixPMArrayLength() {
+    protected void fixPMArrayLength() {
         // handle support for 16bit and 32bit values
-        final int arrayLength = trapCount *
-                (!args.useSimulator && args.jcSDK.getVersion().ordinal() >= JavaCardSDK.Version.V304.ordinal()
-                    ? Integer.BYTES
-                    : Short.BYTES);
-
-        final CtTypeReference<Short> shortRef = getFactory().Type().shortPrimitiveType();
-        final CtLiteral<Integer> arrayLengthLiteral = getFactory().createLiteral(arrayLength);
-        arrayLengthLiteral.addTypeCast(shortRef);
-
-        // get PM.ARRAY_LENGTH field
-        final CtField<?> arrayLengthField = PM.getField("ARRAY_LENGTH");
-
-        if (arrayLengthField == null)
-            throw new RuntimeException("PM does not contain an ARRAY_LENGTH field.");
-        if (!arrayLengthField.getType().equals(shortRef))
-            throw new RuntimeException(
-                    "PM.ARRAY_LENGTH field is of type " + arrayLengthField.getType() + "! Expected short.");
-
-        @SuppressWarnings("unchecked") // the runtime check is above
-        final CtField<Short> arrayLengthFieldCasted = (CtField<Short>) arrayLengthField;
-
-        @SuppressWarnings("unchecked")
-        // Unfortunately, this is the best solution we have since Spoon does not reflect type casts in type parameters.
-        final CtLiteral<Short> arrayLengthLiteralCasted = (CtLiteral<Short>) (Object) arrayLengthLiteral;
-        arrayLengthFieldCasted.setAssignment(arrayLengthLiteralCasted);
+        fixPMArrayLength(!args.useSimulator && args.jcSDK.getVersion().ordinal() >= JavaCardSDK.Version.V304.ordinal()
+                         ? Integer.BYTES
+                         : Short.BYTES);
     }
 }
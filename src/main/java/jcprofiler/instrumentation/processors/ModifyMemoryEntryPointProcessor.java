@@ -6,16 +6,23 @@ package jcprofiler.instrumentation.processors;
 import javacard.framework.APDU;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.JCProfilerUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import spoon.reflect.code.CtBlock;
 import spoon.reflect.code.CtInvocation;
 import spoon.reflect.code.CtVariableRead;
 import spoon.reflect.declaration.CtClass;
+import spoon.reflect.reference.CtTypeReference;
 
 /**
  * Class for modification of entry point classes in memory mode
  */
 public class ModifyMemoryEntryPointProcessor extends AbstractModifyEntryPointProcessor {
+    private static final Logger log = LoggerFactory.getLogger(ModifyMemoryEntryPointProcessor.class);
+
     /**
      * Constructs the {@link ModifyMemoryEntryPointProcessor} class.
      *
@@ -27,13 +34,27 @@ public class ModifyMemoryEntryPointProcessor extends AbstractModifyEntryPointPro
 
     /**
      * Inserts an {@code INS_PERF_GETMEM} instruction and its handler
-     * into a given {@link CtClass} instance.
+     * into a given {@link CtClass} instance.  With {@link Args#extendedApdu}, the class
+     * also implements the {@code javacardx.apdu.ExtendedLength} interface.
      *
      * @param cls class to be processed
      */
     @Override
     public void process(final CtClass<?> cls) {
         process(cls, "INS_PERF_GETMEM");
+
+        if (!args.extendedApdu)
+            return;
+
+        final CtTypeReference<?> extendedLength =
+                getFactory().Type().createReference(JCProfilerUtil.EXTENDED_LENGTH_INTERFACE);
+        if (cls.isSubtypeOf(extendedLength)) {
+            log.info("{} already accepts extended length APDUs.", cls.getQualifiedName());
+            return;
+        }
+
+        log.info("Adding {} interface to {}.", extendedLength.getQualifiedName(), cls.getQualifiedName());
+        cls.addSuperInterface(extendedLength);
     }
 
     /**
@@ -8,6 +8,8 @@ import javacard.framework.APDU;
 import jcprofiler.args.Args;
 
 import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtIf;
 import spoon.reflect.code.CtInvocation;
 import spoon.reflect.code.CtVariableRead;
 import spoon.reflect.declaration.CtClass;
@@ -36,6 +38,17 @@ public class ModifyTimeEntryPointProcessor extends AbstractModifyEntryPointProce
         process(cls, "INS_PERF_SETSTOP");
     }
 
+    /**
+     * Decides whether the {@code INS_PERF_SETSTOP} instruction handler may continue with the rest
+     * of the process method.  This is the case when the trap ID is fused with the trigger APDU.
+     *
+     * @return true if yes, otherwise false
+     */
+    @Override
+    protected boolean isFallThroughHandler() {
+        return args.fusedApdu;
+    }
+
     /**
      * Creates a body of the {@code INS_PERF_SETSTOP} instruction handler.
      *
@@ -50,10 +63,26 @@ public class ModifyTimeEntryPointProcessor extends AbstractModifyEntryPointProce
                 getFactory().createTypeAccess(PM.getReference(), false),
                 PM.getMethod("set", apdu.getType()).getReference(), apdu);
 
-        // {
-        //     PM.set(${param});
+        if (!args.fusedApdu) {
+            // {
+            //     PM.set(${param});
+            //     return;
+            // }
+            return getFactory().createBlock().addStatement(PMSetCall).addStatement(getFactory().createReturn());
+        }
+
+        // if (PM.set(${param}))
         //     return;
+        @SuppressWarnings("unchecked") // PM.set(APDU) returns a boolean in the fused variant
+        final CtExpression<Boolean> PMSetCallCasted = (CtExpression<Boolean>) PMSetCall;
+        final CtIf ifStatement = getFactory().createIf();
+        ifStatement.setCondition(PMSetCallCasted);
+        ifStatement.setThenStatement(getFactory().createBlock().addStatement(getFactory().createReturn()));
+
+        // {
+        //     if (PM.set(${param}))
+        //         return;
         // }
-        return getFactory().createBlock().addStatement(PMSetCall).addStatement(getFactory().createReturn());
+        return getFactory().createBlock().addStatement(ifStatement);
     }
 }
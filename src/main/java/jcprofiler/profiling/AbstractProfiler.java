@@ -11,21 +11,20 @@ import cz.muni.fi.crocs.rcard.client.Util;
 
 import jcprofiler.args.Args;
 import jcprofiler.util.enums.InputDivision;
+import jcprofiler.util.JCPMFile;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
 import jcprofiler.util.enums.Mode;
 
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.io.function.IOConsumer;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.commons.math3.util.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.CtModel;
-import spoon.reflect.code.CtFieldAccess;
-import spoon.reflect.code.CtLiteral;
-import spoon.reflect.declaration.*;
-
 import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
@@ -47,6 +46,10 @@ public abstract class AbstractProfiler {
      * Initial value of {@code jcprofiler.PM#nextPerfStop}.
      */
     protected static final short PERF_START = 0x0001;
+    /**
+     * P1 value setting the range of enabled trap IDs
+     */
+    protected static final byte ENABLE_TRAPS = 0x7D;
 
     /**
      * Commandline arguments
@@ -57,9 +60,13 @@ public abstract class AbstractProfiler {
      */
     protected final CardManager cardManager;
     /**
-     * Profiled executable
+     * All card connection instances, the first one is always {@link #cardManager}
      */
-    protected final CtExecutable<?> profiledExecutable;
+    protected final List<CardManager> cardManagers;
+    /**
+     * Manifest of the instrumented sources
+     */
+    protected final TrapManifest manifest;
     /**
      * Signature of the profiled executable
      */
@@ -69,15 +76,6 @@ public abstract class AbstractProfiler {
      */
     protected final boolean measuredDuringInstallation;
 
-    /**
-     * Instance of the PM class
-     */
-    protected final CtType<?> PM;
-    /**
-     * Instance of the PMC class
-     */
-    protected final CtType<?> PMC;
-
     // use LinkedHashX to preserve insertion order
 
     /**
@@ -92,6 +90,10 @@ public abstract class AbstractProfiler {
      * List of generated inputs
      */
     protected final List<String> inputs = new ArrayList<>();
+    /**
+     * Optional header fields stored as {@code name:value} after the mandatory ones
+     */
+    protected final Map<String, String> optionalHeaderFields = new LinkedHashMap<>();
 
     private String elapsedTime;
 
@@ -102,33 +104,44 @@ public abstract class AbstractProfiler {
      *
      * @param  args           object with commandline arguments
      * @param  cardManager    applet connection instance
-     * @param  executable     instance of the profiled executable
+     * @param  manifest       manifest of the instrumented sources
      * @param  customInsField name of the custom instruction field for given profiling mode,
      *                        may be null if the given mode does not depend on such field
      *
      * @throws RuntimeException if the sources were instrumented fo ra different profiling mode
      */
-    protected AbstractProfiler(final Args args, final CardManager cardManager, final CtExecutable<?> executable,
+    protected AbstractProfiler(final Args args, final CardManager cardManager, final TrapManifest manifest,
                                final String customInsField) {
-        final CtModel model = executable.getFactory().getModel();
-        PM = JCProfilerUtil.getToplevelType(model, "PM");
-        PMC = JCProfilerUtil.getToplevelType(model, "PMC");
+        this(args, Collections.singletonList(cardManager), manifest, customInsField);
+    }
 
+    /**
+     * Constructs the {@link AbstractProfiler} class with multiple card connections.
+     *
+     * @param  args           object with commandline arguments
+     * @param  cardManagers   non-empty list of applet connection instances
+     * @param  manifest       manifest of the instrumented sources
+     * @param  customInsField name of the custom instruction field for given profiling mode,
+     *                        may be null if the given mode does not depend on such field
+     *
+     * @throws RuntimeException if the sources were instrumented fo ra different profiling mode
+     */
+    protected AbstractProfiler(final Args args, final List<CardManager> cardManagers,
+                               final TrapManifest manifest, final String customInsField) {
         this.args = args;
-        this.cardManager = cardManager;
+        this.cardManager = cardManagers.get(0);
+        this.cardManagers = cardManagers;
+        this.manifest = manifest;
 
         // check for profiling mode mismatch
-        if (!JCProfilerUtil.entryPointHasField(model, args.entryPoint, customInsField))
+        if (!manifest.entryPointHasField(customInsField))
             throw new RuntimeException(String.format(
                     "Profiling in %s mode but entry point class does not contain %s field!",
                     args.mode, customInsField));
 
         // check if executable is an entry point class constructor
-        measuredDuringInstallation = JCProfilerUtil.getEntryPointConstructor(model, args.entryPoint)
-                .equals(executable);
-
-        profiledExecutable = executable;
-        profiledExecutableSignature = JCProfilerUtil.getFullSignature(executable);
+        measuredDuringInstallation = manifest.isMeasuredDuringInstallation();
+        profiledExecutableSignature = manifest.getExecutable();
 
         buildPerfMapping();
     }
@@ -138,17 +151,39 @@ public abstract class AbstractProfiler {
      *
      * @param  args        object with commandline arguments
      * @param  cardManager applet connection instance
-     * @param  model       a Spoon model
+     * @param  manifest    manifest of the instrumented sources
      * @return             constructed {@link AbstractProfiler} object
      */
-    public static AbstractProfiler create(final Args args, final CardManager cardManager, final CtModel model) {
+    public static AbstractProfiler create(final Args args, final CardManager cardManager,
+                                          final TrapManifest manifest) {
+        return create(args, Collections.singletonList(cardManager), manifest);
+    }
+
+    /**
+     * Factory method
+     *
+     * @param  args         object with commandline arguments
+     * @param  cardManagers non-empty list of applet connection instances
+     * @param  manifest     manifest of the instrumented sources
+     * @return              constructed {@link AbstractProfiler} object
+     *
+     * @throws UnsupportedOperationException if more connections are given and the profiling mode
+     *                                       does not support them
+     */
+    public static AbstractProfiler create(final Args args, final List<CardManager> cardManagers,
+                                          final TrapManifest manifest) {
+        if (cardManagers.size() > 1 && args.mode != Mode.time)
+            throw new UnsupportedOperationException("Profiling on multiple cards is supported only in time mode!");
+
         switch (args.mode) {
+            case count:
+                return new CountProfiler(args, cardManagers.get(0), manifest);
             case custom:
-                return new CustomProfiler(args, cardManager, model);
+                return new CustomProfiler(args, cardManagers.get(0), manifest);
             case memory:
-                return new MemoryProfiler(args, cardManager, model);
+                return new MemoryProfiler(args, cardManagers.get(0), manifest);
             case time:
-                return new TimeProfiler(args, cardManager, model);
+                return new TimeProfiler(args, cardManagers, manifest);
             default:
                 throw new RuntimeException("Unreachable statement reached!");
         }
@@ -166,38 +201,12 @@ public abstract class AbstractProfiler {
 
     /**
      * Populates the {@link #trapNameMap} map.
-     *
-     * @throws RuntimeException if the extraction of traps from profiled executable failed
      */
     private void buildPerfMapping() {
         log.info("Looking for traps in the {}.", profiledExecutableSignature);
-        final String trapNamePrefix = JCProfilerUtil.getTrapNamePrefix(profiledExecutable);
-
-        // get traps form profiledExecutable
-        final List<CtField<Short>> traps = profiledExecutable.filterChildren(CtFieldAccess.class::isInstance)
-                .map((CtFieldAccess<Short> fa) -> fa.getVariable().getFieldDeclaration())
-                .filterChildren((CtField<Short> f) -> f.getSimpleName().startsWith(trapNamePrefix)).list();
-        if (traps.isEmpty())
-            throw new RuntimeException(String.format(
-                    "Extraction of traps from %s failed!", profiledExecutableSignature));
-
-        // get given traps from PMC
-        final List<CtField<Short>> pmTraps = PMC.getElements(
-                (CtField<Short> f) -> f.getSimpleName().startsWith(trapNamePrefix));
-        if (pmTraps.isEmpty())
-            throw new RuntimeException("Extraction of traps from PMC failed!");
-
-        // check that the trap lists are the same
-        if (traps.size() != pmTraps.size() || !new HashSet<>(traps).containsAll(pmTraps))
-            throw new RuntimeException(String.format(
-                    "The profiled method and the PMC class contain different traps!%n" +
-                    "Please, reinstrument the given sources!"));
-
-        // populate the map
-        for (final CtField<Short> f : traps) {
-            final CtLiteral<Number> evaluated = f.getDefaultExpression().partiallyEvaluate();
-            trapNameMap.put(evaluated.getValue().shortValue(), f.getSimpleName());
-            log.info("Found {}.", f.getSimpleName());
+        for (final TrapManifest.Trap trap : manifest.getTraps()) {
+            trapNameMap.put(trap.getID(), trap.getName());
+            log.info("Found {}.", trap.getName());
         }
     }
 
@@ -305,6 +314,18 @@ public abstract class AbstractProfiler {
      * @throws RuntimeException if the applet reset failed
      */
     protected void resetApplet() throws CardException {
+        resetApplet(cardManager);
+    }
+
+    /**
+     * Resets the applet using the given card connection if {@link Args#resetIns} is defined.
+     *
+     * @param  cardManager applet connection instance
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the applet reset failed
+     */
+    protected void resetApplet(final CardManager cardManager) throws CardException {
         if (args.resetIns == null)
             return;
 
@@ -316,6 +337,100 @@ public abstract class AbstractProfiler {
             throw new RuntimeException("Resetting the applet failed with SW " + Integer.toHexString(response.getSW()));
     }
 
+    /**
+     * Returns the length of the array with measurements stored on the card.  The array contains records of all
+     * executables instrumented in the same CAP file, so it must be retrieved as a whole and the records of other
+     * executables must be ignored.
+     *
+     * @param  recordLength length of the measurements of a single trap in bytes
+     * @return              length in bytes
+     */
+    protected int getArrayLength(final int recordLength) {
+        return manifest.getTrapCount() * recordLength;
+    }
+
+    /**
+     * Retrieves the array selected by the P1 byte part by part.
+     *
+     * @param  p1          P1 byte selecting the array
+     * @param  arrayLength length of the array in bytes
+     * @param  partLength  length of a single part in bytes
+     * @param  ne          expected length of every response or zero if none
+     * @return             retrieved byte array
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the measurement retrieval failed
+     */
+    protected byte[] getArray(final byte p1, final int arrayLength, final int partLength, final int ne)
+            throws CardException {
+        final byte[] buffer = new byte[arrayLength];
+
+        int part = 0;
+        int remainingLength = arrayLength;
+
+        // go through the whole array
+        while (remainingLength > 0) {
+            final int nextLength = Math.min(remainingLength, partLength);
+
+            // get the given part
+            final CommandAPDU getMeasurements = new CommandAPDU(
+                    args.cla, JCProfilerUtil.INS_PERF_HANDLER, p1, part++, ne);
+            final ResponseAPDU response = cardManager.transmit(getMeasurements);
+            if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+                throw new RuntimeException(
+                        "Getting measurements failed with SW " + Integer.toHexString(response.getSW()));
+
+            final byte[] responseData = response.getData();
+            if (responseData.length != nextLength)
+                throw new RuntimeException(String.format(
+                        "The incoming measurement data have incorrect length! Expected: %d Actual: %d",
+                        nextLength, responseData.length));
+
+            System.arraycopy(responseData, 0, buffer, arrayLength - remainingLength, responseData.length);
+            remainingLength -= nextLength;
+        }
+
+        log.debug("Retrieved {} B in {} APDUs.", arrayLength, part);
+        return buffer;
+    }
+
+    /**
+     * Sends the given trigger APDU to the card.
+     *
+     * @param  triggerAPDU APDU executing the profiled executable
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the applet execution failed
+     */
+    protected void execute(final CommandAPDU triggerAPDU) throws CardException {
+        final ResponseAPDU response = cardManager.transmit(triggerAPDU);
+        if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+            throw new RuntimeException(
+                    "Executing the applet failed with SW " + Integer.toHexString(response.getSW()));
+    }
+
+    /**
+     * Restricts the measurements stored on the card to the traps of the profiled executable, so that other
+     * executables instrumented in the same CAP file do not store their measurements.  Supported only
+     * by PM classes with the {@code ENABLE_TRAPS} command.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the trap range could not be set
+     */
+    protected void enableTraps() throws CardException {
+        final List<TrapManifest.Trap> traps = manifest.getTraps();
+        final short firstTrapID = traps.get(0).getID();
+        final short lastTrapID = traps.get(traps.size() - 1).getID();
+        log.debug("Enabling traps with IDs from {} to {}.", firstTrapID, lastTrapID);
+
+        final byte[] data = ArrayUtils.addAll(Util.shortToByteArray(firstTrapID), Util.shortToByteArray(lastTrapID));
+        final CommandAPDU enable = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, ENABLE_TRAPS, 0, data);
+        final ResponseAPDU response = cardManager.transmit(enable);
+        if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+            throw new RuntimeException(
+                    "Enabling traps failed with SW " + Integer.toHexString(response.getSW()));
+    }
+
     /**
      * Executes the profiling stage.
      */
@@ -338,8 +453,9 @@ public abstract class AbstractProfiler {
             elapsedTime = DurationFormatUtils.formatDuration(endTimeMillis, "d' days 'HH:mm:ss.SSS");
             log.info("Elapsed time: {}", elapsedTime);
 
-            cardManager.disconnect(true);
-            log.info("Disconnected from card.");
+            for (final CardManager cm : cardManagers)
+                cm.disconnect(true);
+            log.info("Disconnected from {}.", cardManagers.size() > 1 ? "cards" : "card");
 
             // process unreached traps
             if (!unreachedTraps.isEmpty()) {
@@ -358,10 +474,20 @@ public abstract class AbstractProfiler {
      */
     protected abstract void profileImpl() throws CardException;
 
+    /**
+     * Returns the ATR of the card behind the given connection.
+     *
+     * @param  cardManager applet connection instance
+     * @return             ATR as a hexstring or {@code jCardSim} if the simulator is used
+     */
+    protected String getCardATR(final CardManager cardManager) {
+        return args.useSimulator ? "jCardSim"
+                                 : Util.bytesToHex(cardManager.getChannel().getCard().getATR().getBytes());
+    }
+
     public void generateCSV() {
         // prepare header data
-        final String atr = args.useSimulator ? "jCardSim"
-                                             : Util.bytesToHex(cardManager.getChannel().getCard().getATR().getBytes());
+        final String atr = cardManagers.stream().map(this::getCardATR).distinct().collect(Collectors.joining(";"));
 
         String apduHeader, dataSource;
         if (measuredDuringInstallation) {
@@ -378,22 +504,67 @@ public abstract class AbstractProfiler {
         if (inputs.isEmpty())
             throw new RuntimeException("The list of input values is empty!");
 
+        final List<String> header = Arrays.asList(args.mode.toString(), profiledExecutableSignature,
+                atr, elapsedTime, apduHeader, dataSource, args.inputDivision.toString());
+        saveMeasurementFiles(args, header, optionalHeaderFields, inputs,
+                             this::saveMeasurements, this::saveMeasurements);
+    }
+
+    /**
+     * Stores the header, the inputs and the measurements into the {@code measurements.csv} file and,
+     * if {@link Args#jcpm} is set, into the {@code measurements.jcpm} file.  Otherwise, a stale
+     * {@code measurements.jcpm} file is removed.
+     *
+     * @param  args                 object with commandline arguments
+     * @param  header               mandatory header values
+     * @param  optionalHeaderFields optional header fields stored as {@code name:value} after the mandatory ones
+     * @param  inputs               list of inputs
+     * @param  csvSaver             stores the measurements using given {@link CSVPrinter} instance
+     * @param  jcpmSaver            stores the measurements using given {@link JCPMFile.Writer} instance
+     *
+     * @throws RuntimeException if the files could not be written
+     */
+    static void saveMeasurementFiles(final Args args, final List<String> header,
+                                     final Map<String, String> optionalHeaderFields, final List<String> inputs,
+                                     final IOConsumer<CSVPrinter> csvSaver,
+                                     final IOConsumer<JCPMFile.Writer> jcpmSaver) {
+        final List<String> fullHeader = new ArrayList<>(header);
+        optionalHeaderFields.forEach((k, v) -> fullHeader.add(k + ":" + v));
+
         // store the measurements
         final Path csv = args.workDir.resolve("measurements.csv");
         try (final CSVPrinter printer = new CSVPrinter(new FileWriter(csv.toFile()), JCProfilerUtil.getCSVFormat())) {
-            printer.printComment("mode,type#signature,ATR,elapsedTime,APDUHeader,inputType:value,inputDivision");
-            printer.printRecord(args.mode, profiledExecutableSignature, atr, elapsedTime, apduHeader, dataSource,
-                    args.inputDivision);
+            printer.printComment("mode,type#signature,ATR,elapsedTime,APDUHeader,inputType:value,inputDivision" +
+                                 optionalHeaderFields.keySet().stream().map(k -> "," + k + ":value")
+                                         .collect(Collectors.joining()));
+            printer.printRecord(fullHeader);
 
             printer.printComment("input1,input2,input3,...");
             printer.printRecord(inputs);
 
-            saveMeasurements(printer);
+            csvSaver.accept(printer);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
         log.info("Measurements saved to {}.", csv);
+
+        // store the binary measurements or remove stale ones
+        final Path jcpm = args.workDir.resolve("measurements.jcpm");
+        try {
+            if (!args.jcpm) {
+                Files.deleteIfExists(jcpm);
+                return;
+            }
+
+            try (final JCPMFile.Writer writer = new JCPMFile.Writer(jcpm, fullHeader, inputs)) {
+                jcpmSaver.accept(writer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        log.info("Measurements saved to {}.", jcpm);
     }
 
     /**
@@ -404,4 +575,17 @@ public abstract class AbstractProfiler {
      * @throws IOException if the printing fails
      */
     protected abstract void saveMeasurements(final CSVPrinter printer) throws IOException;
+
+    /**
+     * Stores the measurements as one column per trap using given {@link JCPMFile.Writer} instance.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException                   if the writing fails
+     * @throws UnsupportedOperationException if the profiling mode has no numerical measurements
+     */
+    protected void saveMeasurements(final JCPMFile.Writer writer) throws IOException {
+        throw new UnsupportedOperationException(String.format(
+                "Binary measurements are not supported in %s mode!", args.mode));
+    }
 }
@@ -0,0 +1,249 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import cz.muni.fi.crocs.rcard.client.CardManager;
+import cz.muni.fi.crocs.rcard.client.Util;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.BytecodeCounter;
+import jcprofiler.util.JCPMFile;
+import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * This class represents the specifics of profiling in count mode.
+ */
+public class CountProfiler extends AbstractProfiler {
+    // use LinkedHashMap to preserve insertion order
+    // every list contains the number of trap hits for each input
+    private final Map<String, List<Integer>> hitCounts = new LinkedHashMap<>();
+    // every list contains the number of bytecodes executed before the trap for each input
+    private final Map<String, List<Long>> bytecodeCounts = new LinkedHashMap<>();
+    // every map contains JavaCard API invocations executed before each trap for a single input
+    private final List<Map<String, Map<String, Long>>> apiCalls = new ArrayList<>();
+
+    /**
+     * Indicates whether the PM class can restrict the counters to the traps of the profiled executable.
+     */
+    private final boolean enableTraps;
+
+    /**
+     * P1 value requesting a part of the counters
+     */
+    private static final byte GET_COUNTERS = 0x00;
+    /**
+     * P1 value resetting all counters
+     */
+    private static final byte RESET_COUNTERS = 0x7E;
+
+    private static final Logger log = LoggerFactory.getLogger(CountProfiler.class);
+
+    /**
+     * Constructs the {@link CountProfiler} class.
+     *
+     * @param args        object with commandline arguments
+     * @param cardManager applet connection instance
+     * @param manifest    manifest of the instrumented sources
+     */
+    public CountProfiler(final Args args, final CardManager cardManager, final TrapManifest manifest) {
+        super(args, cardManager, manifest, /* customInsField */ "INS_PERF_GETCNT");
+        enableTraps = manifest.getBooleanProperty("enableTraps");
+    }
+
+    /**
+     * Executes the profiled method once for every input and retrieves the trap hit counters after each
+     * execution.  The counters are cleared on the card when they are retrieved.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the applet execution failed or the counters cannot be retrieved
+     */
+    @Override
+    protected void profileImpl() throws CardException {
+        if (enableTraps)
+            enableTraps();
+
+        // drop hits counted before the profiling, the retrieval clears the counters afterwards
+        resetCounters();
+
+        if (args.countBytecodes) {
+            final List<TrapManifest.Trap> traps = manifest.getTraps();
+            BytecodeCounter.enableTraps(traps.get(0).getID(), traps.get(traps.size() - 1).getID());
+        }
+
+        generateInputs(args.repeatCount);
+        for (int round = 1; round <= args.repeatCount; round++) {
+            resetApplet();
+
+            // get the input
+            final CommandAPDU triggerAPDU = getInputAPDU(round);
+            final String input = Util.bytesToHex(triggerAPDU.getBytes());
+            log.info("Round: {}/{} APDU: {}", round, args.repeatCount, input);
+
+            // count!
+            if (args.countBytecodes)
+                BytecodeCounter.reset();
+            execute(triggerAPDU);
+            retrieveCounters();
+            if (args.countBytecodes)
+                retrieveBytecodeCounts();
+        }
+
+        log.info("Counting trap hits in {} complete.", profiledExecutableSignature);
+    }
+
+    /**
+     * Clears all counters stored on the card.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the reset failed
+     */
+    private void resetCounters() throws CardException {
+        log.debug("Resetting trap hit counters.");
+        final CommandAPDU reset = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, RESET_COUNTERS, 0);
+        final ResponseAPDU response = cardManager.transmit(reset);
+        if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+            throw new RuntimeException(
+                    "Resetting trap hit counters failed with SW " + Integer.toHexString(response.getSW()));
+    }
+
+    /**
+     * Retrieves the trap hit counters from the card and stores them into {@link #hitCounts}.
+     * Traps that were not reached by the last input are added to {@link #unreachedTraps}.
+     * The counters of all instrumented executables are retrieved, so that the card clears all of them
+     * and reports as many bytes as expected.  The counters of other executables are ignored.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the counter retrieval failed
+     */
+    private void retrieveCounters() throws CardException {
+        final byte[] buffer = getArray(GET_COUNTERS, getArrayLength(Short.BYTES), /* partLength */ 256, /* ne */ 0);
+
+        // convert and store the retrieved byte array
+        trapNameMap.forEach((trapID, trapName) -> {
+            final int idx = (Short.toUnsignedInt(trapID) - /* PERF_START */ 2) * Short.BYTES;
+            final int count = Util.getShort(buffer, idx);
+            if (count == 0)
+                unreachedTraps.add(trapName);
+            if (count == Short.MAX_VALUE)
+                log.warn("Counter of {} saturated at {} hits.", trapName, count);
+
+            hitCounts.computeIfAbsent(trapName, k -> new ArrayList<>()).add(count);
+        });
+    }
+
+    /**
+     * Stores the bytecodes and JavaCard API invocations counted by the simulator during the last execution.
+     */
+    private void retrieveBytecodeCounts() {
+        final Map<String, Map<String, Long>> inputApiCalls = new LinkedHashMap<>();
+        trapNameMap.forEach((trapID, trapName) -> {
+            bytecodeCounts.computeIfAbsent(trapName, k -> new ArrayList<>()).add(BytecodeCounter.getBytecodes(trapID));
+            inputApiCalls.put(trapName, new TreeMap<>(BytecodeCounter.getApiCalls(trapID)));
+        });
+        apiCalls.add(inputApiCalls);
+    }
+
+    /**
+     * Stores the trap hit counts using given {@link CSVPrinter} instance.  Bytecode counts are stored
+     * in a separate section with prefixed trap names.
+     *
+     * @param  printer instance of the CSV printer
+     *
+     * @throws IOException if the printing fails
+     */
+    @Override
+    protected void saveMeasurements(final CSVPrinter printer) throws IOException {
+        printer.printComment("trapName,count1,count2,...");
+        for (final Map.Entry<String, List<Integer>> e : hitCounts.entrySet()) {
+            printer.print(e.getKey());
+            printer.printRecord(e.getValue());
+        }
+
+        if (bytecodeCounts.isEmpty())
+            return;
+
+        printer.printComment(JCProfilerUtil.BYTECODE_PREFIX + "trapName,bytecodes1,bytecodes2,...");
+        for (final Map.Entry<String, List<Long>> e : bytecodeCounts.entrySet()) {
+            printer.print(JCProfilerUtil.BYTECODE_PREFIX + e.getKey());
+            printer.printRecord(e.getValue());
+        }
+    }
+
+    /**
+     * Stores the trap hit counts using given {@link JCPMFile.Writer} instance.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException if the writing fails
+     */
+    @Override
+    protected void saveMeasurements(final JCPMFile.Writer writer) throws IOException {
+        for (final Map.Entry<String, List<Integer>> e : hitCounts.entrySet())
+            writer.writeColumn(e.getKey(), e.getValue().stream().mapToLong(Integer::longValue).toArray());
+        for (final Map.Entry<String, List<Long>> e : bytecodeCounts.entrySet())
+            writer.writeColumn(JCProfilerUtil.BYTECODE_PREFIX + e.getKey(),
+                               e.getValue().stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Stores the measurements and the JavaCard API invocations counted by the simulator.
+     */
+    @Override
+    public void generateCSV() {
+        super.generateCSV();
+        saveApiCalls();
+    }
+
+    /**
+     * Stores the JavaCard API invocations into the {@code apiCalls.csv} file with a record for every trap
+     * and invoked method.  The file is removed if the bytecodes were not counted, so that it never describes
+     * stale measurements.
+     */
+    private void saveApiCalls() {
+        final Path csv = args.workDir.resolve("apiCalls.csv");
+        try {
+            if (apiCalls.isEmpty()) {
+                Files.deleteIfExists(csv);
+                return;
+            }
+
+            try (final CSVPrinter printer = new CSVPrinter(new FileWriter(csv.toFile()),
+                                                           JCProfilerUtil.getCSVFormat())) {
+                printer.printComment("trapName,api,count1,count2,...");
+                for (final String trapName : trapNameMap.values()) {
+                    // invoked methods of all inputs
+                    final Set<String> apis = new TreeSet<>();
+                    apiCalls.forEach(m -> apis.addAll(m.get(trapName).keySet()));
+
+                    for (final String api : apis) {
+                        printer.print(trapName);
+                        printer.print(api);
+                        for (final Map<String, Map<String, Long>> inputApiCalls : apiCalls)
+                            printer.print(inputApiCalls.get(trapName).getOrDefault(api, 0L));
+                        printer.println();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        log.info("JavaCard API invocations saved to {}.", csv);
+    }
+}
@@ -6,13 +6,10 @@ package jcprofiler.profiling;
 import cz.muni.fi.crocs.rcard.client.CardManager;
 
 import jcprofiler.args.Args;
-import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
 
 import org.apache.commons.csv.CSVPrinter;
 
-import spoon.reflect.CtModel;
-import spoon.reflect.declaration.CtConstructor;
-
 import java.io.IOException;
 
 /**
@@ -24,11 +21,10 @@ public class CustomProfiler extends AbstractProfiler {
      *
      * @param args        object with commandline arguments
      * @param cardManager applet connection instance
-     * @param model       Spoon model
+     * @param manifest    manifest of the instrumented sources
      */
-    public CustomProfiler(final Args args, final CardManager cardManager, final CtModel model) {
-        super(args, cardManager, JCProfilerUtil.getProfiledExecutable(model, args.entryPoint, args.executable),
-              /* customInsField */ null);
+    public CustomProfiler(final Args args, final CardManager cardManager, final TrapManifest manifest) {
+        super(args, cardManager, manifest, /* customInsField */ null);
     }
 
     /**
@@ -36,7 +32,7 @@ public class CustomProfiler extends AbstractProfiler {
      */
     @Override
     protected void profileImpl() {
-        if (!(profiledExecutable instanceof CtConstructor))
+        if (!manifest.isConstructor())
             generateInputs(args.repeatCount);
     }
 
@@ -0,0 +1,314 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import jcprofiler.Main;
+import jcprofiler.args.Args;
+import jcprofiler.util.JCPMFile;
+import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.enums.Stage;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the time profiling stage with the simulator in separate JVMs forked one after another, so that
+ * the measurements are not influenced by the JIT profile and heap of the previous stages.  Every fork profiles
+ * {@link Args#repeatCount} rounds including its own warm-up rounds and the rounds of all forks are merged.
+ * The mean of every fork is stored as a separate series, so that the variance between forks can be reported.
+ */
+public class ForkedProfiler {
+    private final Args args;
+
+    /**
+     * Header of the first fork
+     */
+    private final List<String> header = new ArrayList<>();
+    /**
+     * Optional header fields of the first fork
+     */
+    private final Map<String, String> optionalHeaderFields = new LinkedHashMap<>();
+    /**
+     * Inputs of all forks
+     */
+    private final List<String> inputs = new ArrayList<>();
+    /**
+     * Map between series names and their columns in individual forks
+     */
+    private final Map<String, List<long[]>> series = new LinkedHashMap<>();
+    /**
+     * Map between traps and their mean measurements in individual forks
+     */
+    private final Map<String, List<Long>> forkMeans = new LinkedHashMap<>();
+
+    /**
+     * Random order seeds of individual forks
+     */
+    private final List<String> forkSeeds = new ArrayList<>();
+
+    private int gcRejectedSamples;
+
+    /**
+     * Options overridden in the forked JVMs together with their values
+     */
+    private static final List<String> OVERRIDDEN_OPTIONS =
+            Arrays.asList("--start-from", "--stop-after", "--forks", "--fork-jvm-arg");
+    /**
+     * Flag always passed to the forked JVMs, so that their measurements are loaded from the binary files
+     */
+    private static final String JCPM_FLAG = "--jcpm";
+
+    private static final Logger log = LoggerFactory.getLogger(ForkedProfiler.class);
+
+    /**
+     * Constructs the {@link ForkedProfiler} class.
+     *
+     * @param args object with commandline arguments
+     */
+    public ForkedProfiler(final Args args) {
+        this.args = args;
+    }
+
+    /**
+     * Executes the profiling stage in {@link Args#forks} forked JVMs and merges their measurements.
+     *
+     * @throws RuntimeException if a fork failed
+     */
+    public void profile() {
+        final long startTime = System.nanoTime();
+        final Path forksDir = JCProfilerUtil.getForksDirectory(args.workDir);
+        JCProfilerUtil.recreateDirectory(forksDir);
+
+        final List<String> command = getForkCommand();
+        log.debug("Forked JVM command: {}", command);
+
+        final Path csv = args.workDir.resolve("measurements.csv");
+        final Path jcpm = args.workDir.resolve("measurements.jcpm");
+        try {
+            for (int fork = 1; fork <= args.forks; fork++) {
+                log.info("Executing fork {}/{}.", fork, args.forks);
+                final Process process = new ProcessBuilder(command).inheritIO().start();
+                final int exitCode = process.waitFor();
+                if (exitCode != 0)
+                    throw new RuntimeException(String.format("Fork %d failed with exit code %d!", fork, exitCode));
+
+                final Path forkCsv = forksDir.resolve(String.format("measurements-%d.csv", fork));
+                final Path forkJcpm = forksDir.resolve(String.format("measurements-%d.jcpm", fork));
+                Files.move(JCProfilerUtil.checkFile(csv, Stage.profiling), forkCsv,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.move(JCProfilerUtil.checkFile(jcpm, Stage.profiling), forkJcpm,
+                        StandardCopyOption.REPLACE_EXISTING);
+                loadFork(forkJcpm);
+                log.info("Measurements of fork {} moved to {} and {}.", fork, forkCsv, forkJcpm);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        // the elapsed time includes the start-up of all forks
+        final long endTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        header.set(JCProfilerUtil.HEADER_ELAPSED_TIME,
+                   DurationFormatUtils.formatDuration(endTimeMillis, "d' days 'HH:mm:ss.SSS"));
+        log.info("Elapsed time: {}", header.get(JCProfilerUtil.HEADER_ELAPSED_TIME));
+
+        reportForkVariance();
+    }
+
+    /**
+     * Returns the command executing the profiling stage in a forked JVM.  The forked JVM is given the same
+     * commandline arguments except for the stage range and options of this class and always stores
+     * the binary measurement file.
+     *
+     * @return list of command arguments
+     */
+    private List<String> getForkCommand() {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(args.forkJvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+
+        for (int i = 0; i < args.commandLine.size(); i++) {
+            final String arg = args.commandLine.get(i);
+            if (OVERRIDDEN_OPTIONS.contains(arg))
+                i++; // skip the value as well
+            else if (!arg.equals(JCPM_FLAG))
+                command.add(arg);
+        }
+
+        command.addAll(Arrays.asList(JCPM_FLAG, "--start-from", Stage.profiling.toString(),
+                                     "--stop-after", Stage.profiling.toString()));
+        return command;
+    }
+
+    /**
+     * Loads the measurements of a single fork and appends them to the merged ones.
+     *
+     * @param  jcpm path to the binary measurement file of the fork
+     *
+     * @throws IOException      if the file could not be read
+     * @throws RuntimeException if the fork measured different traps than the previous ones
+     */
+    private void loadFork(final Path jcpm) throws IOException {
+        final boolean first = header.isEmpty();
+        final JCPMFile file = JCPMFile.read(jcpm);
+
+        // parse header
+        final List<String> forkHeader = file.getHeader();
+        final Map<String, String> forkFields = JCProfilerUtil.parseOptionalHeaderFields(forkHeader);
+        if (forkFields.containsKey("gcRejected"))
+            gcRejectedSamples += Integer.parseInt(forkFields.get("gcRejected"));
+        if (forkFields.containsKey("seed"))
+            forkSeeds.add(forkFields.get("seed"));
+        if (first) {
+            header.addAll(forkHeader.subList(0, JCProfilerUtil.HEADER_MANDATORY_LENGTH));
+            optionalHeaderFields.putAll(forkFields);
+        }
+
+        // parse inputs
+        inputs.addAll(file.getInputs());
+
+        // parse measurements
+        if (!first && !file.getTrapNames().equals(series.keySet()))
+            throw new RuntimeException("The forks measured different traps!");
+
+        for (final String name : file.getTrapNames()) {
+            final long[] values = file.getRawColumn(name);
+            series.computeIfAbsent(name, k -> new ArrayList<>()).add(values);
+
+            if (name.startsWith(JCProfilerUtil.WARMUP_PREFIX))
+                continue;
+
+            final OptionalDouble mean = Arrays.stream(values)
+                    .filter(v -> v != JCPMFile.UNREACHABLE && v != JCPMFile.NOT_MEASURED).average();
+            forkMeans.computeIfAbsent(name, k -> new ArrayList<>())
+                    .add(mean.isPresent() ? Math.round(mean.getAsDouble()) : null);
+        }
+    }
+
+    /**
+     * Logs the mean of fork means and the standard deviation between forks for every trap.
+     */
+    private void reportForkVariance() {
+        log.info("Variance between {} forks:", args.forks);
+        forkMeans.forEach((trapName, means) -> {
+            final DescriptiveStatistics ds = new DescriptiveStatistics();
+            means.stream().filter(Objects::nonNull).mapToDouble(Long::doubleValue).forEach(ds::addValue);
+            if (ds.getN() < 2) {
+                log.info("{}: reached in {} forks", trapName, ds.getN());
+                return;
+            }
+
+            log.info("{}: mean {} ns, std dev between forks {} ns ({}%)", trapName,
+                    String.format("%.2f", ds.getMean()), String.format("%.2f", ds.getStandardDeviation()),
+                    String.format("%.2f", 100. * ds.getStandardDeviation() / ds.getMean()));
+        });
+    }
+
+    /**
+     * Stores the merged measurements to the CSV file and optionally to the binary measurement file.
+     */
+    public void generateCSV() {
+        optionalHeaderFields.put("forks", String.valueOf(args.forks));
+        if (!args.forkJvmArgs.isEmpty())
+            optionalHeaderFields.put("forkJvmArgs", String.join(" ", args.forkJvmArgs));
+        if (optionalHeaderFields.containsKey("gcRejected"))
+            optionalHeaderFields.put("gcRejected", String.valueOf(gcRejectedSamples));
+        if (!forkSeeds.isEmpty())
+            optionalHeaderFields.put("seed", String.join(";", forkSeeds));
+
+        AbstractProfiler.saveMeasurementFiles(args, header, optionalHeaderFields, inputs,
+                                              this::saveMeasurements, this::saveMeasurements);
+    }
+
+    /**
+     * Stores the merged series and the means of individual forks using given {@link CSVPrinter} instance.
+     *
+     * @param  printer instance of the CSV printer
+     *
+     * @throws IOException if the printing fails
+     */
+    private void saveMeasurements(final CSVPrinter printer) throws IOException {
+        printer.printComment(TimeProfiler.MEASUREMENTS_COMMENT);
+        for (final Map.Entry<String, List<long[]>> e : series.entrySet())
+            if (!e.getKey().startsWith(JCProfilerUtil.WARMUP_PREFIX))
+                printSeries(printer, e.getKey(), e.getValue());
+
+        if (series.keySet().stream().anyMatch(k -> k.startsWith(JCProfilerUtil.WARMUP_PREFIX))) {
+            printer.printComment(TimeProfiler.WARMUP_COMMENT);
+            for (final Map.Entry<String, List<long[]>> e : series.entrySet())
+                if (e.getKey().startsWith(JCProfilerUtil.WARMUP_PREFIX))
+                    printSeries(printer, e.getKey(), e.getValue());
+        }
+
+        printer.printComment(JCProfilerUtil.FORK_PREFIX + "trapName,fork1,fork2,...");
+        for (final Map.Entry<String, List<Long>> e : forkMeans.entrySet()) {
+            printer.print(JCProfilerUtil.FORK_PREFIX + e.getKey());
+            printer.printRecord(e.getValue());
+        }
+    }
+
+    /**
+     * Prints the columns of all forks as a single record starting with the series name using given
+     * {@link CSVPrinter} instance.  Unreachable values are printed as empty strings and values that were
+     * not measured as {@link JCProfilerUtil#NOT_MEASURED}.
+     *
+     * @param  printer instance of the CSV printer
+     * @param  name    series name
+     * @param  columns columns of individual forks
+     *
+     * @throws IOException if the printing fails
+     */
+    private static void printSeries(final CSVPrinter printer, final String name, final List<long[]> columns)
+            throws IOException {
+        printer.print(name);
+        for (final long[] column : columns) {
+            for (final long value : column) {
+                if (value == JCPMFile.NOT_MEASURED)
+                    printer.print(JCProfilerUtil.NOT_MEASURED);
+                else
+                    printer.print(value == JCPMFile.UNREACHABLE ? null : value);
+            }
+        }
+        printer.println();
+    }
+
+    /**
+     * Stores the merged series and the means of individual forks using given {@link JCPMFile.Writer} instance.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException if the writing fails
+     */
+    private void saveMeasurements(final JCPMFile.Writer writer) throws IOException {
+        for (final Map.Entry<String, List<long[]>> e : series.entrySet()) {
+            final long[] merged = new long[e.getValue().stream().mapToInt(c -> c.length).sum()];
+            int offset = 0;
+            for (final long[] column : e.getValue()) {
+                System.arraycopy(column, 0, merged, offset, column.length);
+                offset += column.length;
+            }
+            writer.writeColumn(e.getKey(), merged);
+        }
+        for (final Map.Entry<String, List<Long>> e : forkMeans.entrySet())
+            writer.writeColumn(JCProfilerUtil.FORK_PREFIX + e.getKey(), e.getValue().stream()
+                    .mapToLong(v -> v == null ? JCPMFile.UNREACHABLE : v).toArray());
+    }
+}
@@ -0,0 +1,706 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import jcprofiler.util.JCPMFile;
+import jcprofiler.util.JCProfilerUtil;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Stores measurements of all traps round by round.  Unreachable values and measured traps are tracked
+ * in bitsets, so no stored value is ever boxed.  Optionally, completed rounds are appended to a spool file
+ * as soon as they are available and dropped from memory, so that only the rounds in progress are kept
+ * in memory.
+ * <p>
+ * All numbers in the spool file are little-endian.  The file starts with the magic {@code JCPS}, a 32-bit
+ * version and the trap names (32-bit count followed by strings with 32-bit length and UTF-8 bytes).
+ * Every spooled round is then stored as a fixed-width record of the 64-bit round followed by one 64-bit value
+ * per trap, where {@link JCPMFile#UNREACHABLE} denotes an unreachable trap and {@link JCPMFile#NOT_MEASURED}
+ * a trap that was not measured in the round.  Before the series of individual traps are read back,
+ * the records are transposed into a column-major file in a single pass.
+ * <p>
+ * Rounds are indexed from one and a trap does not have to be measured in every round.
+ * All methods are synchronized so that a single instance can be shared among worker threads.
+ */
+public class MeasurementSink implements Closeable {
+    /**
+     * Maximal number of values kept in memory while the spool file is read back
+     */
+    static final int MAX_BUFFERED_VALUES = 1 << 20;
+
+    private static final byte[] MAGIC = "JCPS".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final List<String> trapNames;
+    private final Map<String, Integer> trapIndices = new HashMap<>();
+
+    /**
+     * Map between rounds and their values kept in memory, spooled rounds are removed
+     */
+    private final SortedMap<Integer, Round> rounds = new TreeMap<>();
+    /**
+     * The last measured round of each trap
+     */
+    private final int[] sizes;
+
+    private Path spoolFile;
+    private FileChannel spool;
+    /**
+     * Length of the spool file header, i.e. the offset of the first record
+     */
+    private long spoolHeaderLength;
+    /**
+     * Number of records in the spool file
+     */
+    private long spooledRecords;
+    /**
+     * The last spooled round, i.e. the length of every column of the column file
+     */
+    private int spooledRoundCount;
+
+    /**
+     * Column-major copy of the first {@link #transposedRecords} records of the spool file
+     */
+    private Path columnFile;
+    private long transposedRecords = -1;
+
+    /**
+     * Constructs the {@link MeasurementSink} class.
+     *
+     * @param trapNames list of trap names
+     */
+    public MeasurementSink(final List<String> trapNames) {
+        this.trapNames = Collections.unmodifiableList(new ArrayList<>(trapNames));
+        for (int i = 0; i < trapNames.size(); i++)
+            trapIndices.put(trapNames.get(i), i);
+
+        sizes = new int[trapNames.size()];
+    }
+
+    /**
+     * Starts appending completed rounds to the given file.  The file is overwritten.
+     *
+     * @param  file path to the spool file
+     *
+     * @throws IOException if the file could not be opened
+     */
+    public synchronized void spoolTo(final Path file) throws IOException {
+        final ByteBuffer header = getSpoolHeader();
+        spool = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING);
+        spoolHeaderLength = header.remaining();
+        writeFully(spool, header, 0);
+
+        spoolFile = file;
+        spooledRecords = 0;
+        spooledRoundCount = 0;
+        transposedRecords = -1;
+    }
+
+    /**
+     * Resumes appending completed rounds to the given spool file of an interrupted run.  The restored rounds
+     * are not loaded into memory.  A trailing incomplete record is truncated, because it might have been
+     * only partially written before a crash.
+     *
+     * @param  file path to the spool file
+     * @return      list of restored rounds in the order of the spool file
+     *
+     * @throws IOException      if the file could not be read or written
+     * @throws RuntimeException if the spool file was created for different traps
+     */
+    public synchronized List<Integer> resume(final Path file) throws IOException {
+        final ByteBuffer header = getSpoolHeader();
+        spool = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer actual = ByteBuffer.allocate(header.remaining());
+            if (spool.size() < actual.capacity())
+                throw new RuntimeException(String.format("Spool file %s was created for different traps!", file));
+
+            readFully(spool, actual, 0);
+            actual.flip();
+            if (!actual.equals(header))
+                throw new RuntimeException(String.format("Spool file %s was created for different traps!", file));
+
+            spoolHeaderLength = header.remaining();
+            spooledRecords = (spool.size() - spoolHeaderLength) / getRecordLength();
+            spool.truncate(spoolHeaderLength + spooledRecords * getRecordLength());
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        spoolFile = file;
+        spooledRoundCount = 0;
+        transposedRecords = -1;
+
+        final List<Integer> restoredRounds = new ArrayList<>();
+        readSpool((records, count) -> {
+            for (int r = 0; r < count; r++) {
+                final int round = (int) records.get();
+                for (int i = 0; i < trapNames.size(); i++)
+                    if (records.get() != JCPMFile.NOT_MEASURED)
+                        sizes[i] = Math.max(sizes[i], round);
+
+                spooledRoundCount = Math.max(spooledRoundCount, round);
+                restoredRounds.add(round);
+            }
+        });
+        return restoredRounds;
+    }
+
+    /**
+     * Returns the header of the spool file for the stored traps.
+     *
+     * @return buffer with the header ready to be written
+     */
+    private ByteBuffer getSpoolHeader() {
+        final List<byte[]> names = new ArrayList<>(trapNames.size());
+        int length = MAGIC.length + 2 * Integer.BYTES;
+        for (final String trapName : trapNames) {
+            names.add(trapName.getBytes(StandardCharsets.UTF_8));
+            length += Integer.BYTES + names.get(names.size() - 1).length;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(names.size());
+        for (final byte[] name : names)
+            header.putInt(name.length).put(name);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Returns the length of a single record of the spool file.
+     *
+     * @return length of the record in bytes
+     */
+    private long getRecordLength() {
+        return (trapNames.size() + 1L) * Long.BYTES;
+    }
+
+    /**
+     * Returns the list of trap names in insertion order.
+     *
+     * @return unmodifiable list of trap names
+     */
+    public List<String> getTrapNames() {
+        return trapNames;
+    }
+
+    /**
+     * Stores the value of the given trap in the given round.
+     *
+     * @param trapName name of the performance trap
+     * @param round    round indexed from one
+     * @param value    measured value or null if the trap was not reached
+     */
+    public synchronized void set(final String trapName, final int round, final Long value) {
+        final int trapIdx = getTrapIndex(trapName);
+        if (round < 1)
+            throw new ArrayIndexOutOfBoundsException("Unexpected round: " + round);
+
+        final Round r = rounds.computeIfAbsent(round, k -> new Round(trapNames.size()));
+        r.measured.set(trapIdx);
+        if (value == null) {
+            r.unreachable.set(trapIdx);
+        } else {
+            r.unreachable.clear(trapIdx);
+            r.values[trapIdx] = value;
+        }
+
+        sizes[trapIdx] = Math.max(sizes[trapIdx], round);
+    }
+
+    /**
+     * Returns the value of the given trap in the given round.
+     *
+     * @param  trapName name of the performance trap
+     * @param  round    round indexed from one
+     * @return          measured value or null if the trap was not reached or not measured in the given round
+     *
+     * @throws IllegalStateException if the round has already been spooled
+     */
+    public synchronized Long get(final String trapName, final int round) {
+        final int trapIdx = getTrapIndex(trapName);
+        final Round r = getRound(trapIdx, round);
+        return r == null || r.unreachable.get(trapIdx) || !r.measured.get(trapIdx) ? null : r.values[trapIdx];
+    }
+
+    /**
+     * Decides whether the given trap was measured in the given round.
+     *
+     * @param  trapName name of the performance trap
+     * @param  round    round indexed from one
+     * @return          true if yes, otherwise false
+     *
+     * @throws IllegalStateException if the round has already been spooled
+     */
+    public synchronized boolean isMeasured(final String trapName, final int round) {
+        final int trapIdx = getTrapIndex(trapName);
+        final Round r = getRound(trapIdx, round);
+        return r != null && r.measured.get(trapIdx);
+    }
+
+    /**
+     * Returns the last round the given trap was measured in.
+     *
+     * @param  trapName name of the performance trap
+     * @return          the last measured round or zero
+     */
+    public synchronized int size(final String trapName) {
+        return sizes[getTrapIndex(trapName)];
+    }
+
+    /**
+     * Returns the last round any trap was measured in.
+     *
+     * @return the last measured round or zero
+     */
+    public synchronized int getRoundCount() {
+        return Arrays.stream(sizes).max().orElse(0);
+    }
+
+    /**
+     * Appends all values of the given round to the spool file and drops them from memory if spooling is enabled.
+     *
+     * @param  round round indexed from one
+     *
+     * @throws IOException if the writing fails
+     */
+    public synchronized void spoolRound(final int round) throws IOException {
+        if (spool == null)
+            return;
+
+        final Round r = rounds.remove(round);
+        final ByteBuffer record = ByteBuffer.allocate((int) getRecordLength()).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(round);
+        for (int i = 0; i < trapNames.size(); i++) {
+            if (r == null || !r.measured.get(i))
+                record.putLong(JCPMFile.NOT_MEASURED);
+            else
+                record.putLong(r.unreachable.get(i) ? JCPMFile.UNREACHABLE : r.values[i]);
+        }
+        record.flip();
+
+        writeFully(spool, record, spoolHeaderLength + spooledRecords * getRecordLength());
+        spooledRecords++;
+        spooledRoundCount = Math.max(spooledRoundCount, round);
+    }
+
+    /**
+     * Passes every measured value to the given consumer.  Spooled rounds are read back from the spool file.
+     *
+     * @param  consumer consumer of the measured values
+     *
+     * @throws IOException if the spool file could not be read
+     */
+    public synchronized void forEach(final MeasurementConsumer consumer) throws IOException {
+        scan((round, trapIdx, value) -> consumer.accept(trapNames.get(trapIdx), round,
+                                                        value == JCPMFile.UNREACHABLE ? null : value));
+    }
+
+    /**
+     * Prints every series as a single record starting with the trap name using given {@link CSVPrinter}
+     * instance.  Every record contains {@link #getRoundCount()} values, unreachable values are printed
+     * as empty strings and values that were not measured as {@link JCProfilerUtil#NOT_MEASURED}.
+     *
+     * @param  printer instance of the CSV printer
+     *
+     * @throws IOException if the printing fails
+     */
+    public void print(final CSVPrinter printer) throws IOException {
+        print(printer, "");
+    }
+
+    /**
+     * Prints every series as a single record starting with the given prefix and the trap name using given
+     * {@link CSVPrinter} instance.  Every record contains {@link #getRoundCount()} values, unreachable values
+     * are printed as empty strings and values that were not measured as {@link JCProfilerUtil#NOT_MEASURED}.
+     *
+     * @param  printer instance of the CSV printer
+     * @param  prefix  prefix of the trap names
+     *
+     * @throws IOException if the printing fails
+     */
+    public synchronized void print(final CSVPrinter printer, final String prefix) throws IOException {
+        forEachSeries((trapIdx, series) -> {
+            printer.print(prefix + trapNames.get(trapIdx));
+            for (final long value : series) {
+                if (value == JCPMFile.NOT_MEASURED)
+                    printer.print(JCProfilerUtil.NOT_MEASURED);
+                else
+                    printer.print(value == JCPMFile.UNREACHABLE ? null : value);
+            }
+            printer.println();
+        });
+    }
+
+    /**
+     * Writes every series as a single column of {@link #getRoundCount()} values using given
+     * {@link JCPMFile.Writer} instance.  Unreachable values are written as {@link JCPMFile#UNREACHABLE}
+     * and values that were not measured as {@link JCPMFile#NOT_MEASURED}.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException if the writing fails
+     */
+    public void write(final JCPMFile.Writer writer) throws IOException {
+        write(writer, "");
+    }
+
+    /**
+     * Writes every series as a single column named by the given prefix and the trap name using given
+     * {@link JCPMFile.Writer} instance.  Every column contains {@link #getRoundCount()} values, unreachable
+     * values are written as {@link JCPMFile#UNREACHABLE} and values that were not measured as
+     * {@link JCPMFile#NOT_MEASURED}.
+     *
+     * @param  writer instance of the binary measurement writer
+     * @param  prefix prefix of the trap names
+     *
+     * @throws IOException if the writing fails
+     */
+    public synchronized void write(final JCPMFile.Writer writer, final String prefix) throws IOException {
+        forEachSeries((trapIdx, series) -> writer.writeColumn(prefix + trapNames.get(trapIdx), series));
+    }
+
+    /**
+     * Stops spooling and closes the spool file.  Spooled rounds can still be read back.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (spool == null)
+            return;
+
+        spool.close();
+        spool = null;
+    }
+
+    /**
+     * Stops spooling and removes the spool file together with its column-major copy.  Spooled rounds
+     * cannot be read back afterwards.
+     *
+     * @throws IOException if the files could not be removed
+     */
+    public synchronized void deleteSpool() throws IOException {
+        close();
+        if (spoolFile != null)
+            Files.deleteIfExists(spoolFile);
+        if (columnFile != null)
+            Files.deleteIfExists(columnFile);
+        transposedRecords = -1;
+    }
+
+    /**
+     * Passes series of {@link #getRoundCount()} values to the given consumer trap by trap.  Unreachable values
+     * are {@link JCPMFile#UNREACHABLE} and values that were not measured {@link JCPMFile#NOT_MEASURED}.
+     * Spooled rounds are read from the column-major copy of the spool file, so every series is read
+     * sequentially and the spool file itself is read only once.
+     *
+     * @param  consumer consumer of the series
+     *
+     * @throws IOException if the spool file could not be read or the consumer failed
+     */
+    private void forEachSeries(final SeriesConsumer consumer) throws IOException {
+        final int roundCount = getRoundCount();
+        final int spooledLength = Math.min(spooledRoundCount, roundCount);
+        if (spoolFile != null)
+            transposeSpool();
+
+        try (final FileChannel columns = spoolFile != null ? FileChannel.open(columnFile, StandardOpenOption.READ)
+                                                           : null) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Math.min(spooledLength, MAX_BUFFERED_VALUES) * Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int trapIdx = 0; trapIdx < trapNames.size(); trapIdx++) {
+                final long[] series = new long[roundCount];
+                Arrays.fill(series, JCPMFile.NOT_MEASURED);
+
+                // spooled rounds
+                final long offset = (long) trapIdx * spooledRoundCount * Long.BYTES;
+                for (int first = 0; first < spooledLength; first += buffer.capacity() / Long.BYTES) {
+                    buffer.clear();
+                    buffer.limit(Math.min(buffer.capacity(), (spooledLength - first) * Long.BYTES));
+                    readFully(columns, buffer, offset + (long) first * Long.BYTES);
+                    buffer.flip();
+                    buffer.asLongBuffer().get(series, first, buffer.remaining() / Long.BYTES);
+                }
+
+                // rounds kept in memory
+                for (final Map.Entry<Integer, Round> e : rounds.entrySet()) {
+                    final Round r = e.getValue();
+                    if (r.measured.get(trapIdx))
+                        series[e.getKey() - 1] = r.unreachable.get(trapIdx) ? JCPMFile.UNREACHABLE
+                                                                            : r.values[trapIdx];
+                }
+
+                consumer.accept(trapIdx, series);
+            }
+        }
+    }
+
+    /**
+     * Transposes the records of the spool file into a column-major file with one column of
+     * {@link #spooledRoundCount} values per trap, where rounds missing in the spool file are
+     * {@link JCPMFile#NOT_MEASURED}.  The spool file is read once in chunks of at most
+     * {@link #MAX_BUFFERED_VALUES} values, records of every chunk are sorted by their round,
+     * so that consecutive rounds are written to each column at once.  The column file is reused
+     * until another round is spooled.
+     *
+     * @throws IOException if the spool file could not be read or the column file could not be written
+     */
+    private void transposeSpool() throws IOException {
+        if (transposedRecords == spooledRecords)
+            return;
+
+        columnFile = spoolFile.resolveSibling(spoolFile.getFileName() + ".columns");
+        try (final FileChannel columns = FileChannel.open(columnFile, StandardOpenOption.CREATE,
+                                                          StandardOpenOption.WRITE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long columnLength = spooledRoundCount;
+            final ByteBuffer fill = ByteBuffer.allocate(
+                    (int) Math.min(columnLength * trapNames.size(), MAX_BUFFERED_VALUES) * Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (fill.hasRemaining())
+                fill.putLong(JCPMFile.NOT_MEASURED);
+
+            // rounds missing in the spool file are not measured
+            final long fileLength = columnLength * trapNames.size() * Long.BYTES;
+            for (long position = 0; position < fileLength; position += fill.limit()) {
+                fill.clear();
+                fill.limit((int) Math.min(fill.capacity(), fileLength - position));
+                writeFully(columns, fill, position);
+            }
+
+            final int recordLength = trapNames.size() + 1;
+            readSpool((records, count) -> {
+                // sort the records by their rounds, the later record of the same round wins
+                final long[] order = new long[count];
+                for (int r = 0; r < count; r++)
+                    order[r] = records.get(r * recordLength) << Integer.SIZE | r;
+                Arrays.sort(order);
+
+                final ByteBuffer run = ByteBuffer.allocate(count * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (int trapIdx = 0; trapIdx < trapNames.size(); trapIdx++) {
+                    final long columnOffset = trapIdx * columnLength;
+                    long firstRound = 0;
+                    long lastRound = 0;
+                    for (final long key : order) {
+                        final long round = key >>> Integer.SIZE;
+                        if (run.position() > 0 && round != lastRound + 1) {
+                            run.flip();
+                            writeFully(columns, run, (columnOffset + firstRound - 1) * Long.BYTES);
+                            run.clear();
+                        }
+
+                        if (run.position() == 0)
+                            firstRound = round;
+                        lastRound = round;
+                        run.putLong(records.get((int) key * recordLength + trapIdx + 1));
+                    }
+
+                    run.flip();
+                    writeFully(columns, run, (columnOffset + firstRound - 1) * Long.BYTES);
+                    run.clear();
+                }
+            });
+        }
+
+        transposedRecords = spooledRecords;
+    }
+
+    /**
+     * Passes every measured value to the given visitor, the spooled rounds first.
+     *
+     * @param  visitor visitor of the measured values
+     *
+     * @throws IOException if the spool file could not be read
+     */
+    private void scan(final ValueVisitor visitor) throws IOException {
+        if (spoolFile != null) {
+            readSpool((records, count) -> {
+                for (int r = 0; r < count; r++) {
+                    final int round = (int) records.get();
+                    for (int i = 0; i < trapNames.size(); i++) {
+                        final long value = records.get();
+                        if (value != JCPMFile.NOT_MEASURED)
+                            visitor.visit(round, i, value);
+                    }
+                }
+            });
+        }
+
+        for (final Map.Entry<Integer, Round> e : rounds.entrySet()) {
+            final Round r = e.getValue();
+            for (int i = r.measured.nextSetBit(0); i >= 0; i = r.measured.nextSetBit(i + 1))
+                visitor.visit(e.getKey(), i, r.unreachable.get(i) ? JCPMFile.UNREACHABLE : r.values[i]);
+        }
+    }
+
+    /**
+     * Reads the records of the spool file sequentially in chunks of at most {@link #MAX_BUFFERED_VALUES}
+     * values, at least one record is always read at once.
+     *
+     * @param  visitor visitor of the chunks
+     *
+     * @throws IOException if the spool file could not be read
+     */
+    private void readSpool(final ChunkVisitor visitor) throws IOException {
+        final int recordLength = trapNames.size() + 1;
+        final int recordsPerChunk = Math.max(1, MAX_BUFFERED_VALUES / recordLength);
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                (int) Math.min(recordsPerChunk, Math.max(spooledRecords, 1)) * recordLength * Long.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        try (final FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.READ)) {
+            for (long first = 0; first < spooledRecords; first += recordsPerChunk) {
+                final int count = (int) Math.min(recordsPerChunk, spooledRecords - first);
+                buffer.clear();
+                buffer.limit(count * recordLength * Long.BYTES);
+                readFully(channel, buffer, spoolHeaderLength + first * getRecordLength());
+                buffer.flip();
+                visitor.visit(buffer.asLongBuffer(), count);
+            }
+        }
+    }
+
+    /**
+     * Fills the remaining part of the buffer from the given position of the channel.
+     *
+     * @param  channel  file channel
+     * @param  buffer   output buffer
+     * @param  position position in the file
+     *
+     * @throws IOException if the file could not be read or is too short
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position() - start) < 0)
+                throw new EOFException("Unexpected end of file at position " + position);
+    }
+
+    /**
+     * Writes the remaining part of the buffer at the given position of the channel.
+     *
+     * @param  channel  file channel
+     * @param  buffer   input buffer
+     * @param  position position in the file
+     *
+     * @throws IOException if the file could not be written
+     */
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position() - start);
+    }
+
+    /**
+     * Returns the given round kept in memory.
+     *
+     * @param  trapIdx index of the trap
+     * @param  round   round indexed from one
+     * @return         the round or null if no trap was measured in it
+     *
+     * @throws IllegalStateException if the round has already been spooled
+     */
+    private Round getRound(final int trapIdx, final int round) {
+        if (round < 1 || sizes[trapIdx] < round)
+            throw new ArrayIndexOutOfBoundsException("Unexpected round: " + round);
+
+        final Round r = rounds.get(round);
+        if (r == null && spoolFile != null)
+            throw new IllegalStateException(String.format("Round %d has already been spooled to %s!",
+                                                          round, spoolFile));
+        return r;
+    }
+
+    /**
+     * Returns the index of the given trap.
+     *
+     * @param  trapName name of the performance trap
+     * @return          index of the trap
+     *
+     * @throws IllegalArgumentException if the trap is unknown
+     */
+    private int getTrapIndex(final String trapName) {
+        final Integer trapIdx = trapIndices.get(trapName);
+        if (trapIdx == null)
+            throw new IllegalArgumentException("Unknown trap: " + trapName);
+        return trapIdx;
+    }
+
+    /**
+     * Consumer of measured values
+     */
+    @FunctionalInterface
+    public interface MeasurementConsumer {
+        /**
+         * Consumes a single measured value.
+         *
+         * @param trapName name of the performance trap
+         * @param round    round indexed from one
+         * @param value    measured value or null if the trap was not reached
+         */
+        void accept(String trapName, int round, Long value);
+    }
+
+    /**
+     * Visitor of measured values, unreachable values are {@link JCPMFile#UNREACHABLE}
+     */
+    @FunctionalInterface
+    private interface ValueVisitor {
+        void visit(int round, int trapIdx, long value);
+    }
+
+    /**
+     * Visitor of chunks of spool file records
+     */
+    @FunctionalInterface
+    private interface ChunkVisitor {
+        void visit(LongBuffer records, int count) throws IOException;
+    }
+
+    /**
+     * Consumer of series of individual traps
+     */
+    @FunctionalInterface
+    private interface SeriesConsumer {
+        void accept(int trapIdx, long[] series) throws IOException;
+    }
+
+    /**
+     * Values of all traps in a single round
+     */
+    private static class Round {
+        private final long[] values;
+        private final BitSet unreachable = new BitSet();
+        private final BitSet measured = new BitSet();
+
+        /**
+         * Constructs the {@link Round} class.
+         *
+         * @param trapCount number of traps
+         */
+        private Round(final int trapCount) {
+            values = new long[trapCount];
+        }
+    }
+}
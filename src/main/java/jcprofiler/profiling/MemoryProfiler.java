@@ -9,18 +9,16 @@ import cz.muni.fi.crocs.rcard.client.Util;
 import javacard.framework.JCSystem;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.JCPMFile;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.MemoryTrend;
+import jcprofiler.util.TrapManifest;
 
 import org.apache.commons.csv.CSVPrinter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.CtModel;
-import spoon.reflect.declaration.CtMethod;
-import spoon.reflect.reference.CtExecutableReference;
-import spoon.reflect.reference.CtTypeReference;
-
 import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
@@ -32,12 +30,41 @@ import java.util.stream.Collectors;
  * This class represents the specifics of profiling in memory mode.
  */
 public class MemoryProfiler extends AbstractProfiler {
-    // use LinkedHashX to preserve insertion order
-    private final Map<String, Integer> memoryUsageTransientDeselect = new LinkedHashMap<>();
-    private final Map<String, Integer> memoryUsageTransientReset = new LinkedHashMap<>();
-    private final Map<String, Integer> memoryUsagePersistent = new LinkedHashMap<>();
+    // every list contains a value for each input
+    private final MemoryUsage memoryUsage = new MemoryUsage();
+    // every list contains a value for each leak detection iteration
+    private final MemoryUsage leakMemoryUsage = new MemoryUsage();
 
     private final int valueBytes;
+    /**
+     * Indicates whether the PM class can send all memory types interleaved in a single response.
+     */
+    private final boolean combinedResponse;
+    /**
+     * Indicates whether the entry point accepts extended length APDUs.
+     */
+    private final boolean extendedApdu;
+    /**
+     * Indicates whether the PM class can reset the stored measurements between executions.
+     */
+    private final boolean resettable;
+    /**
+     * Indicates whether the PM class can restrict the measurements to the traps of the profiled executable.
+     */
+    private final boolean enableTraps;
+
+    /**
+     * P1 value requesting all memory types interleaved per trap
+     */
+    private static final byte ALL_MEMORY_TYPES = 0x7F;
+    /**
+     * P1 value resetting all stored measurements
+     */
+    private static final byte RESET_MEASUREMENTS = 0x7E;
+    /**
+     * Largest expected length of an extended response that the card can represent as a short
+     */
+    private static final int MAX_EXTENDED_LENGTH = Short.MAX_VALUE;
 
     private static final Logger log = LoggerFactory.getLogger(MemoryProfiler.class);
 
@@ -46,157 +73,235 @@ public class MemoryProfiler extends AbstractProfiler {
      *
      * @param args        object with commandline arguments
      * @param cardManager applet connection instance
-     * @param model       Spoon model
+     * @param manifest    manifest of the instrumented sources
      *
      * @throws UnsupportedOperationException if jCardSim is used in combination with
      *                                       {@link javacard.framework.JCSystem#getAvailableMemory(short[], short, byte)}
      *
      */
-    public MemoryProfiler(final Args args, final CardManager cardManager, final CtModel model) {
-        super(args, cardManager, JCProfilerUtil.getProfiledExecutable(model, args.entryPoint, args.executable),
-              /* customInsField */ "INS_PERF_GETMEM");
+    public MemoryProfiler(final Args args, final CardManager cardManager, final TrapManifest manifest) {
+        super(args, cardManager, manifest, /* customInsField */ "INS_PERF_GETMEM");
 
         // get size of measurements
-        valueBytes = getValueBytes();
+        valueBytes = Integer.parseInt(manifest.getProperty("valueBytes"));
         if (valueBytes == Integer.BYTES && args.useSimulator)
             throw new UnsupportedOperationException(
                     "jCardSim does not support the 3.0.4+ JCSystem.getAvailableMemory(short[],short,byte) overload!");
+
+        combinedResponse = manifest.getBooleanProperty("combinedResponse");
+        resettable = manifest.getBooleanProperty("resettable");
+        enableTraps = manifest.getBooleanProperty("enableTraps");
+        extendedApdu = manifest.getBooleanProperty("extendedLength");
     }
 
     /**
-     * Gets size of the measurement from the {@link javacard.framework.JCSystem#getAvailableMemory}
-     * static method used in the {@link jcprofiler.PM#check(short)} method in bytes.  JCSDK 3.0.4+
-     * returns an {@link int} and older return a {@link short}.
+     * Retrieves measurements for given memory type
      *
-     * @return size of the {@link javacard.framework.JCSystem#getAvailableMemory} measurement in bytes
+     * @param  map     map with measurements for given memory type
+     * @param  memType {@link javacard.framework.JCSystem} constant representing given memory type
      *
-     * @throws RuntimeException if the {@link jcprofiler.PM#check(short)} mixes both
-     *                          {@link javacard.framework.JCSystem#getAvailableMemory} overloads
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the measurement retrieval failed or the measurement are in
+     *                          an invalid format
      */
-    private int getValueBytes() {
-        final CtTypeReference<?> shortType = PM.getFactory().Type().shortPrimitiveType();
-
-        // get PM.check(short) method
-        final CtMethod<?> check = PM.getMethod("check", shortType);
+    private void getMeasurements(final Map<String, List<Integer>> map, final byte memType) throws CardException {
+        final byte[] buffer = getArray(memType, getArrayLength(valueBytes), /* partLength */ 256, /* ne */ 0);
 
-        // get all distinct return types of getAvailableMemory calls
-        final List<CtTypeReference<?>> returnTypes = check.getElements(
-                (CtExecutableReference<?> e) -> e.getSimpleName().equals("getAvailableMemory") &&
-                        e.getDeclaringType().getQualifiedName().equals("javacard.framework.JCSystem"))
-                .stream().map(CtExecutableReference::getType).distinct().collect(Collectors.toList());
-        if (returnTypes.size() != 1)
-            throw new RuntimeException("The sources are broken! The PM.check(short) method contains more than one" +
-                    "javacard.framework.JCSystem.getAvailableMemory overload!");
-
-        return returnTypes.get(0).equals(shortType) ? Short.BYTES : Integer.BYTES;
+        // convert and store the retrieved byte array
+        trapNameMap.forEach((trapID, trapName) -> {
+            final int idx = (Short.toUnsignedInt(trapID) - /* PERF_START */ 2) * valueBytes;
+            map.computeIfAbsent(trapName, k -> new ArrayList<>()).add(convertValue(buffer, idx, trapName));
+        });
     }
 
     /**
-     * Retrieves measurements for given memory type
+     * Retrieves measurements of all memory types interleaved per trap in as few responses as possible.
+     * With extended length APDUs, a single response is usually enough.
      *
-     * @param  map     map with measurements for given memory type
-     * @param  memType {@link javacard.framework.JCSystem} constant representing given memory type
+     * @param  usage storage for the retrieved measurements
      *
      * @throws CardException    if the card connection failed
      * @throws RuntimeException if the measurement retrieval failed or the measurement are in
      *                          an invalid format
      */
-    private void getMeasurements(final Map<String, Integer> map, final byte memType) throws CardException {
-        // init
-        final int arrayLength = trapNameMap.size() * valueBytes;
-        final byte[] buffer = new byte[arrayLength];
-
-        int part = 0;
-        int remainingLength = arrayLength;
-
-        // go through the whole array
-        while (remainingLength > 0) {
-            final int nextLength = Math.min(remainingLength, 256);
-
-            // get the given part
-            final CommandAPDU getMeasurements = new CommandAPDU(
-                    args.cla, JCProfilerUtil.INS_PERF_HANDLER, memType, part++);
-            final ResponseAPDU response = cardManager.transmit(getMeasurements);
-            if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
-                throw new RuntimeException(
-                        "Getting memory measurements failed with SW " + Integer.toHexString(response.getSW()));
-
-            final byte[] responseData = response.getData();
-            if (responseData.length != nextLength)
-                throw new RuntimeException(String.format(
-                        "The incoming measurement data have incorrect length! Expected: %d Actual: %d",
-                        arrayLength, responseData.length));
-
-
-            System.arraycopy(responseData, 0, buffer, arrayLength - remainingLength, responseData.length);
-            remainingLength -= nextLength;
-        }
+    private void getAllMeasurements(final MemoryUsage usage) throws CardException {
+        final int recordLength = 3 * valueBytes;
+        final int expectedLength = extendedApdu ? MAX_EXTENDED_LENGTH : 256;
+        final int partLength = expectedLength - expectedLength % recordLength;
+        final byte[] buffer = getArray(ALL_MEMORY_TYPES, getArrayLength(recordLength), partLength, expectedLength);
 
         // convert and store the retrieved byte array
         trapNameMap.forEach((trapID, trapName) -> {
-            int idx = (Short.toUnsignedInt(trapID) - /* PERF_START */ 2) * valueBytes;
-
-            Integer val;
-            if (valueBytes == Short.BYTES) {
-                val = (int) Util.getShort(buffer, idx);
-            } else {
-                val = Short.toUnsignedInt(Util.getShort(buffer, idx)) << Short.SIZE;
-                val |= Short.toUnsignedInt(Util.readShort(buffer, idx + Short.BYTES));
-            }
+            final int idx = (Short.toUnsignedInt(trapID) - /* PERF_START */ 2) * recordLength;
+            usage.transientDeselect.computeIfAbsent(trapName, k -> new ArrayList<>())
+                    .add(convertValue(buffer, idx, trapName));
+            usage.transientReset.computeIfAbsent(trapName, k -> new ArrayList<>())
+                    .add(convertValue(buffer, idx + valueBytes, trapName));
+            usage.persistent.computeIfAbsent(trapName, k -> new ArrayList<>())
+                    .add(convertValue(buffer, idx + 2 * valueBytes, trapName));
+        });
+    }
 
-            // -1 corresponds to an unreachable trap
-            if (val < 0) {
-                if (val != -1)
-                    throw new RuntimeException("The value of free memory measurement must be greater or equal -1");
+    /**
+     * Converts a single measurement stored at the given offset.
+     *
+     * @param  buffer   byte array with measurements
+     * @param  idx      offset of the measurement
+     * @param  trapName name of the corresponding trap
+     * @return          amount of free memory or null if the trap was not reached
+     *
+     * @throws RuntimeException if the measurement is invalid
+     */
+    private Integer convertValue(final byte[] buffer, final int idx, final String trapName) {
+        Integer val;
+        if (valueBytes == Short.BYTES) {
+            val = (int) Util.getShort(buffer, idx);
+        } else {
+            val = Short.toUnsignedInt(Util.getShort(buffer, idx)) << Short.SIZE;
+            val |= Short.toUnsignedInt(Util.readShort(buffer, idx + Short.BYTES));
+        }
 
-                unreachedTraps.add(trapName);
-                val = null;
-            }
+        // -1 corresponds to an unreachable trap
+        if (val < 0) {
+            if (val != -1)
+                throw new RuntimeException("The value of free memory measurement must be greater or equal -1");
 
-            map.put(trapName, val);
-        });
+            unreachedTraps.add(trapName);
+            val = null;
+        }
+
+        return val;
     }
 
     /**
-     * Measures the memory usage and retrieves the measurements from the card.
-     * Only does the latter, if the applet was already measured during installation.
+     * Measures the memory usage for every input and retrieves the measurements from the card after each
+     * execution.  Only does the latter, if the applet was already measured during installation.
      *
      * @throws CardException    if the card connection failed
-     * @throws RuntimeException if the applet execution failed
+     * @throws RuntimeException if the applet execution failed or the measurements cannot be reset
      */
     @Override
     protected void profileImpl() throws CardException {
-        // measure the usage unless already done during installation
-        if (!measuredDuringInstallation) {
+        final int limit = valueBytes == Integer.BYTES ? Integer.MAX_VALUE : Short.MAX_VALUE;
+        log.info("Using JCSystem.getAvailableMemory with {} B limit.", limit);
+        if (combinedResponse)
+            log.info("Using combined {} responses.", extendedApdu ? "extended length" : "short");
+
+        // the usage was already measured during installation
+        if (measuredDuringInstallation) {
+            if (args.repeatCount > 1)
+                log.warn("{} was measured during installation, ignoring --repeat-count.",
+                        profiledExecutableSignature);
+            if (args.leakIterations > 0)
+                log.warn("{} was measured during installation, ignoring --leak-iterations.",
+                        profiledExecutableSignature);
+            retrieveMeasurements(memoryUsage);
+            return;
+        }
+
+        if ((args.repeatCount > 1 || args.leakIterations > 0) && !resettable)
+            throw new RuntimeException("The PM class cannot reset stored measurements! Instrument the sources " +
+                                       "again to use more inputs or detect memory leaks.");
+
+        if (enableTraps)
+            enableTraps();
+
+        generateInputs(args.repeatCount);
+        for (int round = 1; round <= args.repeatCount; round++) {
             resetApplet();
-            generateInputs(/* size */ 1);
+            if (resettable)
+                resetMeasurements();
 
             // get the input
-            final CommandAPDU triggerAPDU = getInputAPDU(/* round */ 1);
+            final CommandAPDU triggerAPDU = getInputAPDU(round);
             final String input = Util.bytesToHex(triggerAPDU.getBytes());
-            log.info("APDU: {}", input);
+            log.info("Round: {}/{} APDU: {}", round, args.repeatCount, input);
 
             // measure!
-            final ResponseAPDU response = cardManager.transmit(triggerAPDU);
-            if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
-                throw new RuntimeException(
-                        "Executing the applet failed with SW " + Integer.toHexString(response.getSW()));
+            execute(triggerAPDU);
+            retrieveMeasurements(memoryUsage);
+        }
+
+        if (args.leakIterations > 0)
+            detectLeaks();
 
-            log.info("Measuring {} complete.", profiledExecutableSignature);
+        log.info("Measuring {} complete.", profiledExecutableSignature);
+    }
+
+    /**
+     * Executes the first input {@link Args#leakIterations} times without resetting the applet in between,
+     * so that memory which is allocated but never reused accumulates.  The stored measurements are reset
+     * before each iteration and retrieved after it.  Traps whose free memory decreases in every iteration
+     * are reported.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the applet execution failed
+     */
+    private void detectLeaks() throws CardException {
+        log.info("Detecting memory leaks in {} iterations.", args.leakIterations);
+
+        final CommandAPDU triggerAPDU = getInputAPDU(1);
+        resetApplet();
+        for (int iteration = 1; iteration <= args.leakIterations; iteration++) {
+            log.info("Leak detection iteration: {}/{} APDU: {}", iteration, args.leakIterations,
+                     Util.bytesToHex(triggerAPDU.getBytes()));
+
+            resetMeasurements();
+            execute(triggerAPDU);
+            retrieveMeasurements(leakMemoryUsage);
         }
 
-        final int limit = valueBytes == Integer.BYTES ? Integer.MAX_VALUE : Short.MAX_VALUE;
-        log.info("Using JCSystem.getAvailableMemory with {} B limit.", limit);
+        optionalHeaderFields.put("leakIterations", String.valueOf(args.leakIterations));
+
+        final List<String> leakingTraps = leakMemoryUsage.persistent.keySet().stream().filter(
+                trapName -> leakMemoryUsage.getTrends(trapName).stream().anyMatch(MemoryTrend::isDecreasing))
+                .collect(Collectors.toList());
+        if (leakingTraps.isEmpty())
+            log.info("No memory leak detected.");
+        else
+            log.warn("Free memory decreases in every iteration at {}: {}", leakingTraps.size() == 1 ? "trap" : "traps",
+                     String.join(", ", leakingTraps));
+    }
 
+    /**
+     * Resets the measurements stored on the card, so that traps unreached by the next input are detected.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the reset failed
+     */
+    private void resetMeasurements() throws CardException {
+        log.debug("Resetting stored measurements.");
+        final CommandAPDU reset = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, RESET_MEASUREMENTS, 0);
+        final ResponseAPDU response = cardManager.transmit(reset);
+        if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+            throw new RuntimeException(
+                    "Resetting memory measurements failed with SW " + Integer.toHexString(response.getSW()));
+    }
+
+    /**
+     * Retrieves the measurements of all memory types from the card.
+     *
+     * @param  usage storage for the retrieved measurements
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the measurement retrieval failed or the measurement are in
+     *                          an invalid format
+     */
+    private void retrieveMeasurements(final MemoryUsage usage) throws CardException {
         log.info("Retrieving measurements from the card.");
-        getMeasurements(memoryUsageTransientDeselect, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT);
-        getMeasurements(memoryUsageTransientReset, JCSystem.MEMORY_TYPE_TRANSIENT_RESET);
-        getMeasurements(memoryUsagePersistent, JCSystem.MEMORY_TYPE_PERSISTENT);
+        if (combinedResponse) {
+            getAllMeasurements(usage);
+        } else {
+            getMeasurements(usage.transientDeselect, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT);
+            getMeasurements(usage.transientReset, JCSystem.MEMORY_TYPE_TRANSIENT_RESET);
+            getMeasurements(usage.persistent, JCSystem.MEMORY_TYPE_PERSISTENT);
+        }
         log.info("Measurements retrieved successfully.");
     }
 
     /**
-     * Stores the memory usage measurements using given {@link CSVPrinter} instance.
+     * Stores the memory usage measurements using given {@link CSVPrinter} instance.  Measurements of
+     * the leak detection iterations are stored in a separate section with prefixed trap names.
      *
      * @param  printer instance of the CSV printer
      *
@@ -204,10 +309,106 @@ public class MemoryProfiler extends AbstractProfiler {
      */
     @Override
     protected void saveMeasurements(final CSVPrinter printer) throws IOException {
-        printer.printComment("trapName,freeTransientDeselect,freeTransientReset,freePersistent");
-        for (final String k : memoryUsagePersistent.keySet()) {
-            printer.printRecord(k, memoryUsageTransientDeselect.get(k), memoryUsageTransientReset.get(k),
-                    memoryUsagePersistent.get(k));
+        printer.printComment("trapName,freeTransientDeselect1,freeTransientReset1,freePersistent1," +
+                             "freeTransientDeselect2,...");
+        memoryUsage.print(printer, "");
+
+        if (args.leakIterations > 0 && !leakMemoryUsage.persistent.isEmpty()) {
+            printer.printComment(JCProfilerUtil.LEAK_PREFIX + "trapName,freeTransientDeselect1,freeTransientReset1," +
+                                 "freePersistent1,freeTransientDeselect2,...");
+            leakMemoryUsage.print(printer, JCProfilerUtil.LEAK_PREFIX);
+        }
+    }
+
+    /**
+     * Stores the memory measurements using given {@link JCPMFile.Writer} instance.  Each column
+     * contains the free transient deselect, transient reset and persistent memory for each input.
+     * Measurements of the leak detection iterations are stored in columns with prefixed trap names.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException if the writing fails
+     */
+    @Override
+    protected void saveMeasurements(final JCPMFile.Writer writer) throws IOException {
+        memoryUsage.write(writer, "");
+        if (args.leakIterations > 0)
+            leakMemoryUsage.write(writer, JCProfilerUtil.LEAK_PREFIX);
+    }
+
+    /**
+     * Measurements of all memory types for a series of executions.
+     */
+    private static class MemoryUsage {
+        // use LinkedHashMap to preserve insertion order
+        private final Map<String, List<Integer>> transientDeselect = new LinkedHashMap<>();
+        private final Map<String, List<Integer>> transientReset = new LinkedHashMap<>();
+        private final Map<String, List<Integer>> persistent = new LinkedHashMap<>();
+
+        /**
+         * Returns the measurements of the given trap.  The free transient deselect, transient reset
+         * and persistent memory are interleaved for each execution.
+         *
+         * @param  trapName name of the performance trap
+         * @return          list of values where null corresponds to an unreachable trap
+         */
+        private List<Integer> getValues(final String trapName) {
+            final List<Integer> deselect = transientDeselect.get(trapName);
+            final List<Integer> reset = transientReset.get(trapName);
+            final List<Integer> pers = persistent.get(trapName);
+
+            final List<Integer> values = new ArrayList<>(3 * pers.size());
+            for (int i = 0; i < pers.size(); i++) {
+                values.add(deselect.get(i));
+                values.add(reset.get(i));
+                values.add(pers.get(i));
+            }
+            return values;
+        }
+
+        /**
+         * Fits a trend of each memory type of the given trap over all executions.
+         *
+         * @param  trapName name of the performance trap
+         * @return          trends of free transient deselect, transient reset and persistent memory
+         */
+        private List<MemoryTrend> getTrends(final String trapName) {
+            return Arrays.asList(new MemoryTrend(transientDeselect.get(trapName)),
+                                 new MemoryTrend(transientReset.get(trapName)),
+                                 new MemoryTrend(persistent.get(trapName)));
+        }
+
+        /**
+         * Prints the measurements of every trap as a single record using given {@link CSVPrinter} instance.
+         *
+         * @param  printer instance of the CSV printer
+         * @param  prefix  prefix of the trap names
+         *
+         * @throws IOException if the printing fails
+         */
+        private void print(final CSVPrinter printer, final String prefix) throws IOException {
+            for (final String k : persistent.keySet()) {
+                printer.print(prefix + k);
+                for (final Integer value : getValues(k))
+                    printer.print(value);
+                printer.println();
+            }
+        }
+
+        /**
+         * Writes the measurements of every trap as a single column using given {@link JCPMFile.Writer} instance.
+         *
+         * @param  writer instance of the binary measurement writer
+         * @param  prefix prefix of the trap names
+         *
+         * @throws IOException if the writing fails
+         */
+        private void write(final JCPMFile.Writer writer, final String prefix) throws IOException {
+            for (final String k : persistent.keySet()) {
+                final long[] column = getValues(k).stream()
+                        .mapToLong(v -> v != null ? v : JCPMFile.UNREACHABLE).toArray();
+                writer.writeColumn(prefix + k, column);
+            }
         }
     }
 }
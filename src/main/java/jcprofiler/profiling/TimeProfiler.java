@@ -4,24 +4,52 @@
 
 package jcprofiler.profiling;
 
+import com.licel.jcardsim.base.Simulator;
+
 import cz.muni.fi.crocs.rcard.client.CardManager;
 import cz.muni.fi.crocs.rcard.client.Util;
 
+import javacard.framework.ISO7816;
+
 import jcprofiler.args.Args;
+import jcprofiler.installation.SimulatorCardManager;
+import jcprofiler.util.JCPMFile;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
+import jcprofiler.util.enums.Schedule;
+import jcprofiler.util.enums.Stage;
+import jcprofiler.util.enums.TimeSource;
 
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.util.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.CtModel;
-
 import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * This class represents the specifics of profiling in time mode.
@@ -30,7 +58,86 @@ import java.util.*;
  */
 public class TimeProfiler extends AbstractProfiler {
     // use LinkedHashX to preserve insertion order
-    private final Map<String, List<Long>> measurements = new LinkedHashMap<>();
+    private final MeasurementSink measurements;
+    /**
+     * Transmit durations of rounds that have not been completed yet indexed by the round and the trap ordinal,
+     * unreached traps are {@link JCPMFile#UNREACHABLE} and completed rounds are dropped
+     */
+    private long[][] transmitDurations;
+    /**
+     * Map between trap IDs and their ordinals in {@link #trapNameMap}
+     */
+    private final Map<Short, Integer> trapOrdinals = new HashMap<>();
+    /**
+     * Measurements of the warm-up rounds on the first card, never included in the results
+     */
+    private final MeasurementSink warmupMeasurements;
+    /**
+     * Number of traps already measured in each round
+     */
+    private int[] measuredSteps;
+    /**
+     * Rounds restored from a checkpoint indexed from zero
+     */
+    private final BitSet restoredRounds = new BitSet();
+
+    /**
+     * Indicates whether the trap ID is transmitted together with the trigger APDU.
+     */
+    private final boolean fusedApdu;
+    /**
+     * Indicates whether the PM class records visited traps in a coverage bitmap.
+     */
+    private final boolean coverage;
+    /**
+     * Traps reached by each trigger APDU, bit indices are trap IDs relative to {@link #PERF_START}
+     */
+    private final Map<String, BitSet> reachableTraps = new HashMap<>();
+    /**
+     * Connections to individual cards, the first one is used outside the sharded rounds
+     */
+    private final List<CardSession> cardSessions;
+    /**
+     * Assignment of rounds to individual cards or null if only a single card is used
+     */
+    private String readerAssignment;
+    /**
+     * Median round-trip time to the INS_PERF_HANDLER in nanoseconds per input length in bytes,
+     * empty unless calibrated
+     */
+    private final SortedMap<Integer, Long> overhead = new TreeMap<>();
+    /**
+     * Indicates whether the CPU time of the thread executing the simulator is measured instead of wall-clock time.
+     */
+    private final boolean cpuTime;
+    /**
+     * Number of samples measured again because a garbage collection overlapped them
+     */
+    private final AtomicInteger gcRejectedSamples = new AtomicInteger();
+
+    /**
+     * Maximal number of repeated measurements of a sample overlapped by a garbage collection
+     */
+    private static final int MAX_GC_RETRIES = 10;
+
+    /**
+     * CSV comment describing the records with measurements
+     */
+    static final String MEASUREMENTS_COMMENT = "trapName,measurement1,measurement2,...";
+    /**
+     * CSV comment describing the records with measurements of the warm-up rounds
+     */
+    static final String WARMUP_COMMENT = JCProfilerUtil.WARMUP_PREFIX + "trapName,warmup1,warmup2,...";
+
+    /**
+     * Seed of the random order of measurements in the interleavedRandom schedule
+     */
+    private final long seed;
+
+    // coverage commands of the PM class
+    private static final short COVERAGE = 0x0000;
+    private static final byte COVERAGE_START = 0x01;
+    private static final byte COVERAGE_READ = 0x02;
 
     private static final Logger log = LoggerFactory.getLogger(TimeProfiler.class);
 
@@ -39,11 +146,42 @@ public class TimeProfiler extends AbstractProfiler {
      *
      * @param args        object with commandline arguments
      * @param cardManager applet connection instance
-     * @param model       Spoon model
+     * @param manifest    manifest of the instrumented sources
+     */
+    public TimeProfiler(final Args args, final CardManager cardManager, final TrapManifest manifest) {
+        this(args, Collections.singletonList(cardManager), manifest);
+    }
+
+    /**
+     * Constructs the {@link TimeProfiler} class that splits the profiling rounds among multiple cards.
+     *
+     * @param args         object with commandline arguments
+     * @param cardManagers non-empty list of applet connection instances
+     * @param manifest     manifest of the instrumented sources
      */
-    public TimeProfiler(final Args args, final CardManager cardManager, final CtModel model) {
-        super(args, cardManager, JCProfilerUtil.getProfiledMethod(model, args.executable),
-              /* customInsField */ "INS_PERF_SETSTOP");
+    public TimeProfiler(final Args args, final List<CardManager> cardManagers, final TrapManifest manifest) {
+        super(args, cardManagers, manifest, /* customInsField */ "INS_PERF_SETSTOP");
+        cardSessions = cardManagers.stream().map(CardSession::new).collect(Collectors.toList());
+
+        final List<String> trapNames = new ArrayList<>(trapNameMap.values());
+        measurements = new MeasurementSink(trapNames);
+        warmupMeasurements = new MeasurementSink(trapNames);
+        for (final short trapID : trapNameMap.keySet())
+            trapOrdinals.put(trapID, trapOrdinals.size());
+
+        fusedApdu = manifest.getBooleanProperty("fusedApdu");
+        coverage = manifest.getBooleanProperty("coverage");
+
+        seed = args.seed != null ? args.seed : new Random().nextLong();
+
+        cpuTime = args.timeSource == TimeSource.cpuTime;
+        if (cpuTime) {
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (!threadMXBean.isCurrentThreadCpuTimeSupported())
+                throw new UnsupportedOperationException("This JVM cannot measure the CPU time of the current thread!");
+            if (!threadMXBean.isThreadCpuTimeEnabled())
+                threadMXBean.setThreadCpuTimeEnabled(true);
+        }
     }
 
     /**
@@ -54,31 +192,105 @@ public class TimeProfiler extends AbstractProfiler {
     @Override
     protected void profileImpl() {
         try {
+            if (fusedApdu)
+                log.info("Trap IDs are fused with trigger APDUs.");
+            log.info("Measuring {}.", args.timeSource.prettyPrint());
+            if (args.directDispatch)
+                log.info("Dispatching APDUs directly to the simulator.");
+
             // reset if possible and erase any previous performance stop
-            resetApplet();
-            setTrap(PERF_START);
+            for (final CardSession session : cardSessions) {
+                resetApplet(session.cardManager);
+                session.setTrap(PERF_START);
+            }
 
-            // main profiling loop
-            generateInputs(args.repeatCount);
-            for (int round = 1; round <= args.repeatCount; round++) {
-                final CommandAPDU triggerAPDU = getInputAPDU(round);
+            // prepare all trigger APDUs in advance
+            final boolean adaptive = args.targetPrecision != null;
+            measuredSteps = new int[args.repeatCount];
+            transmitDurations = new long[args.repeatCount][];
+            int lastRestoredRound = 0;
+            if (args.resume) {
+                lastRestoredRound = restoreCheckpoint();
+            } else {
+                generateInputs(adaptive ? args.maxRounds : args.repeatCount);
+                saveCheckpoint();
 
-                final String input = Util.bytesToHex(triggerAPDU.getBytes());
-                log.info("Round: {}/{} APDU: {}", round, args.repeatCount, input);
-                profileSingleStep(triggerAPDU);
+                // completed rounds are appended to disk as soon as they are available
+                final Path spool = getSpoolFile();
+                measurements.spoolTo(spool);
+                log.info("Appending completed rounds to {}.", spool);
             }
 
-            // sanity check
-            log.debug("Checking that no measurements are missing.");
-            measurements.forEach((k, v) -> {
-                if (v.size() != args.repeatCount)
-                    throw new RuntimeException(k + ".size() != " + args.repeatCount);
-            });
-            if (inputs.size() != args.repeatCount)
-                throw new RuntimeException("inputs.size() != " + args.repeatCount);
+            final List<CommandAPDU> triggerAPDUs = new ArrayList<>(args.repeatCount);
+            for (int round = 1; round <= args.repeatCount; round++)
+                triggerAPDUs.add(getInputAPDU(round));
+
+            if (args.calibrationRounds != null)
+                calibrate();
+            if (coverage)
+                computeCoverage(triggerAPDUs);
+            if (args.warmupRounds > 0)
+                warmUp(triggerAPDUs);
+
+            // main profiling loop
+            log.info("Measuring in the {} schedule.", args.schedule.prettyPrint());
+            if (args.schedule == Schedule.interleavedRandom)
+                log.info("Random order seed: {}", seed);
+            if (cardSessions.size() == 1)
+                measureRounds(cardSessions.get(0), triggerAPDUs, 1, args.repeatCount);
+            else
+                measureRoundsInParallel(triggerAPDUs);
+
+            if (adaptive) {
+                final int roundCount = profileUntilConverged(Math.max(args.repeatCount, lastRestoredRound));
+
+                // drop unused inputs
+                inputs.subList(roundCount, inputs.size()).clear();
+
+                // additional rounds are always measured on the first card
+                if (readerAssignment != null && roundCount > args.repeatCount)
+                    readerAssignment += String.format(";%d-%d:%s", args.repeatCount + 1, roundCount,
+                            getCardATR(cardManager));
 
+                // sanity check
+                log.debug("Checking that no measurements are missing.");
+                for (final String trapName : trapNameMap.values()) {
+                    final int size = measurements.size(trapName);
+                    if (size < args.repeatCount || size > roundCount)
+                        throw new RuntimeException(String.format(
+                                "%s.size() not in [%d, %d]", trapName, args.repeatCount, roundCount));
+                }
+            } else {
+                // sanity check
+                log.debug("Checking that no measurements are missing.");
+                for (final String trapName : trapNameMap.values())
+                    if (measurements.size(trapName) != args.repeatCount)
+                        throw new RuntimeException(trapName + ".size() != " + args.repeatCount);
+                if (inputs.size() != args.repeatCount)
+                    throw new RuntimeException("inputs.size() != " + args.repeatCount);
+            }
 
-        } catch (CardException e) {
+            if (readerAssignment != null)
+                optionalHeaderFields.put("readers", readerAssignment);
+            if (args.warmupRounds > 0)
+                optionalHeaderFields.put("warmupRounds", String.valueOf(args.warmupRounds));
+            if (args.schedule == Schedule.interleavedRandom)
+                optionalHeaderFields.put("seed", String.valueOf(seed));
+            if (cpuTime) {
+                optionalHeaderFields.put("timeSource", args.timeSource.toString());
+                optionalHeaderFields.put("gcRejected", String.valueOf(gcRejectedSamples.get()));
+                log.info("{} samples overlapped by a garbage collection were measured again.",
+                        gcRejectedSamples.get());
+            }
+            if (!overhead.isEmpty()) {
+                reportOverhead();
+                optionalHeaderFields.put(args.subtractOverhead ? "subtractedOverhead" : "overhead",
+                        overhead.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue())
+                                .collect(Collectors.joining(";")));
+            }
+
+            measurements.close();
+        } catch (CardException | IOException e) {
             throw new RuntimeException(e);
         }
 
@@ -86,74 +298,567 @@ public class TimeProfiler extends AbstractProfiler {
     }
 
     /**
-     * Sets {@code jcprofiler.PM#nextPerfStop} to given performance trap ID.
+     * Measures the round-trip time to the INS_PERF_HANDLER for every input length on the first card.
+     * The handler only arms {@link #PERF_START}, so the round-trip approximates the overhead of the reader,
+     * PC/SC and APDU dispatch that is included in the measurement of the first reached trap.
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the calibration APDU failed
+     */
+    private void calibrate() throws CardException {
+        final SortedSet<Integer> lengths = inputs.stream().map(s -> s.length() / 2)
+                .collect(Collectors.toCollection(TreeSet::new));
+        log.info("Calibrating transport overhead for {} input lengths.", lengths.size());
+
+        // the handler APDU must keep the trap armed and, in the fused variant, the trigger header intact
+        byte[] prefix = Util.shortToByteArray(PERF_START);
+        if (fusedApdu)
+            prefix = ArrayUtils.addAll(prefix, args.ins, args.p1, args.p2);
+
+        final CardSession session = cardSessions.get(0);
+        for (final int length : lengths) {
+            final byte[] data = Arrays.copyOf(prefix, Math.max(length, prefix.length));
+            final CommandAPDU handlerAPDU = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, 0, 0, data);
+
+            final DescriptiveStatistics ds = new DescriptiveStatistics();
+            for (int i = 0; i < args.calibrationRounds; i++) {
+                final ResponseAPDU response = session.transmit(handlerAPDU);
+                if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+                    throw new RuntimeException("Calibration APDU failed with SW " +
+                                               Integer.toHexString(response.getSW()));
+                if (session.gcOverlapped)
+                    gcRejectedSamples.incrementAndGet();
+                else
+                    ds.addValue(session.lastTransmitDuration);
+            }
+
+            overhead.put(length, Math.round(ds.getPercentile(50)));
+            log.info("Input length {} B: handler round-trip median {} ns, mean {} ns, sd {} ns, min {} ns, max {} ns",
+                    length, overhead.get(length), Math.round(ds.getMean()), Math.round(ds.getStandardDeviation()),
+                    Math.round(ds.getMin()), Math.round(ds.getMax()));
+        }
+
+        session.armedTrap = PERF_START;
+        if (args.subtractOverhead)
+            log.info("The overhead will be subtracted from the first reached trap of every round.");
+    }
+
+    /**
+     * Executes every distinct trigger APDU once on the first card with the coverage bitmap enabled
+     * and stores the traps it reached.  Traps that were not reached by an input are not armed for it
+     * during the measurement.  This assumes that the profiled executable is deterministic.
      *
-     * @param  trapID performance trap ID to be set
+     * @param  triggerAPDUs list of trigger APDUs for each round
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if a coverage command failed
+     */
+    private void computeCoverage(final List<CommandAPDU> triggerAPDUs) throws CardException {
+        // the bitmap must cover traps of all executables instrumented in the same CAP file as they may be called
+        final int maxTrapID = PERF_START + manifest.getTrapCount();
+        final int bitmapLength = (maxTrapID - PERF_START) / Byte.SIZE + 1;
+
+        final CardSession session = cardSessions.get(0);
+        for (final CommandAPDU triggerAPDU : triggerAPDUs) {
+            final String key = Util.bytesToHex(triggerAPDU.getBytes());
+            if (!reachableTraps.containsKey(key))
+                reachableTraps.put(key, session.measureCoverage(triggerAPDU, bitmapLength));
+        }
+
+        // count the skipped measurements
+        int skippedSteps = 0;
+        for (final CommandAPDU triggerAPDU : triggerAPDUs)
+            for (final short trapID : trapNameMap.keySet())
+                if (!isReachable(triggerAPDU, trapID))
+                    skippedSteps++;
+
+        log.info("Computed coverage of {} distinct inputs, {}/{} steps will be skipped as unreachable.",
+                reachableTraps.size(), skippedSteps, triggerAPDUs.size() * trapNameMap.size());
+    }
+
+    /**
+     * Decides whether the given trap may be reached by the given trigger APDU.  Traps are considered
+     * reachable unless the coverage of the trigger APDU was computed in advance.
+     *
+     * @param  triggerAPDU APDU to reach the selected fatal trap
+     * @param  trapID      performance trap ID
+     * @return             true if yes, otherwise false
+     */
+    private boolean isReachable(final CommandAPDU triggerAPDU, final short trapID) {
+        if (reachableTraps.isEmpty())
+            return true;
+
+        final BitSet reachable = reachableTraps.get(Util.bytesToHex(triggerAPDU.getBytes()));
+        return reachable == null || reachable.get(trapID - PERF_START);
+    }
+
+    /**
+     * Returns the calibrated overhead to be subtracted in the given round.
+     *
+     * @param  round profiling round
+     * @return       the overhead in nanoseconds for the input length of the given round or zero
+     *               if the overhead is not subtracted
+     */
+    private long getOverhead(final int round) {
+        if (!args.subtractOverhead)
+            return 0;
+        return overhead.get(inputs.get(round - 1).length() / 2);
+    }
+
+    /**
+     * Executes {@link Args#warmupRounds} rounds of every trap on every card before any measurement is recorded,
+     * so that caches, JIT compilation and the reader are in a steady state.  The warm-up rounds cycle through
+     * the inputs of the profiling rounds.  The elapsed times measured on the first card are kept separately
+     * from the results, so that they can be displayed during visualisation.
+     *
+     * @param  triggerAPDUs list of trigger APDUs for each round
      *
      * @throws CardException    if the card connection failed
      * @throws RuntimeException if setting the next fatal performance trap failed
      */
-    private void setTrap(short trapID) throws CardException {
-        log.debug("Setting next trap to {}.", getTrapName(trapID));
+    private void warmUp(final List<CommandAPDU> triggerAPDUs) throws CardException {
+        log.info("Executing {} warm-up rounds on every {}.", args.warmupRounds,
+                args.useSimulator ? "simulator" : "card");
 
-        CommandAPDU setTrap = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, 0, 0,
-                                              Util.shortToByteArray(trapID));
-        ResponseAPDU response = cardManager.transmit(setTrap);
-        if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
-            throw new RuntimeException(String.format(
-                    "Setting \"%s\" trap failed with SW %s",
-                    getTrapName(trapID), Integer.toHexString(response.getSW())));
+        for (final CardSession session : cardSessions) {
+            final boolean recorded = session == cardSessions.get(0);
+            for (int round = 1; round <= args.warmupRounds; round++) {
+                final int inputRound = (round - 1) % triggerAPDUs.size() + 1;
+                final CommandAPDU triggerAPDU = triggerAPDUs.get(inputRound - 1);
+                log.info("Warm-up round: {}/{} APDU: {}",
+                        round, args.warmupRounds, Util.bytesToHex(triggerAPDU.getBytes()));
+
+                long prevTransmitDuration = getOverhead(inputRound);
+                for (final short trapID : trapNameMap.keySet()) {
+                    final Long currentTransmitDuration = session.measureTrap(triggerAPDU, trapID);
+                    if (!recorded)
+                        continue;
+
+                    if (currentTransmitDuration == null) {
+                        warmupMeasurements.set(getTrapName(trapID), round, null);
+                        continue;
+                    }
+
+                    warmupMeasurements.set(getTrapName(trapID), round,
+                            currentTransmitDuration - prevTransmitDuration);
+                    prevTransmitDuration = currentTransmitDuration;
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the median elapsed time of the first trap, i.e. the round-trip to the method entry,
+     * next to the calibrated overhead for every input length.
+     *
+     * @throws IOException if the spooled rounds could not be read
+     */
+    private void reportOverhead() throws IOException {
+        final String entryTrap = trapNameMap.values().iterator().next();
+        final Map<Integer, DescriptiveStatistics> entryStatistics = new TreeMap<>();
+        measurements.forEach((trapName, round, value) -> {
+            if (trapName.equals(entryTrap) && value != null)
+                entryStatistics.computeIfAbsent(inputs.get(round - 1).length() / 2, k -> new DescriptiveStatistics())
+                        .addValue(value);
+        });
+
+        log.info("Transport overhead{}:", args.subtractOverhead ? " (subtracted)" : "");
+        overhead.forEach((length, median) -> {
+            final DescriptiveStatistics ds = entryStatistics.get(length);
+            log.info("Input length {} B: handler {} ns, {} {} ns", length, median, entryTrap,
+                    ds != null ? Math.round(ds.getPercentile(50)) : "unreachable");
+        });
+    }
+
+    /**
+     * Splits the profiling rounds into contiguous blocks and measures each block on a different card
+     * or simulator instance in a separate thread.  Every thread writes only the rounds assigned to it,
+     * so the merged results do not depend on thread scheduling.
+     *
+     * @param  triggerAPDUs list of trigger APDUs for each round
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if the measurement failed or was interrupted
+     */
+    private void measureRoundsInParallel(final List<CommandAPDU> triggerAPDUs) throws CardException {
+        final int shardCount = cardSessions.size();
+        log.info("Splitting {} rounds among {} {}.",
+                args.repeatCount, shardCount, args.useSimulator ? "simulators" : "cards");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(shardCount);
+        final List<Future<Void>> futures = new ArrayList<>(shardCount);
+        final List<String> assignment = new ArrayList<>(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                final int firstRound = i * args.repeatCount / shardCount + 1;
+                final int lastRound = (i + 1) * args.repeatCount / shardCount;
+                if (firstRound > lastRound)
+                    continue;
+
+                final CardSession session = cardSessions.get(i);
+                assignment.add(String.format("%d-%d:%s", firstRound, lastRound, getCardATR(session.cardManager)));
+                futures.add(executor.submit(() -> {
+                    measureRounds(session, triggerAPDUs, firstRound, lastRound);
+                    return null;
+                }));
+            }
+
+            for (final Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CardException)
+                throw (CardException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        readerAssignment = String.join(";", assignment);
+    }
+
+    /**
+     * Measures all traps in the given range of rounds on a single card in the selected schedule.
+     *
+     * @param  session      card connection
+     * @param  triggerAPDUs list of trigger APDUs for each round
+     * @param  firstRound   first measured round (inclusive)
+     * @param  lastRound    last measured round (inclusive)
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if setting the next fatal performance trap failed
+     */
+    private void measureRounds(final CardSession session, final List<CommandAPDU> triggerAPDUs,
+                               final int firstRound, final int lastRound) throws CardException {
+        switch (args.schedule) {
+            case roundMajor:
+                for (int round = firstRound; round <= lastRound; round++) {
+                    if (restoredRounds.get(round - 1))
+                        continue;
+
+                    final CommandAPDU triggerAPDU = triggerAPDUs.get(round - 1);
+                    final String input = Util.bytesToHex(triggerAPDU.getBytes());
+                    log.info("Round: {}/{} APDU: {}", round, args.repeatCount, input);
+
+                    for (final short trapID : trapNameMap.keySet())
+                        profileSingleStep(session, triggerAPDU, round, trapID);
+                }
+                break;
+
+            case trapMajor:
+                int trapIdx = 1;
+                for (final short trapID : trapNameMap.keySet()) {
+                    log.info("Trap: {}/{} {} Rounds: {}-{}",
+                            trapIdx++, trapNameMap.size(), getTrapName(trapID), firstRound, lastRound);
+
+                    for (int round = firstRound; round <= lastRound; round++)
+                        if (!restoredRounds.get(round - 1))
+                            profileSingleStep(session, triggerAPDUs.get(round - 1), round, trapID);
+                }
+                break;
+
+            case interleavedRandom:
+                final List<Pair<Integer, Short>> steps = new ArrayList<>();
+                for (int round = firstRound; round <= lastRound; round++)
+                    if (!restoredRounds.get(round - 1))
+                        for (final short trapID : trapNameMap.keySet())
+                            steps.add(new Pair<>(round, trapID));
+                // every card shuffles its own block, so the order does not depend on thread scheduling
+                Collections.shuffle(steps, new Random(seed + firstRound));
+
+                for (int i = 0; i < steps.size(); i++) {
+                    if (i % trapNameMap.size() == 0)
+                        log.info("Step: {}/{} Rounds: {}-{}", i + 1, steps.size(), firstRound, lastRound);
+
+                    final int round = steps.get(i).getKey();
+                    profileSingleStep(session, triggerAPDUs.get(round - 1), round, steps.get(i).getValue());
+                }
+                break;
+
+            default:
+                throw new RuntimeException("Unreachable statement reached!");
+        }
     }
 
     /**
-     * Performs a single time profiling step.  Executes the given APDU and stores the elapsed time.
+     * Performs a single time profiling step.  Executes the given APDU with given performance trap set
+     * and stores the elapsed time.
      *
+     * @param  session     card connection
      * @param  triggerAPDU APDU to reach the selected fatal trap
+     * @param  round       current profiling round
+     * @param  trapID      performance trap ID to be measured
      *
      * @throws CardException    if the card connection failed
      * @throws RuntimeException if setting the next fatal performance trap failed
      */
-    private void profileSingleStep(CommandAPDU triggerAPDU) throws CardException {
-        long prevTransmitDuration = 0;
-        long currentTransmitDuration;
+    private void profileSingleStep(final CardSession session, final CommandAPDU triggerAPDU, final int round,
+                                   final short trapID) throws CardException {
+        log.debug("Measuring {} in round {}.", getTrapName(trapID), round);
+        // every round is measured by a single thread
+        if (transmitDurations[round - 1] == null)
+            transmitDurations[round - 1] = new long[trapNameMap.size()];
 
-        for (short trapID : trapNameMap.keySet()) {
-            // set performance trap
-            setTrap(trapID);
+        final Long transmitDuration = session.measureTrap(triggerAPDU, trapID);
+        transmitDurations[round - 1][trapOrdinals.get(trapID)] =
+                transmitDuration != null ? transmitDuration : JCPMFile.UNREACHABLE;
+        if (isRoundComplete(round))
+            completeRound(round);
+    }
 
-            // execute target operation
-            final String trapName = getTrapName(trapID);
-            log.debug("Measuring {}.", trapName);
-            final ResponseAPDU response = cardManager.transmit(triggerAPDU);
+    /**
+     * Records a measured step in the given round.
+     *
+     * @param  round current profiling round
+     * @return       true if every trap has already been measured in the given round, otherwise false
+     */
+    private synchronized boolean isRoundComplete(final int round) {
+        return ++measuredSteps[round - 1] == trapNameMap.size();
+    }
 
-            // SW should be equal to the trap ID
-            final int SW = response.getSW();
-            if (SW != Short.toUnsignedInt(trapID)) {
-                // unknown SW returned
-                if (SW != JCProfilerUtil.SW_NO_ERROR)
-                    throw new RuntimeException(String.format(
-                            "Unexpected SW received when profiling trap %s: %s", trapName, Integer.toHexString(SW)));
+    /**
+     * Computes the elapsed time between consecutive reached traps in the given round, appends the round
+     * to the spool file and drops its transmit durations.
+     *
+     * @param  round completed profiling round
+     *
+     * @throws RuntimeException if the round could not be appended to the spool file
+     */
+    private void completeRound(final int round) {
+        final long[] roundDurations = transmitDurations[round - 1];
+        transmitDurations[round - 1] = null;
 
-                // we have not reached expected performance trap
-                unreachedTraps.add(trapName);
-                measurements.computeIfAbsent(trapName, k -> new ArrayList<>()).add(null);
-                log.debug("Duration: unreachable");
+        long prevTransmitDuration = getOverhead(round);
+        int trapIdx = 0;
+        for (final String trapName : trapNameMap.values()) {
+            final long currentTransmitDuration = roundDurations[trapIdx++];
+            if (currentTransmitDuration == JCPMFile.UNREACHABLE) {
+                measurements.set(trapName, round, null);
                 continue;
             }
 
-            // compute the difference
-            currentTransmitDuration = cardManager.getLastTransmitTimeNano();
-            final long diff = currentTransmitDuration - prevTransmitDuration;
+            measurements.set(trapName, round, currentTransmitDuration - prevTransmitDuration);
             prevTransmitDuration = currentTransmitDuration;
+        }
 
-            log.debug("Duration: {} ns", diff);
+        try {
+            measurements.spoolRound(round);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            // store the difference
-            measurements.computeIfAbsent(getTrapName(trapID), k -> new ArrayList<>()).add(diff);
+    /**
+     * Stores the generated inputs and the identification of the profiling run into the checkpoint file.
+     * Together with the spool file, it allows resuming an interrupted run.
+     *
+     * @throws IOException if the printing fails
+     */
+    private void saveCheckpoint() throws IOException {
+        final Path checkpoint = getCheckpointFile();
+        try (final CSVPrinter printer = new CSVPrinter(new FileWriter(checkpoint.toFile()),
+                                                       JCProfilerUtil.getCSVFormat())) {
+            printer.printComment("type#signature,repeatCount");
+            printer.printRecord(getCheckpointHeader());
 
-            // free memory after command
-            resetApplet();
+            printer.printComment("input1,input2,input3,...");
+            printer.printRecord(inputs);
         }
+
+        log.info("Checkpoint saved to {}.", checkpoint);
+    }
+
+    /**
+     * Loads the inputs from the checkpoint file and resumes appending completed rounds to the spool file.
+     * The restored rounds are not measured again.
+     *
+     * @return the last restored round or zero if no round was restored
+     *
+     * @throws IOException      if reading or writing the files fails
+     * @throws RuntimeException if the checkpoint belongs to a different profiling run
+     */
+    private int restoreCheckpoint() throws IOException {
+        final Path checkpoint = JCProfilerUtil.checkFile(getCheckpointFile(), Stage.profiling);
+        log.info("Resuming from checkpoint {}.", checkpoint);
+
+        try (final CSVParser parser = CSVParser.parse(checkpoint, Charset.defaultCharset(),
+                                                      JCProfilerUtil.getCSVFormat())) {
+            final Iterator<CSVRecord> it = parser.iterator();
+            if (!it.next().toList().equals(getCheckpointHeader()))
+                throw new RuntimeException(String.format(
+                        "Checkpoint %s was created for a different executable or number of rounds!", checkpoint));
+
+            inputs.addAll(it.next().toList());
+        }
+
+        final int expectedInputs = args.targetPrecision != null ? args.maxRounds : args.repeatCount;
+        if (inputs.size() != expectedInputs)
+            throw new RuntimeException(String.format(
+                    "Checkpoint %s contains %d inputs but %d are required!", checkpoint, inputs.size(),
+                    expectedInputs));
+
+        final Path spool = getSpoolFile();
+        final List<Integer> rounds;
+        if (Files.exists(spool)) {
+            rounds = measurements.resume(spool);
+        } else {
+            rounds = Collections.emptyList();
+            measurements.spoolTo(spool);
+        }
+
+        for (final int round : rounds)
+            if (round <= args.repeatCount)
+                restoredRounds.set(round - 1);
+
+        log.info("Restored {} completed rounds from {}.", rounds.size(), spool);
+        return rounds.stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    /**
+     * Returns the values identifying the profiling run stored in the checkpoint file.
+     *
+     * @return list of checkpoint header values
+     */
+    private List<String> getCheckpointHeader() {
+        return Arrays.asList(profiledExecutableSignature, String.valueOf(args.repeatCount));
+    }
+
+    /**
+     * Returns the path to the checkpoint file.
+     *
+     * @return path to the checkpoint file
+     */
+    private Path getCheckpointFile() {
+        return args.workDir.resolve("checkpoint.csv");
+    }
+
+    /**
+     * Returns the path to the file with rounds completed so far.
+     *
+     * @return path to the spool file
+     */
+    private Path getSpoolFile() {
+        return args.workDir.resolve("measurements.spool");
+    }
+
+    /**
+     * Keeps measuring traps whose 95% confidence interval of the mean elapsed time is wider than
+     * {@link Args#targetPrecision} until every trap converges or {@link Args#maxRounds} is reached.
+     * Each additional round measures only the unconverged traps and their closest reached predecessors,
+     * the remaining traps are stored as not measured in that round.
+     *
+     * @param  lastRound the last already completed round
+     * @return           number of executed rounds
+     *
+     * @throws CardException    if the card connection failed
+     * @throws IOException      if the spool file could not be read or written
+     * @throws RuntimeException if setting the next fatal performance trap failed
+     */
+    private int profileUntilConverged(final int lastRound) throws CardException, IOException {
+        final List<Short> trapIDs = new ArrayList<>(trapNameMap.keySet());
+
+        // only the moments are kept, so the statistics do not grow with the number of rounds
+        final Map<String, SummaryStatistics> statistics = new HashMap<>();
+        for (final String trapName : trapNameMap.values())
+            statistics.put(trapName, new SummaryStatistics());
+        measurements.forEach((trapName, round, value) -> {
+            if (value != null)
+                statistics.get(trapName).addValue(value);
+        });
+
+        final List<Short> activeTraps = trapIDs.stream()
+                .filter(t -> !hasConverged(statistics.get(getTrapName(t))))
+                .collect(Collectors.toCollection(ArrayList::new));
+        log.info("{}/{} traps have not converged after {} rounds.",
+                activeTraps.size(), trapIDs.size(), lastRound);
+
+        int round = lastRound;
+        while (!activeTraps.isEmpty() && round < args.maxRounds) {
+            round++;
+            final CommandAPDU triggerAPDU = getInputAPDU(round);
+            log.info("Round: {}/{} Unconverged traps: {} APDU: {}",
+                    round, args.maxRounds, activeTraps.size(), Util.bytesToHex(triggerAPDU.getBytes()));
+
+            // transmit durations measured in this round
+            final Map<Short, Long> roundDurations = new HashMap<>();
+            for (final short trapID : activeTraps) {
+                final String trapName = getTrapName(trapID);
+                final Long currentTransmitDuration = measureTrapOnce(triggerAPDU, trapID, roundDurations);
+                if (currentTransmitDuration == null) {
+                    measurements.set(trapName, round, null);
+                    continue;
+                }
+
+                // find the closest reached predecessor
+                long prevTransmitDuration = getOverhead(round);
+                for (int i = trapIDs.indexOf(trapID) - 1; i >= 0; i--) {
+                    final Long prev = measureTrapOnce(triggerAPDU, trapIDs.get(i), roundDurations);
+                    if (prev != null) {
+                        prevTransmitDuration = prev;
+                        break;
+                    }
+                }
+
+                final long diff = currentTransmitDuration - prevTransmitDuration;
+                measurements.set(trapName, round, diff);
+                statistics.get(trapName).addValue(diff);
+            }
+
+            measurements.spoolRound(round);
+            activeTraps.removeIf(t -> hasConverged(statistics.get(getTrapName(t))));
+        }
+
+        if (activeTraps.isEmpty())
+            log.info("All traps converged after {} rounds.", round);
+        else
+            log.warn("{} traps did not converge in {} rounds.", activeTraps.size(), round);
+
+        return round;
+    }
+
+    /**
+     * Measures the given trap unless it was already measured for the given trigger APDU.
+     *
+     * @param  triggerAPDU    APDU to reach the selected fatal trap
+     * @param  trapID         performance trap ID to be measured
+     * @param  roundDurations map between already measured traps and transmit durations
+     * @return                transmit duration in nanoseconds or null if the trap was not reached
+     *
+     * @throws CardException    if the card connection failed
+     * @throws RuntimeException if setting the next fatal performance trap failed
+     */
+    private Long measureTrapOnce(final CommandAPDU triggerAPDU, final short trapID,
+                                 final Map<Short, Long> roundDurations) throws CardException {
+        if (!roundDurations.containsKey(trapID)) {
+            log.debug("Measuring {}.", getTrapName(trapID));
+            roundDurations.put(trapID, cardSessions.get(0).measureTrap(triggerAPDU, trapID));
+        }
+
+        return roundDurations.get(trapID);
+    }
+
+    /**
+     * Decides whether the half-width of the 95% confidence interval of the mean is at most
+     * {@link Args#targetPrecision} times the mean.  Traps that were never reached are considered
+     * converged as there is nothing to measure.
+     *
+     * @param  ds statistics of the elapsed time of a single trap
+     * @return    true if yes, otherwise false
+     */
+    private boolean hasConverged(final SummaryStatistics ds) {
+        final long n = ds.getN();
+        if (n == 0)
+            return true;
+        if (n == 1)
+            return false;
+
+        final double t = new TDistribution(n - 1).inverseCumulativeProbability(0.975);
+        final double halfWidth = t * ds.getStandardDeviation() / Math.sqrt(n);
+        return halfWidth <= args.targetPrecision * Math.abs(ds.getMean());
     }
 
     /**
@@ -165,10 +870,360 @@ public class TimeProfiler extends AbstractProfiler {
      */
     @Override
     protected void saveMeasurements(final CSVPrinter printer) throws IOException {
-        printer.printComment("trapName,measurement1,measurement2,...");
-        for (final Map.Entry<String, List<Long>> e : measurements.entrySet()) {
-            printer.print(e.getKey());
-            printer.printRecord(e.getValue());
+        printer.printComment(MEASUREMENTS_COMMENT);
+        measurements.print(printer);
+        if (args.warmupRounds > 0) {
+            printer.printComment(WARMUP_COMMENT);
+            warmupMeasurements.print(printer, JCProfilerUtil.WARMUP_PREFIX);
+        }
+    }
+
+    /**
+     * Stores the time measurements using given {@link JCPMFile.Writer} instance.
+     *
+     * @param  writer instance of the binary measurement writer
+     *
+     * @throws IOException if the writing fails
+     */
+    @Override
+    protected void saveMeasurements(final JCPMFile.Writer writer) throws IOException {
+        measurements.write(writer);
+        if (args.warmupRounds > 0)
+            warmupMeasurements.write(writer, JCProfilerUtil.WARMUP_PREFIX);
+    }
+
+    /**
+     * Stores the measurements read back from the spool file and removes the spool and checkpoint files
+     * afterwards, because every round is stored in the measurement files.
+     *
+     * @throws RuntimeException if the files could not be removed
+     */
+    @Override
+    public void generateCSV() {
+        super.generateCSV();
+        try {
+            measurements.deleteSpool();
+            Files.deleteIfExists(getCheckpointFile());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Connection to a single card together with the state of its performance trap.
+     */
+    private class CardSession {
+        /**
+         * A card connection instance
+         */
+        private final CardManager cardManager;
+        /**
+         * ID of the currently armed performance trap or null if unknown
+         */
+        private Short armedTrap;
+        /**
+         * Simulator the APDUs are dispatched to directly or null if they are transmitted by {@link #cardManager}
+         */
+        private final Simulator simulator;
+        /**
+         * Encoded APDUs reused by the direct dispatch
+         */
+        private final Map<CommandAPDU, byte[]> commands = new IdentityHashMap<>();
+        /**
+         * Encoded fused APDUs reused by the direct dispatch, their P1 and P2 bytes are overwritten by the trap ID
+         */
+        private final Map<CommandAPDU, byte[]> fusedCommands = new IdentityHashMap<>();
+        /**
+         * Encoded APDU setting the next performance trap reused by the direct dispatch
+         */
+        private byte[] setTrapCommand;
+        /**
+         * Duration of the last transmission timed by {@link #transmit(CommandAPDU)} in nanoseconds
+         */
+        private long lastTransmitDuration;
+        /**
+         * Indicates whether a garbage collection overlapped the last transmission timed by
+         * {@link #transmit(CommandAPDU)}, always false with the wall-clock time source
+         */
+        private boolean gcOverlapped;
+
+        /**
+         * Constructs the {@link CardSession} class.
+         *
+         * @param  cardManager applet connection instance
+         *
+         * @throws RuntimeException if the direct dispatch is requested but the connection does not support it
+         */
+        private CardSession(final CardManager cardManager) {
+            this.cardManager = cardManager;
+            if (!args.directDispatch) {
+                simulator = null;
+                return;
+            }
+
+            if (!(cardManager instanceof SimulatorCardManager))
+                throw new RuntimeException("The card connection does not support the direct dispatch!");
+            simulator = ((SimulatorCardManager) cardManager).getSimulator();
+        }
+
+        /**
+         * Sets {@code jcprofiler.PM#nextPerfStop} to given performance trap ID unless it is already set.
+         * In the fused variant, the header of the trigger APDU is sent as well.
+         *
+         * @param  trapID performance trap ID to be set
+         *
+         * @throws CardException    if the card connection failed
+         * @throws RuntimeException if setting the next fatal performance trap failed
+         */
+        private void setTrap(short trapID) throws CardException {
+            if (armedTrap != null && armedTrap == trapID) {
+                log.debug("Next trap is already set to {}.", getTrapName(trapID));
+                return;
+            }
+
+            log.debug("Setting next trap to {}.", getTrapName(trapID));
+
+            byte[] data = Util.shortToByteArray(trapID);
+            if (fusedApdu)
+                data = ArrayUtils.addAll(data, args.ins, args.p1, args.p2);
+
+            CommandAPDU setTrap = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, 0, 0, data);
+            ResponseAPDU response;
+            if (simulator != null) {
+                // only the trap ID following the header and Lc byte changes
+                if (setTrapCommand == null)
+                    setTrapCommand = setTrap.getBytes();
+                System.arraycopy(data, 0, setTrapCommand, 5, 2);
+                response = transmit(setTrapCommand);
+            } else {
+                response = cardManager.transmit(setTrap);
+            }
+            if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+                throw new RuntimeException(String.format(
+                        "Setting \"%s\" trap failed with SW %s",
+                        getTrapName(trapID), Integer.toHexString(response.getSW())));
+
+            armedTrap = trapID;
+        }
+
+        /**
+         * Transmits the given APDU and stores its duration into {@link #lastTransmitDuration}.  With the CPU
+         * time source, the CPU time of the current thread is measured directly around the transmission through
+         * the simulated card channel, so neither the logging of the {@link CardManager} class nor the time
+         * the thread spent descheduled is included.  The jCardSim simulator executes the applet in the
+         * calling thread.  With the direct dispatch, the APDU is encoded only once.
+         *
+         * @param  apdu APDU to be transmitted
+         * @return      a {@link ResponseAPDU} instance
+         *
+         * @throws CardException if the card connection failed
+         */
+        private ResponseAPDU transmit(final CommandAPDU apdu) throws CardException {
+            if (simulator != null)
+                return transmit(commands.computeIfAbsent(apdu, CommandAPDU::getBytes));
+
+            if (!cpuTime) {
+                final ResponseAPDU response = cardManager.transmit(apdu);
+                lastTransmitDuration = cardManager.getLastTransmitTimeNano();
+                return response;
+            }
+
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            final long gcCount = getCollectionCount();
+            final long start = threadMXBean.getCurrentThreadCpuTime();
+            final ResponseAPDU response = cardManager.getChannel().transmit(apdu);
+            lastTransmitDuration = threadMXBean.getCurrentThreadCpuTime() - start;
+            gcOverlapped = getCollectionCount() != gcCount;
+            return response;
+        }
+
+        /**
+         * Dispatches the given encoded APDU directly to the simulator and stores the duration of its processing
+         * into {@link #lastTransmitDuration}.  Only the {@link Simulator#transmitCommand(byte[])} call that
+         * processes the APDU by the applet is timed.
+         *
+         * @param  command encoded APDU to be dispatched
+         * @return         a {@link ResponseAPDU} instance
+         */
+        private ResponseAPDU transmit(final byte[] command) {
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            final long gcCount = cpuTime ? getCollectionCount() : 0;
+            final long start = cpuTime ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+            final byte[] response = simulator.transmitCommand(command);
+            lastTransmitDuration = (cpuTime ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime()) - start;
+            gcOverlapped = cpuTime && getCollectionCount() != gcCount;
+            return new ResponseAPDU(response);
+        }
+
+        /**
+         * Returns the total number of garbage collections since the start of the JVM.
+         *
+         * @return number of collections of all collectors that report it
+         */
+        private long getCollectionCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+        }
+
+        /**
+         * Executes the given trigger APDU with given performance trap set.  In the fused variant,
+         * the trap ID is sent in the P1 and P2 bytes and the original header is restored on the card,
+         * otherwise the trap is set by a separate APDU if necessary.
+         *
+         * @param  triggerAPDU APDU to reach the selected fatal trap
+         * @param  trapID      performance trap ID to be set
+         * @return             a {@link ResponseAPDU} instance
+         *
+         * @throws CardException    if the card connection failed
+         * @throws RuntimeException if setting the next fatal performance trap failed
+         */
+        private ResponseAPDU transmitWithTrap(final CommandAPDU triggerAPDU, final short trapID) throws CardException {
+            if (!fusedApdu) {
+                setTrap(trapID);
+                return transmit(triggerAPDU);
+            }
+
+            armedTrap = trapID;
+            if (simulator != null) {
+                final byte[] fusedCommand = fusedCommands.computeIfAbsent(triggerAPDU,
+                        a -> getFusedAPDU(a, (short) 0).getBytes());
+                fusedCommand[ISO7816.OFFSET_P1] = (byte) (trapID >> 8);
+                fusedCommand[ISO7816.OFFSET_P2] = (byte) trapID;
+                return transmit(fusedCommand);
+            }
+
+            return transmit(getFusedAPDU(triggerAPDU, trapID));
+        }
+
+        /**
+         * Returns the trigger APDU sent to the INS_PERF_HANDLER with the trap ID in the P1 and P2 bytes.
+         * The data and the maximal expected response length of the trigger APDU are kept.
+         *
+         * @param  triggerAPDU APDU to reach the selected fatal trap
+         * @param  trapID      performance trap ID to be set
+         * @return             a {@link CommandAPDU} instance
+         */
+        private CommandAPDU getFusedAPDU(final CommandAPDU triggerAPDU, final short trapID) {
+            final int p1 = (trapID >> 8) & 0xFF;
+            final int p2 = trapID & 0xFF;
+            if (triggerAPDU.getNe() > 0)
+                return new CommandAPDU(triggerAPDU.getCLA(), JCProfilerUtil.INS_PERF_HANDLER, p1, p2,
+                                       triggerAPDU.getData(), triggerAPDU.getNe());
+            return new CommandAPDU(triggerAPDU.getCLA(), JCProfilerUtil.INS_PERF_HANDLER, p1, p2,
+                                   triggerAPDU.getData());
+        }
+
+        /**
+         * Executes the given APDU once with the coverage bitmap enabled and reads the bitmap back.
+         *
+         * @param  triggerAPDU  APDU to be executed
+         * @param  bitmapLength length of the coverage bitmap in bytes
+         * @return              set of reached trap IDs relative to {@link #PERF_START}
+         *
+         * @throws CardException    if the card connection failed
+         * @throws RuntimeException if a coverage command failed
+         */
+        private BitSet measureCoverage(final CommandAPDU triggerAPDU, final int bitmapLength) throws CardException {
+            sendCoverageCommand(COVERAGE_START, bitmapLength);
+            armedTrap = PERF_START;
+
+            final ResponseAPDU response = cardManager.transmit(triggerAPDU);
+            log.debug("Coverage of {} computed with SW {}.", Util.bytesToHex(triggerAPDU.getBytes()),
+                    Integer.toHexString(response.getSW()));
+            resetApplet(cardManager);
+
+            // the bitmap may not fit into a single response
+            final byte[] bitmap = new byte[bitmapLength];
+            int offset = 0;
+            while (offset < bitmapLength) {
+                final byte[] chunk = sendCoverageCommand(COVERAGE_READ, offset);
+                if (chunk.length == 0)
+                    throw new RuntimeException("Reading the coverage bitmap returned no data!");
+
+                System.arraycopy(chunk, 0, bitmap, offset, Math.min(chunk.length, bitmapLength - offset));
+                offset += chunk.length;
+            }
+
+            return BitSet.valueOf(bitmap);
+        }
+
+        /**
+         * Sends a coverage command to the INS_PERF_HANDLER.
+         *
+         * @param  command  coverage command
+         * @param  argument short argument of the command
+         * @return          response data
+         *
+         * @throws CardException    if the card connection failed
+         * @throws RuntimeException if the command failed
+         */
+        private byte[] sendCoverageCommand(final byte command, final int argument) throws CardException {
+            final byte[] data = ArrayUtils.addAll(Util.shortToByteArray(COVERAGE), command);
+            final CommandAPDU coverageAPDU = new CommandAPDU(args.cla, JCProfilerUtil.INS_PERF_HANDLER, 0, 0,
+                    ArrayUtils.addAll(data, Util.shortToByteArray(argument)), 256);
+
+            final ResponseAPDU response = cardManager.transmit(coverageAPDU);
+            if (response.getSW() != JCProfilerUtil.SW_NO_ERROR)
+                throw new RuntimeException("Coverage command failed with SW " + Integer.toHexString(response.getSW()));
+            return response.getData();
+        }
+
+        /**
+         * Executes the given APDU with given performance trap set and returns the transmit duration.
+         * Samples overlapped by a garbage collection are measured again at most {@link #MAX_GC_RETRIES} times.
+         *
+         * @param  triggerAPDU APDU to reach the selected fatal trap
+         * @param  trapID      performance trap ID to be measured
+         * @return             transmit duration in nanoseconds or null if the trap was not reached
+         *
+         * @throws CardException    if the card connection failed
+         * @throws RuntimeException if setting the next fatal performance trap failed
+         */
+        private Long measureTrap(final CommandAPDU triggerAPDU, final short trapID) throws CardException {
+            // skip traps that are not covered by the input
+            final String trapName = getTrapName(trapID);
+            if (!isReachable(triggerAPDU, trapID)) {
+                synchronized (unreachedTraps) {
+                    unreachedTraps.add(trapName);
+                }
+                log.debug("Duration: unreachable (not covered)");
+                return null;
+            }
+
+            // set performance trap and execute target operation
+            ResponseAPDU response = transmitWithTrap(triggerAPDU, trapID);
+            for (int retry = 1; gcOverlapped && retry <= MAX_GC_RETRIES; retry++) {
+                gcRejectedSamples.incrementAndGet();
+                log.debug("Garbage collection overlapped {}, measuring again.", trapName);
+                resetApplet(cardManager);
+                response = transmitWithTrap(triggerAPDU, trapID);
+            }
+            if (gcOverlapped)
+                log.warn("Garbage collection overlapped {} in {} consecutive attempts, keeping the last sample.",
+                        trapName, MAX_GC_RETRIES + 1);
+
+            // SW should be equal to the trap ID
+            final int SW = response.getSW();
+            if (SW != Short.toUnsignedInt(trapID)) {
+                // unknown SW returned
+                if (SW != JCProfilerUtil.SW_NO_ERROR)
+                    throw new RuntimeException(String.format(
+                            "Unexpected SW received when profiling trap %s: %s", trapName, Integer.toHexString(SW)));
+
+                // we have not reached expected performance trap
+                synchronized (unreachedTraps) {
+                    unreachedTraps.add(trapName);
+                }
+                log.debug("Duration: unreachable");
+                return null;
+            }
+
+            final long transmitDuration = lastTransmitDuration;
+            log.debug("Transmit duration: {} ns", transmitDuration);
+
+            // free memory after command
+            resetApplet(cardManager);
+            return transmitDuration;
         }
     }
 }
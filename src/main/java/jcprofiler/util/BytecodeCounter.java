@@ -0,0 +1,114 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts bytecodes and JavaCard API invocations executed by the applet in the simulator.  The calls
+ * of its public methods are inserted into the applet classes by
+ * {@link jcprofiler.installation.BytecodeCountingClassLoader}.  Everything counted since the previous
+ * enabled trap is attributed to the next reached one.
+ * <br>
+ * The simulator executes the applet in the thread that transmits the APDUs, so the counter is not thread-safe.
+ */
+public final class BytecodeCounter {
+    // range of trap IDs that are counted, all traps are enabled by default
+    private static short firstEnabledTrap = 2;
+    private static short lastEnabledTrap = Short.MAX_VALUE;
+
+    // counted since the previous enabled trap
+    private static long pendingBytecodes;
+    private static final Map<String, Long> pendingApiCalls = new TreeMap<>();
+
+    // counted for each trap ID
+    private static final Map<Short, Long> bytecodes = new HashMap<>();
+    private static final Map<Short, Map<String, Long>> apiCalls = new HashMap<>();
+
+    // static class
+    private BytecodeCounter() {}
+
+    /**
+     * Counts executed bytecodes.
+     *
+     * @param bytecodeCount number of bytecodes in the executed basic block
+     */
+    public static void count(final int bytecodeCount) {
+        pendingBytecodes += bytecodeCount;
+    }
+
+    /**
+     * Counts a JavaCard API invocation.
+     *
+     * @param api qualified name of the invoked method
+     */
+    public static void api(final String api) {
+        pendingApiCalls.merge(api, 1L, Long::sum);
+    }
+
+    /**
+     * Attributes everything counted since the previous enabled trap to the given one.
+     * Traps outside the enabled range are ignored.
+     *
+     * @param trapID ID of the reached trap
+     */
+    public static void trap(final short trapID) {
+        if (trapID < firstEnabledTrap || trapID > lastEnabledTrap)
+            return;
+
+        bytecodes.merge(trapID, pendingBytecodes, Long::sum);
+        final Map<String, Long> trapApiCalls = apiCalls.computeIfAbsent(trapID, k -> new TreeMap<>());
+        pendingApiCalls.forEach((k, v) -> trapApiCalls.merge(k, v, Long::sum));
+
+        pendingBytecodes = 0;
+        pendingApiCalls.clear();
+    }
+
+    /**
+     * Sets the range of counted traps, so that traps of other executables instrumented in the same CAP file
+     * do not split the segments of the profiled one.
+     *
+     * @param first ID of the first enabled trap
+     * @param last  ID of the last enabled trap
+     */
+    public static void enableTraps(final short first, final short last) {
+        firstEnabledTrap = first;
+        lastEnabledTrap = last;
+    }
+
+    /**
+     * Discards everything counted so far.
+     */
+    public static void reset() {
+        pendingBytecodes = 0;
+        pendingApiCalls.clear();
+        bytecodes.clear();
+        apiCalls.clear();
+    }
+
+    /**
+     * Returns the number of bytecodes executed before the given trap since the previous one.
+     * Bytecodes of all hits of the trap are summed.
+     *
+     * @param  trapID trap ID
+     * @return        number of bytecodes or zero if the trap was not reached
+     */
+    public static long getBytecodes(final short trapID) {
+        return bytecodes.getOrDefault(trapID, 0L);
+    }
+
+    /**
+     * Returns the number of JavaCard API invocations executed before the given trap since the previous one.
+     * Invocations of all hits of the trap are summed.
+     *
+     * @param  trapID trap ID
+     * @return        unmodifiable map between qualified names of the invoked methods and invocation counts
+     */
+    public static Map<String, Long> getApiCalls(final short trapID) {
+        return Collections.unmodifiableMap(apiCalls.getOrDefault(trapID, Collections.emptyMap()));
+    }
+}
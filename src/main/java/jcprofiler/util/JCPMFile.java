@@ -0,0 +1,383 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary columnar measurement file ({@code measurements.jcpm}).
+ * <p>
+ * All numbers are little-endian.  The file consists of
+ * <ol>
+ *     <li>the magic {@code JCPM} and a 32-bit version,</li>
+ *     <li>the header values and the inputs, each stored as a 32-bit count followed by strings
+ *         (32-bit length followed by UTF-8 bytes),</li>
+ *     <li>one column of 64-bit values per trap aligned to eight bytes,
+ *         where {@link #UNREACHABLE} denotes an unreachable trap and {@link #NOT_MEASURED} a round
+ *         the trap was not measured in,</li>
+ *     <li>the trap table with a 32-bit count followed by the trap name, 64-bit column offset
+ *         and 32-bit column length of each trap,</li>
+ *     <li>the 64-bit offset of the trap table.</li>
+ * </ol>
+ * Columns are memory-mapped on load, so no value is parsed unless it is accessed.
+ */
+public class JCPMFile {
+    /**
+     * Value stored for traps that were not reached
+     */
+    public static final long UNREACHABLE = Long.MIN_VALUE;
+    /**
+     * Value stored for traps that were not measured in given round
+     */
+    public static final long NOT_MEASURED = Long.MIN_VALUE + 1;
+
+    private static final byte[] MAGIC = "JCPM".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final List<String> header;
+    private final List<String> inputs;
+    private final Map<String, LongBuffer> columns;
+
+    /**
+     * Constructs the {@link JCPMFile} class.
+     *
+     * @param header  header values
+     * @param inputs  list of inputs
+     * @param columns map between trap names and their columns
+     */
+    private JCPMFile(final List<String> header, final List<String> inputs, final Map<String, LongBuffer> columns) {
+        this.header = header;
+        this.inputs = inputs;
+        this.columns = columns;
+    }
+
+    /**
+     * Loads the given measurement file.
+     *
+     * @param  file path to the measurement file
+     * @return      a {@link JCPMFile} instance
+     *
+     * @throws IOException      if the file could not be read
+     * @throws RuntimeException if the file is not a valid measurement file
+     */
+    public static JCPMFile read(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < MAGIC.length + Integer.BYTES + Long.BYTES)
+                throw new RuntimeException(file + " is not a valid measurement file!");
+
+            final ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            final byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new RuntimeException(file + " is not a valid measurement file!");
+
+            final int version = head.getInt();
+            if (version != VERSION)
+                throw new RuntimeException(String.format("Unsupported version %d of %s!", version, file));
+
+            final List<String> header = readStrings(head);
+            final List<String> inputs = readStrings(head);
+
+            // read the trap table
+            final ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - Long.BYTES, Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            final long tableOffset = footer.getLong();
+            final ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, size - tableOffset)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            // use LinkedHashMap to preserve insertion order
+            final Map<String, LongBuffer> columns = new LinkedHashMap<>();
+            final int trapCount = table.getInt();
+            for (int i = 0; i < trapCount; i++) {
+                final String trapName = readString(table);
+                final long offset = table.getLong();
+                final int length = table.getInt();
+                columns.put(trapName, channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) length * Long.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+            }
+
+            return new JCPMFile(header, inputs, columns);
+        }
+    }
+
+    /**
+     * Returns the header values.
+     *
+     * @return list of header values
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the inputs.
+     *
+     * @return list of inputs
+     */
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Returns the names of all traps in insertion order.
+     *
+     * @return set of trap names
+     */
+    public Set<String> getTrapNames() {
+        return columns.keySet();
+    }
+
+    /**
+     * Returns a read-only list view of the column of the given trap.  Unreachable and not measured values
+     * are null.
+     *
+     * @param  trapName name of the performance trap
+     * @return          list of values
+     */
+    public List<Long> getColumn(final String trapName) {
+        final LongBuffer column = columns.get(trapName);
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(final int index) {
+                final long value = column.get(index);
+                return value == UNREACHABLE || value == NOT_MEASURED ? null : value;
+            }
+
+            @Override
+            public int size() {
+                return column.limit();
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the column of the given trap including the {@link #UNREACHABLE} and
+     * {@link #NOT_MEASURED} values.
+     *
+     * @param  trapName name of the performance trap
+     * @return          array of values
+     */
+    public long[] getRawColumn(final String trapName) {
+        final LongBuffer column = columns.get(trapName).duplicate();
+        final long[] values = new long[column.limit()];
+        column.get(values);
+        return values;
+    }
+
+    /**
+     * Returns the rounds the given trap was not measured in.
+     *
+     * @param  trapName name of the performance trap
+     * @return          bitset of rounds indexed from zero
+     */
+    public BitSet getNotMeasured(final String trapName) {
+        final LongBuffer column = columns.get(trapName);
+        final BitSet notMeasured = new BitSet(column.limit());
+        for (int i = 0; i < column.limit(); i++)
+            if (column.get(i) == NOT_MEASURED)
+                notMeasured.set(i);
+        return notMeasured;
+    }
+
+    /**
+     * Reads a list of strings prefixed by its size.
+     *
+     * @param  buffer input buffer
+     * @return        list of strings
+     */
+    private static List<String> readStrings(final ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        final List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            strings.add(readString(buffer));
+        return strings;
+    }
+
+    /**
+     * Reads a UTF-8 string prefixed by its length in bytes.
+     *
+     * @param  buffer input buffer
+     * @return        string
+     */
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a measurement file column by column.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final List<String> trapNames = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+
+        private long position;
+
+        /**
+         * Creates the given file and writes the header values and inputs.
+         *
+         * @param  file   path to the measurement file
+         * @param  header header values
+         * @param  inputs list of inputs
+         *
+         * @throws IOException if the file could not be written
+         */
+        public Writer(final Path file, final List<String> header, final List<String> inputs) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            put(MAGIC);
+            putInt(VERSION);
+            putStrings(header);
+            putStrings(inputs);
+        }
+
+        /**
+         * Appends a column of the given trap.
+         *
+         * @param  trapName name of the performance trap
+         * @param  values   array of values, use {@link #UNREACHABLE} for missing values
+         *
+         * @throws IOException if the file could not be written
+         */
+        public void writeColumn(final String trapName, final long[] values) throws IOException {
+            // align the column
+            while (position % Long.BYTES != 0)
+                put(new byte[]{0});
+
+            trapNames.add(trapName);
+            offsets.add(position);
+            lengths.add(values.length);
+
+            for (final long value : values) {
+                ensureCapacity(Long.BYTES);
+                buffer.putLong(value);
+                position += Long.BYTES;
+            }
+        }
+
+        /**
+         * Writes the trap table and closes the file.
+         *
+         * @throws IOException if the file could not be written
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                final long tableOffset = position;
+                putInt(trapNames.size());
+                for (int i = 0; i < trapNames.size(); i++) {
+                    putString(trapNames.get(i));
+                    ensureCapacity(Long.BYTES);
+                    buffer.putLong(offsets.get(i));
+                    position += Long.BYTES;
+                    putInt(lengths.get(i));
+                }
+
+                ensureCapacity(Long.BYTES);
+                buffer.putLong(tableOffset);
+                position += Long.BYTES;
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * Writes a list of strings prefixed by its size.
+         *
+         * @param  strings list of strings
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void putStrings(final List<String> strings) throws IOException {
+            putInt(strings.size());
+            for (final String s : strings)
+                putString(s);
+        }
+
+        /**
+         * Writes a UTF-8 string prefixed by its length in bytes.
+         *
+         * @param  s string
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void putString(final String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            put(bytes);
+        }
+
+        /**
+         * Writes a 32-bit integer.
+         *
+         * @param  value integer value
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void putInt(final int value) throws IOException {
+            ensureCapacity(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        /**
+         * Writes an array of bytes.
+         *
+         * @param  bytes byte array
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void put(final byte[] bytes) throws IOException {
+            for (int offset = 0; offset < bytes.length; ) {
+                ensureCapacity(1);
+                final int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+                position += length;
+            }
+        }
+
+        /**
+         * Flushes the buffer unless it can hold given number of bytes.
+         *
+         * @param  bytes number of bytes
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void ensureCapacity(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        /**
+         * Writes the content of the buffer to the file.
+         *
+         * @throws IOException if the file could not be written
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
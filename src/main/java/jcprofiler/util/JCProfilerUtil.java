@@ -26,10 +26,15 @@ import spoon.reflect.reference.CtTypeReference;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -73,6 +78,10 @@ public class JCProfilerUtil {
      * Default directory name for original sources
      */
     public static final String SRC_IN_DIRNAME     = "sources_original";
+    /**
+     * Default directory name for measurements of forked JVMs
+     */
+    public static final String FORKS_DIRNAME      = "forks";
 
 
     /**
@@ -84,6 +93,40 @@ public class JCProfilerUtil {
      */
     public static final String APPLET_AID = PACKAGE_AID + "01";
 
+    /**
+     * Marker interface of applets that accept extended length APDUs
+     */
+    public static final String EXTENDED_LENGTH_INTERFACE = "javacardx.apdu.ExtendedLength";
+    /**
+     * Prefix of the measurement series recorded during warm-up rounds
+     */
+    public static final String WARMUP_PREFIX = "warmup:";
+    /**
+     * Prefix of the measurement series recorded during memory leak detection
+     */
+    public static final String LEAK_PREFIX = "leak:";
+    /**
+     * Prefix of the measurement series with bytecodes counted in the simulator
+     */
+    public static final String BYTECODE_PREFIX = "bytecodes:";
+    /**
+     * Prefix of the measurement series with mean values measured in individual forked JVMs
+     */
+    public static final String FORK_PREFIX = "fork:";
+    /**
+     * Value stored in the CSV files for traps that were not measured in given round
+     */
+    public static final String NOT_MEASURED = "-";
+    /**
+     * Index of the elapsed time in the header of the measurement files
+     */
+    public static final int HEADER_ELAPSED_TIME = 3;
+    /**
+     * Number of mandatory values in the header of the measurement files, optional {@code name:value} fields
+     * follow them
+     */
+    public static final int HEADER_MANDATORY_LENGTH = 7;
+
 
     private static final Logger log = LoggerFactory.getLogger(JCProfilerUtil.class);
 
@@ -236,6 +279,19 @@ public class JCProfilerUtil {
         return false;
     }
 
+    /**
+     * Detects whether the entry point implements the {@code javacardx.apdu.ExtendedLength} interface,
+     * i.e. whether it may receive extended length APDUs.
+     *
+     * @param  model      Spoon model
+     * @param  entryPoint name of the entry point class, if empty, try to detect entry point instead.
+     * @return            true if yes, otherwise false
+     */
+    public static boolean entryPointSupportsExtendedLength(final CtModel model, final String entryPoint) {
+        final CtClass<?> cls = getEntryPoint(model, entryPoint);
+        return cls.isSubtypeOf(cls.getFactory().Type().createReference(EXTENDED_LENGTH_INTERFACE));
+    }
+
     /**
      * Returns a top-level type with given name that should already exist at the time of this call.
      *
@@ -404,6 +460,45 @@ public class JCProfilerUtil {
         return executable;
     }
 
+    /**
+     * Checks whether the given value of the {@code --executable} or {@code --executables} option denotes
+     * the executable with the given full signature.  The value may be the full signature, or omit the type
+     * or the argument list, and may contain the '*' and '?' wildcards.
+     *
+     * @param  signature      full signature in the 'type#name(args)' format
+     * @param  executableName value of the option
+     * @return                true if yes, otherwise false
+     */
+    public static boolean matchesExecutable(final String signature, final String executableName) {
+        final String[] expected = signature.split("#", 2);
+        final String[] split = executableName.split("#");
+        final String member = split[split.length - 1];
+
+        final String expectedMember = member.contains("(") ? expected[1]
+                                                           : expected[1].substring(0, expected[1].indexOf('('));
+        return globToRegex(member).matcher(expectedMember).matches() &&
+                (split.length == 1 || globToRegex(split[0]).matcher(expected[0]).matches());
+    }
+
+    /**
+     * Converts a pattern with the '*' and '?' wildcards to a regular expression.
+     *
+     * @param  glob pattern with wildcards
+     * @return      compiled regular expression
+     */
+    private static Pattern globToRegex(final String glob) {
+        final StringBuilder sb = new StringBuilder();
+        for (final char c : glob.toCharArray()) {
+            if (c == '*')
+                sb.append(".*");
+            else if (c == '?')
+                sb.append('.');
+            else
+                sb.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(sb.toString());
+    }
+
 
     // trap mangling
 
@@ -496,6 +591,16 @@ public class JCProfilerUtil {
         return workDirPath.resolve(SRC_IN_DIRNAME);
     }
 
+    /**
+     * Return a path to directory name for measurements of forked JVMs.
+     *
+     * @param  workDirPath path to the working directory
+     * @return             {@link Path} object pointing to a directory name for measurements of forked JVMs
+     */
+    public static Path getForksDirectory(final Path workDirPath) {
+        return workDirPath.resolve(FORKS_DIRNAME);
+    }
+
     /**
      * Checks that the given file exists.
      *
@@ -594,6 +699,47 @@ public class JCProfilerUtil {
         }
     }
 
+    /**
+     * Computes a SHA-256 hash of the contents of the given file.
+     *
+     * @param  file path to a file
+     * @return      hexadecimal hash or an empty string if the file does not exist
+     */
+    public static String hashFile(final Path file) {
+        if (!Files.isRegularFile(file))
+            return "";
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return String.format("%064x", new BigInteger(1, digest.digest(Files.readAllBytes(file))));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Computes a SHA-256 hash of relative paths and contents of all regular files in the given directory.
+     *
+     * @param  dir path to a directory
+     * @return     hexadecimal hash or an empty string if the directory does not exist
+     */
+    public static String hashDirectory(final Path dir) {
+        if (!Files.isDirectory(dir))
+            return "";
+
+        try (Stream<Path> s = Files.walk(dir)) {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (final Path file : s.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                digest.update(dir.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(file));
+            }
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 
     // CSV
 
@@ -609,6 +755,22 @@ public class JCProfilerUtil {
                 .build();
     }
 
+    /**
+     * Parses the optional {@code name:value} fields following the mandatory values in the header
+     * of the measurement files.
+     *
+     * @param  header list of header values
+     * @return        map between names and values of the optional fields in the header order
+     */
+    public static Map<String, String> parseOptionalHeaderFields(final List<String> header) {
+        final Map<String, String> fields = new LinkedHashMap<>();
+        for (final String field : header.subList(HEADER_MANDATORY_LENGTH, header.size())) {
+            final String[] nameValue = field.split(":", 2);
+            fields.put(nameValue[0], nameValue.length > 1 ? nameValue[1] : "");
+        }
+        return fields;
+    }
+
 
     // String utils
 
@@ -634,6 +796,16 @@ public class JCProfilerUtil {
         return new BigInteger(/* positive */ '+' + str, 16).bitCount();
     }
 
+    /**
+     * Returns the simple name of a class or a package with given fully qualified name.
+     *
+     * @param  qualifiedName fully qualified name
+     * @return               the part after the last dot
+     */
+    public static String getSimpleName(final String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+
 
     // Spoon helper methods
 
@@ -0,0 +1,68 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+import java.util.List;
+
+/**
+ * Trend of free memory at a single trap over repeated executions of the profiled executable.
+ */
+public class MemoryTrend {
+    private final double slope;
+    private final boolean decreasing;
+
+    /**
+     * Fits a linear trend to the given series of free memory measurements.
+     *
+     * @param values free memory in each iteration where null corresponds to an unreachable trap
+     */
+    public MemoryTrend(final List<? extends Number> values) {
+        final SimpleRegression regression = new SimpleRegression();
+        for (int i = 0; i < values.size(); i++) {
+            final Number value = values.get(i);
+            if (value != null)
+                regression.addData(i + 1, value.doubleValue());
+        }
+
+        slope = regression.getN() > 1 ? regression.getSlope() : 0.0;
+        decreasing = isStrictlyDecreasing(values);
+    }
+
+    /**
+     * Checks whether the series was reached in every iteration and the free memory decreased in each of them.
+     *
+     * @param  values free memory in each iteration where null corresponds to an unreachable trap
+     * @return        true if yes, otherwise false
+     */
+    private static boolean isStrictlyDecreasing(final List<? extends Number> values) {
+        if (values.size() < 2 || values.contains(null))
+            return false;
+
+        for (int i = 1; i < values.size(); i++)
+            if (values.get(i).longValue() >= values.get(i - 1).longValue())
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the slope of the fitted trend.
+     *
+     * @return change of free memory in bytes per iteration
+     */
+    public double getSlope() {
+        return slope;
+    }
+
+    /**
+     * Returns whether the free memory decreased monotonically across all iterations, i.e. whether
+     * the trap indicates a memory leak.
+     *
+     * @return true if yes, otherwise false
+     */
+    public boolean isDecreasing() {
+        return decreasing;
+    }
+}
@@ -0,0 +1,181 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import jcprofiler.args.Args;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spoon.Launcher;
+import spoon.compiler.ModelBuildingException;
+import spoon.compiler.SpoonResource;
+import spoon.reflect.CtModel;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Builds Spoon models of the input and instrumented sources at most once per run and shares them
+ * between all stages.  The trap manifest of validated instrumented sources is kept in the work
+ * directory, so that restarted runs do not build the model of unchanged sources at all.
+ */
+public class SpoonModelService {
+    private final Args args;
+
+    private Launcher sourceSpoon;
+    private CtModel instrumentedModel;
+    private String instrumentedKey;
+
+    /**
+     * Name of the trap manifest property with the key of the instrumented sources
+     */
+    private static final String CACHE_KEY = "cacheKey";
+
+    private static final Logger log = LoggerFactory.getLogger(SpoonModelService.class);
+
+    /**
+     * Constructs the {@link SpoonModelService} class.
+     *
+     * @param args object with commandline arguments
+     */
+    public SpoonModelService(final Args args) {
+        this.args = args;
+    }
+
+    /**
+     * Returns the Spoon instance with the model of the {@link JCProfilerUtil#SRC_IN_DIRNAME} directory.
+     * The model is built on the first call.  The instrumentation modifies the model in place.
+     *
+     * @return a {@link Launcher} instance with a built model
+     *
+     * @throws ModelBuildingException if the model could not be successfully built
+     * @throws RuntimeException       if the import resolution failed
+     */
+    public Launcher getSourceSpoon() {
+        if (sourceSpoon != null)
+            return sourceSpoon;
+
+        final Launcher spoon = new Launcher();
+        JCProfilerUtil.setupSpoon(spoon, args);
+        spoon.addInputResource(JCProfilerUtil.getSourceInputDirectory(args.workDir).toString());
+
+        log.debug("Building Spoon model.");
+        try {
+            spoon.buildModel();
+        } catch (ModelBuildingException e) {
+            if (!e.getMessage().matches(".* cannot be resolved (to a type )?at .*"))
+                throw e;
+
+            throw new RuntimeException(
+                    "Import resolution failed! Use the --jar option to add the corresponding JAR file with imports.",
+                    e);
+        }
+
+        sourceSpoon = spoon;
+        return sourceSpoon;
+    }
+
+    /**
+     * Adds the given sources to the already built model of the input sources.  Only the given
+     * sources are parsed, so they must not depend on the types of the input sources.
+     *
+     * @param  resources list of sources to be added
+     *
+     * @throws ModelBuildingException if the sources could not be successfully built
+     */
+    public void addToSourceModel(final List<SpoonResource> resources) {
+        final Launcher spoon = getSourceSpoon();
+        log.debug("Adding {} to Spoon model.", resources);
+        spoon.createCompiler(spoon.getFactory(), resources).build();
+    }
+
+    /**
+     * Returns the model of the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory.  The model is rebuilt
+     * only if the instrumented sources or their dependencies changed since the last call.
+     *
+     * @return a {@link CtModel} instance of the instrumented sources
+     */
+    public CtModel getInstrumentedModel() {
+        return getInstrumentedModel(getInstrumentedKey());
+    }
+
+    /**
+     * Returns the model of the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory.
+     *
+     * @param  key current key of the instrumented sources
+     * @return     a {@link CtModel} instance of the instrumented sources
+     */
+    private CtModel getInstrumentedModel(final String key) {
+        if (instrumentedModel != null && key.equals(instrumentedKey)) {
+            log.debug("Reusing Spoon model of the instrumented sources.");
+            return instrumentedModel;
+        }
+
+        instrumentedModel = JCProfilerUtil.getInstrumentedSpoon(args).getModel();
+        instrumentedKey = key;
+        return instrumentedModel;
+    }
+
+    /**
+     * Returns the trap manifest of the instrumented sources.  The manifest stored in the work directory
+     * is reused if it was created for the same instrumented sources, JavaCard SDK and {@code --jar} files.
+     * Otherwise, the instrumented sources are validated by building their model and a new manifest is stored.
+     *
+     * @return a {@link TrapManifest} instance
+     */
+    public TrapManifest getManifest() {
+        final Path manifestPath = args.workDir.resolve(TrapManifest.FILENAME);
+        final String key = getInstrumentedKey();
+        if (Files.exists(manifestPath)) {
+            TrapManifest manifest = null;
+            try {
+                manifest = TrapManifest.read(manifestPath);
+            } catch (RuntimeException e) {
+                log.warn("{} is invalid: {}", manifestPath, e.getMessage());
+            }
+
+            if (manifest != null && key.equals(manifest.getOptionalProperty(CACHE_KEY))) {
+                log.info("Instrumented sources did not change. Skipping the Spoon model build.");
+                return manifest;
+            }
+
+            log.info("{} is outdated.", manifestPath);
+        }
+
+        final TrapManifest manifest = TrapManifest.create(args, getInstrumentedModel(key));
+        manifest.setProperty(CACHE_KEY, key);
+        manifest.write(manifestPath);
+        return manifest;
+    }
+
+    /**
+     * Computes a key of the instrumented sources from the contents of the
+     * {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory, the JavaCard SDK and the {@code --jar} files.
+     *
+     * @return hexadecimal SHA-256 hash
+     */
+    private String getInstrumentedKey() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("sources:").append(JCProfilerUtil.hashDirectory(JCProfilerUtil.getInstrOutputDirectory(args.workDir)))
+                .append(System.lineSeparator());
+        sb.append("sdk:").append(args.jcSDK.getVersion()).append(':').append(args.jcSDK.getRoot().getAbsolutePath())
+                .append(System.lineSeparator());
+        args.jars.stream().map(Path::toAbsolutePath).sorted().forEach(j -> sb.append("jar:").append(j).append(':')
+                .append(JCProfilerUtil.hashFile(j)).append(System.lineSeparator()));
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return String.format("%064x",
+                    new BigInteger(1, digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,615 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.enums.Mode;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spoon.reflect.CtModel;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtTypeAccess;
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.*;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtTypeReference;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Description of the instrumented sources stored in the {@link #FILENAME} file, so that the installation,
+ * profiling and visualisation stages do not have to rebuild the Spoon model.  The sources may be instrumented
+ * for more executables at once, {@link #select(String)} returns the description of the profiled one.
+ * <p>
+ * Every record starts with its kind:
+ * <ul>
+ *     <li>{@code property,name,value} describes the entry point and the capabilities of the generated PM class,</li>
+ *     <li>{@code target,type#signature,constructor,measuredDuringInstallation} describes a single instrumented
+ *         executable,</li>
+ *     <li>{@code trap,name,ID,type#signature,file,line} describes a single trap of the preceding target where
+ *         the file is relative to the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory and the line contains
+ *         its {@code PM.check} call,</li>
+ *     <li>{@code source,line} contains a single line of the pretty-printed preceding target.</li>
+ * </ul>
+ */
+public class TrapManifest {
+    /**
+     * Name of the manifest file in the working directory
+     */
+    public static final String FILENAME = "traps.csv";
+
+    private static final String PROPERTY = "property";
+    private static final String TARGET = "target";
+    private static final String TRAP = "trap";
+    private static final String SOURCE = "source";
+
+    // use LinkedHashMap to preserve insertion order
+    private final Map<String, String> properties = new LinkedHashMap<>();
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(TrapManifest.class);
+
+    // use factory methods
+    private TrapManifest() {}
+
+    /**
+     * Creates the manifest from the Spoon model of the instrumented sources.
+     *
+     * @param  args  object with commandline arguments
+     * @param  model Spoon model of the instrumented sources
+     * @return       a {@link TrapManifest} instance
+     *
+     * @throws RuntimeException if the traps could not be extracted
+     */
+    public static TrapManifest create(final Args args, final CtModel model) {
+        final CtClass<?> entryPoint = JCProfilerUtil.getEntryPoint(model, args.entryPoint);
+        final CtType<?> PMC = JCProfilerUtil.getToplevelType(model, "PMC");
+        final List<String> trapNames = PMC.getFields().stream().map(CtField::getSimpleName)
+                .filter(f -> f.startsWith("TRAP_")).collect(Collectors.toList());
+
+        final TrapManifest manifest = new TrapManifest();
+        manifest.properties.put("mode", args.mode.toString());
+        manifest.properties.put("entryPoint", entryPoint.getQualifiedName());
+        manifest.properties.put("insFields", entryPoint.getAllFields().stream()
+                .map(CtFieldReference::getSimpleName).filter(f -> f.startsWith("INS_PERF_")).distinct()
+                .collect(Collectors.joining(";")));
+        manifest.properties.put("trapCount", String.valueOf(trapNames.size()));
+
+        final CtType<?> PM = JCProfilerUtil.getToplevelType(model, "PM");
+        switch (args.mode) {
+            case memory:
+                manifest.properties.put("valueBytes", String.valueOf(getValueBytes(PM)));
+                manifest.properties.put("combinedResponse", String.valueOf(PM.getField("ALL_MEMORY_TYPES") != null));
+                manifest.properties.put("resettable", String.valueOf(PM.getField("RESET_MEASUREMENTS") != null));
+                manifest.properties.put("enableTraps", String.valueOf(PM.getField("ENABLE_TRAPS") != null));
+                manifest.properties.put("extendedLength", String.valueOf(
+                        JCProfilerUtil.entryPointSupportsExtendedLength(model, args.entryPoint)));
+                break;
+            case time:
+                final CtTypeReference<Boolean> booleanType = PM.getFactory().Type().booleanPrimitiveType();
+                manifest.properties.put("fusedApdu", String.valueOf(
+                        PM.getMethodsByName("set").stream().anyMatch(m -> m.getType().equals(booleanType))));
+                manifest.properties.put("coverage", String.valueOf(PM.getField("coverage") != null));
+                break;
+            case count:
+                manifest.properties.put("enableTraps", String.valueOf(PM.getField("ENABLE_TRAPS") != null));
+                break;
+            case custom:
+                break;
+            default:
+                throw new RuntimeException("Unreachable statement reached!");
+        }
+
+        // the first trap of every instrumented executable has the _1 suffix
+        final List<CtExecutable<?>> executables = model
+                .filterChildren(e -> e instanceof CtMethod || e instanceof CtConstructor)
+                .filterChildren((CtExecutable<?> e) -> e.getBody() != null &&
+                        trapNames.contains(JCProfilerUtil.getTrapNamePrefix(e) + "_1"))
+                .list();
+        if (executables.isEmpty())
+            throw new RuntimeException("Extraction of traps from PMC failed!");
+
+        final CtConstructor<?> entryPointConstructor = JCProfilerUtil.getEntryPointConstructor(model, args.entryPoint);
+        final List<Target> targets = new ArrayList<>();
+        for (final CtExecutable<?> executable : executables) {
+            final String signature = JCProfilerUtil.getFullSignature(executable);
+            log.info("Adding {} to trap manifest.", signature);
+
+            final Target target = new Target(signature, executable instanceof CtConstructor,
+                                             entryPointConstructor.equals(executable));
+            target.addTraps(args, model, executable);
+            target.sourceCode.addAll(Arrays.stream(executable.prettyprint().split(System.lineSeparator()))
+                    .filter(x -> !x.isEmpty()).collect(Collectors.toList()));
+            targets.add(target);
+        }
+
+        // keep the targets in the order of their trap IDs
+        targets.sort(Comparator.comparingInt(t -> t.traps.get(0).getID()));
+        targets.forEach(t -> manifest.targets.put(t.signature, t));
+        return manifest;
+    }
+
+    /**
+     * Gets size of the measurement from the {@link javacard.framework.JCSystem#getAvailableMemory}
+     * static method used in the {@link jcprofiler.PM#check(short)} method in bytes.  JCSDK 3.0.4+
+     * returns an {@link int} and older return a {@link short}.
+     *
+     * @param  PM instance of the PM class
+     * @return    size of the {@link javacard.framework.JCSystem#getAvailableMemory} measurement in bytes
+     *
+     * @throws RuntimeException if the {@link jcprofiler.PM#check(short)} mixes both
+     *                          {@link javacard.framework.JCSystem#getAvailableMemory} overloads
+     */
+    private static int getValueBytes(final CtType<?> PM) {
+        final CtTypeReference<?> shortType = PM.getFactory().Type().shortPrimitiveType();
+
+        // get PM.check(short) method
+        final CtMethod<?> check = PM.getMethod("check", shortType);
+
+        // get all distinct return types of getAvailableMemory calls
+        final List<CtTypeReference<?>> returnTypes = check.getElements(
+                (CtExecutableReference<?> e) -> e.getSimpleName().equals("getAvailableMemory") &&
+                        e.getDeclaringType().getQualifiedName().equals("javacard.framework.JCSystem"))
+                .stream().map(CtExecutableReference::getType).distinct().collect(Collectors.toList());
+        if (returnTypes.size() != 1)
+            throw new RuntimeException("The sources are broken! The PM.check(short) method contains more than one" +
+                    "javacard.framework.JCSystem.getAvailableMemory overload!");
+
+        return returnTypes.get(0).equals(shortType) ? Short.BYTES : Integer.BYTES;
+    }
+
+    /**
+     * Loads the manifest from the given file.
+     *
+     * @param  file path to the manifest file
+     * @return      a {@link TrapManifest} instance
+     *
+     * @throws RuntimeException if the file could not be read or is invalid
+     */
+    public static TrapManifest read(final Path file) {
+        log.info("Loading trap manifest from {}.", file);
+
+        final TrapManifest manifest = new TrapManifest();
+        try (final CSVParser parser = CSVParser.parse(file, Charset.defaultCharset(), JCProfilerUtil.getCSVFormat())) {
+            Target target = null;
+            for (final CSVRecord record : parser) {
+                final String kind = record.get(0);
+                if ((kind.equals(TRAP) || kind.equals(SOURCE)) && target == null)
+                    throw new RuntimeException(String.format(
+                            "Record %s on line %d of %s does not follow any target!", kind,
+                            parser.getCurrentLineNumber(), file));
+
+                switch (kind) {
+                    case PROPERTY:
+                        manifest.properties.put(record.get(1), record.get(2));
+                        break;
+                    case TARGET:
+                        target = new Target(record.get(1), Boolean.parseBoolean(record.get(2)),
+                                            Boolean.parseBoolean(record.get(3)));
+                        manifest.targets.put(target.signature, target);
+                        break;
+                    case TRAP:
+                        target.traps.add(new Trap(record.get(1), Short.parseShort(record.get(2)), record.get(3),
+                                                  record.get(4), Integer.parseInt(record.get(5))));
+                        break;
+                    case SOURCE:
+                        target.sourceCode.add(record.get(1));
+                        break;
+                    default:
+                        throw new RuntimeException(String.format(
+                                "Unknown record %s on line %d of %s!", kind, parser.getCurrentLineNumber(), file));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (manifest.targets.isEmpty())
+            throw new RuntimeException(file + " does not contain any target!");
+        for (final Target target : manifest.targets.values())
+            if (target.traps.isEmpty())
+                throw new RuntimeException(String.format(
+                        "%s does not contain any trap of %s!", file, target.signature));
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest into the given file.
+     *
+     * @param file path to the manifest file
+     */
+    public void write(final Path file) {
+        try (final CSVPrinter printer = new CSVPrinter(new FileWriter(file.toFile()), JCProfilerUtil.getCSVFormat())) {
+            printer.printComment(PROPERTY + ",name,value");
+            for (final Map.Entry<String, String> property : properties.entrySet())
+                printer.printRecord(PROPERTY, property.getKey(), property.getValue());
+
+            for (final Target target : targets.values()) {
+                printer.printComment(TARGET + ",type#signature,constructor,measuredDuringInstallation");
+                printer.printRecord(TARGET, target.signature, target.constructor, target.measuredDuringInstallation);
+
+                printer.printComment(TRAP + ",name,ID,type#signature,file,line");
+                for (final Trap trap : target.traps)
+                    printer.printRecord(TRAP, trap.getName(), trap.getID(), trap.getExecutable(), trap.getFile(),
+                                        trap.getLine());
+
+                printer.printComment(SOURCE + ",line");
+                for (final String line : target.sourceCode)
+                    printer.printRecord(SOURCE, line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        log.info("Trap manifest saved to {}.", file);
+    }
+
+    /**
+     * Returns the manifest restricted to the executable denoted by the given value of the {@code --executable}
+     * option.  The value may be the full signature, or omit the type or the argument list.
+     *
+     * @param  executableName value of the {@code --executable} option, may be null for the entry point
+     *                        constructor
+     * @return                a {@link TrapManifest} instance with a single target
+     *
+     * @throws RuntimeException if the sources were not instrumented for exactly one such executable
+     */
+    public TrapManifest select(final String executableName) {
+        final List<Target> matching = targets.values().stream().filter(t -> t.matches(executableName))
+                .collect(Collectors.toList());
+        if (matching.isEmpty())
+            throw new RuntimeException(String.format(
+                    "The sources were not instrumented for %s! Instrumented executables: %s%n" +
+                    "Please, reinstrument the given sources!",
+                    executableName != null ? executableName : "the entry point constructor", targets.keySet()));
+        if (matching.size() > 1)
+            throw new RuntimeException(String.format(
+                    "More instrumented executables match %s!%n" +
+                    "Please, use one of the following values as an argument to the --executable parameter:%n%s",
+                    executableName, matching.stream().map(t -> t.signature).collect(Collectors.toList())));
+
+        final TrapManifest manifest = new TrapManifest();
+        manifest.properties.putAll(properties);
+        manifest.targets.put(matching.get(0).signature, matching.get(0));
+        return manifest;
+    }
+
+    /**
+     * Returns the only target of the manifest.
+     *
+     * @return the selected target
+     *
+     * @throws RuntimeException if the manifest describes more targets
+     */
+    private Target getTarget() {
+        if (targets.size() != 1)
+            throw new RuntimeException(String.format(
+                    "The trap manifest describes %d executables! Select the profiled one first.", targets.size()));
+        return targets.values().iterator().next();
+    }
+
+    /**
+     * Returns the value of the given property.
+     *
+     * @param  name name of the property
+     * @return      value of the property
+     *
+     * @throws RuntimeException if the manifest does not contain such property
+     */
+    public String getProperty(final String name) {
+        final String value = properties.get(name);
+        if (value == null)
+            throw new RuntimeException(String.format(
+                    "The trap manifest does not contain the %s property! Please, reinstrument the given sources.",
+                    name));
+        return value;
+    }
+
+    /**
+     * Returns the value of the given property if present.
+     *
+     * @param  name name of the property
+     * @return      value of the property or null
+     */
+    String getOptionalProperty(final String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * Sets the value of the given property.
+     *
+     * @param name  name of the property
+     * @param value value of the property
+     */
+    void setProperty(final String name, final String value) {
+        properties.put(name, value);
+    }
+
+    /**
+     * Returns the value of the given boolean property.
+     *
+     * @param  name name of the property
+     * @return      value of the property
+     *
+     * @throws RuntimeException if the manifest does not contain such property
+     */
+    public boolean getBooleanProperty(final String name) {
+        return Boolean.parseBoolean(getProperty(name));
+    }
+
+    /**
+     * Returns the profiling mode the sources were instrumented for.
+     *
+     * @return instrumentation mode
+     */
+    public Mode getMode() {
+        return Mode.valueOf(getProperty("mode"));
+    }
+
+    /**
+     * Returns the full signatures of all instrumented executables in the order of their trap IDs.
+     *
+     * @return list of signatures in the 'type#name(args)' format
+     */
+    public List<String> getExecutables() {
+        return new ArrayList<>(targets.keySet());
+    }
+
+    /**
+     * Returns the full signature of the profiled executable.
+     *
+     * @return signature in the 'type#name(args)' format
+     */
+    public String getExecutable() {
+        return getTarget().signature;
+    }
+
+    /**
+     * Checks whether the profiled executable is a constructor.
+     *
+     * @return true if yes, otherwise false
+     */
+    public boolean isConstructor() {
+        return getTarget().constructor;
+    }
+
+    /**
+     * Checks whether the profiled executable is the entry point constructor called during the applet installation.
+     *
+     * @return true if yes, otherwise false
+     */
+    public boolean isMeasuredDuringInstallation() {
+        return getTarget().measuredDuringInstallation;
+    }
+
+    /**
+     * Returns the total number of traps in the PMC class, i.e. of all instrumented executables.
+     *
+     * @return number of traps
+     */
+    public int getTrapCount() {
+        return Integer.parseInt(getProperty("trapCount"));
+    }
+
+    /**
+     * Returns the qualified name of the entry point class.
+     *
+     * @return entry point class name
+     */
+    public String getEntryPoint() {
+        return getProperty("entryPoint");
+    }
+
+    /**
+     * Checks whether the entry point class or one of its predecessors contain a field with given name.
+     *
+     * @param  field name of the field
+     * @return       true if the name is null or the entry point contains a field with given name,
+     *               false otherwise
+     */
+    public boolean entryPointHasField(final String field) {
+        return field == null || Arrays.asList(getProperty("insFields").split(";")).contains(field);
+    }
+
+    /**
+     * Returns the list of traps of the profiled executable in the order of their IDs.
+     *
+     * @return unmodifiable list of traps
+     */
+    public List<Trap> getTraps() {
+        return Collections.unmodifiableList(getTarget().traps);
+    }
+
+    /**
+     * Returns the pretty-printed source code of the profiled executable without empty lines.
+     *
+     * @return unmodifiable list of source code lines
+     */
+    public List<String> getSourceCode() {
+        return Collections.unmodifiableList(getTarget().sourceCode);
+    }
+
+    /**
+     * Single instrumented executable
+     */
+    private static class Target {
+        private final String signature;
+        private final boolean constructor;
+        private final boolean measuredDuringInstallation;
+        private final List<Trap> traps = new ArrayList<>();
+        private final List<String> sourceCode = new ArrayList<>();
+
+        /**
+         * Constructs the {@link Target} class.
+         *
+         * @param signature                  full signature of the executable
+         * @param constructor                whether the executable is a constructor
+         * @param measuredDuringInstallation whether the executable is the entry point constructor
+         */
+        private Target(final String signature, final boolean constructor, final boolean measuredDuringInstallation) {
+            this.signature = signature;
+            this.constructor = constructor;
+            this.measuredDuringInstallation = measuredDuringInstallation;
+        }
+
+        /**
+         * Checks whether the given value of the {@code --executable} option denotes this executable.
+         *
+         * @param  executableName value of the {@code --executable} option, may be null for the entry point
+         *                        constructor
+         * @return                true if yes, otherwise false
+         */
+        private boolean matches(final String executableName) {
+            return executableName == null ? measuredDuringInstallation
+                                          : JCProfilerUtil.matchesExecutable(signature, executableName);
+        }
+
+        /**
+         * Adds all traps of the given executable in the order of their IDs.  Traps may be called outside
+         * the profiled executable, e.g. around allocation sites in its callees.
+         *
+         * @param  args       object with commandline arguments
+         * @param  model      Spoon model of the instrumented sources
+         * @param  executable profiled executable
+         *
+         * @throws RuntimeException if the traps could not be extracted
+         */
+        private void addTraps(final Args args, final CtModel model, final CtExecutable<?> executable) {
+            final String trapNamePrefix = JCProfilerUtil.getTrapNamePrefix(executable);
+            final Path instrDir = JCProfilerUtil.getInstrOutputDirectory(args.workDir).toAbsolutePath();
+
+            // get all PM.check calls with traps of the profiled executable
+            final CtType<?> PM = JCProfilerUtil.getToplevelType(model, "PM");
+            final Map<String, CtInvocation<?>> calls = new HashMap<>();
+            model.filterChildren((CtInvocation<?> i) -> i.getTarget() instanceof CtTypeAccess &&
+                            PM.getReference().equals(((CtTypeAccess<?>) i.getTarget()).getAccessedType()) &&
+                            i.getExecutable().getSignature().equals("check(short)"))
+                    .forEach((CtInvocation<?> i) -> {
+                        final String trapName = ((CtFieldRead<?>) i.getArguments().get(0)).getVariable()
+                                .getSimpleName();
+                        if (trapName.startsWith(trapNamePrefix))
+                            calls.put(trapName, i);
+                    });
+            if (calls.isEmpty())
+                throw new RuntimeException(String.format("Extraction of traps from %s failed!", signature));
+
+            // get given traps from PMC
+            final CtType<?> PMC = JCProfilerUtil.getToplevelType(model, "PMC");
+            final List<CtField<?>> pmTraps = PMC.getFields().stream()
+                    .filter(f -> f.getSimpleName().startsWith(trapNamePrefix)).collect(Collectors.toList());
+            if (pmTraps.isEmpty())
+                throw new RuntimeException("Extraction of traps from PMC failed!");
+
+            // check that the trap lists are the same
+            if (calls.size() != pmTraps.size() ||
+                    !pmTraps.stream().map(CtField::getSimpleName).allMatch(calls::containsKey))
+                throw new RuntimeException(String.format(
+                        "The profiled method and the PMC class contain different traps!%n" +
+                        "Please, reinstrument the given sources!"));
+
+            for (final CtField<?> field : pmTraps) {
+                // trap IDs are literals unless the sources were instrumented by an older version
+                final CtLiteral<Number> evaluated = field.getDefaultExpression().partiallyEvaluate();
+
+                final CtInvocation<?> call = calls.get(field.getSimpleName());
+                final CtExecutable<?> parent = call.getParent(CtExecutable.class);
+                final SourcePosition position = call.getPosition();
+                traps.add(new Trap(field.getSimpleName(), evaluated.getValue().shortValue(),
+                        parent != null ? JCProfilerUtil.getFullSignature(parent) : signature,
+                        position.isValidPosition()
+                                ? instrDir.relativize(position.getFile().toPath().toAbsolutePath()).toString() : "",
+                        position.isValidPosition() ? position.getLine() : 0));
+            }
+        }
+    }
+
+    /**
+     * Single performance trap
+     */
+    public static class Trap {
+        private final String name;
+        private final short id;
+        private final String executable;
+        private final String file;
+        private final int line;
+
+        /**
+         * Constructs the {@link Trap} class.
+         *
+         * @param name       name of the PMC field
+         * @param id         value of the PMC field
+         * @param executable full signature of the executable containing the trap
+         * @param file       path to the file with the {@code PM.check} call relative to the
+         *                   {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory or empty if unknown
+         * @param line       line with the {@code PM.check} call or zero if unknown
+         */
+        public Trap(final String name, final short id, final String executable, final String file,
+                    final int line) {
+            this.name = name;
+            this.id = id;
+            this.executable = executable;
+            this.file = file;
+            this.line = line;
+        }
+
+        /**
+         * Returns the name of the PMC field.
+         *
+         * @return trap name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the value of the PMC field.
+         *
+         * @return trap ID
+         */
+        public short getID() {
+            return id;
+        }
+
+        /**
+         * Returns the full signature of the executable containing the trap.
+         *
+         * @return signature in the 'type#name(args)' format
+         */
+        public String getExecutable() {
+            return executable;
+        }
+
+        /**
+         * Returns the path to the file with the {@code PM.check} call.
+         *
+         * @return path relative to the {@link JCProfilerUtil#INSTR_OUT_DIRNAME} directory or empty if unknown
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the line with the {@code PM.check} call.
+         *
+         * @return line number or zero if unknown
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+}
@@ -7,6 +7,7 @@ package jcprofiler.util.enums;
  * Enum with possible execution modes
  */
 public enum Mode {
+    count,
     custom,
     memory,
     stats,
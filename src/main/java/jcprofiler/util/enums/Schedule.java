@@ -0,0 +1,31 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util.enums;
+
+/**
+ * Enum with possible measurement schedules
+ */
+public enum Schedule {
+    interleavedRandom,
+    roundMajor,
+    trapMajor;
+
+    /**
+     * Returns a pretty name for given enum value.
+     *
+     * @return a {@link String} with pretty printed name
+     */
+    public String prettyPrint() {
+        switch (this) {
+            case interleavedRandom:
+                return "interleaved-random";
+            case roundMajor:
+                return "round-major";
+            case trapMajor:
+                return "trap-major";
+            default:
+                throw new RuntimeException("Unreachable statement reached!");
+        }
+    }
+}
@@ -0,0 +1,28 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util.enums;
+
+/**
+ * Enum with possible sources of elapsed time measurements
+ */
+public enum TimeSource {
+    cpuTime,
+    wallClock;
+
+    /**
+     * Returns a pretty name for given enum value.
+     *
+     * @return a {@link String} with pretty printed name
+     */
+    public String prettyPrint() {
+        switch (this) {
+            case cpuTime:
+                return "CPU time";
+            case wallClock:
+                return "wall-clock time";
+            default:
+                throw new RuntimeException("Unreachable statement reached!");
+        }
+    }
+}
@@ -4,7 +4,9 @@
 package jcprofiler.visualisation;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.JCPMFile;
 import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
 import jcprofiler.util.enums.InputDivision;
 import jcprofiler.util.enums.Mode;
 import jcprofiler.util.enums.Stage;
@@ -12,6 +14,7 @@ import jcprofiler.visualisation.processors.AbstractInsertMeasurementsProcessor;
 
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
@@ -23,15 +26,13 @@ import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.SpoonAPI;
-import spoon.reflect.CtModel;
-import spoon.reflect.declaration.CtExecutable;
-
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class represents the visualisation stage.
@@ -42,9 +43,9 @@ public abstract class AbstractVisualiser {
      */
     protected final Args args;
     /**
-     * Spoon model
+     * Manifest of the instrumented sources
      */
-    protected final CtModel model;
+    protected final TrapManifest manifest;
 
 
     // CSV header
@@ -77,6 +78,10 @@ public abstract class AbstractVisualiser {
      * Parsed {@link InputDivision}
      */
     protected InputDivision inputDivision;
+    /**
+     * Parsed optional header fields, e.g. the assignment of rounds to individual cards
+     */
+    protected final Map<String, String> optionalHeaderFields = new LinkedHashMap<>();
 
 
     // CSV contents
@@ -93,6 +98,27 @@ public abstract class AbstractVisualiser {
      * Map between traps and measurements
      */
     protected final Map<String, List<Long>> measurements = new LinkedHashMap<>();
+    /**
+     * Map between traps and rounds indexed from zero they were not measured in, their measurements are null
+     * but they are not unreachable.  Traps measured in every round are omitted.
+     */
+    protected final Map<String, BitSet> notMeasured = new LinkedHashMap<>();
+    /**
+     * Map between traps and measurements of the discarded warm-up rounds
+     */
+    protected final Map<String, List<Long>> warmupMeasurements = new LinkedHashMap<>();
+    /**
+     * Map between traps and measurements of the memory leak detection iterations
+     */
+    protected final Map<String, List<Long>> leakMeasurements = new LinkedHashMap<>();
+    /**
+     * Map between traps and bytecodes counted in the simulator
+     */
+    protected final Map<String, List<Long>> bytecodeMeasurements = new LinkedHashMap<>();
+    /**
+     * Map between traps and their mean measurements in individual forked JVMs
+     */
+    protected final Map<String, List<Long>> forkMeasurements = new LinkedHashMap<>();
 
     /**
      * List with source code lines of the profiled executable
@@ -104,41 +130,107 @@ public abstract class AbstractVisualiser {
     /**
      * Constructs the {@link AbstractVisualiser} class.
      *
-     * @param args  object with commandline arguments
-     * @param model Spoon model
+     * @param args     object with commandline arguments
+     * @param manifest manifest of the instrumented sources
      */
-    protected AbstractVisualiser(final Args args, final CtModel model) {
+    protected AbstractVisualiser(final Args args, final TrapManifest manifest) {
         this.args = args;
-        this.model = model;
+        this.manifest = manifest;
     }
 
     /**
      * Factory method
      *
-     * @param  args  object with commandline arguments
-     * @param  model a Spoon model
-     * @return       constructed {@link AbstractVisualiser} object
+     * @param  args     object with commandline arguments
+     * @param  manifest manifest of the instrumented sources
+     * @return          constructed {@link AbstractVisualiser} object
      */
-    public static AbstractVisualiser create(final Args args, final CtModel model) {
+    public static AbstractVisualiser create(final Args args, final TrapManifest manifest) {
         switch (args.mode) {
+            case count:
+                return new CountVisualiser(args, manifest);
             case memory:
-                return new MemoryVisualiser(args, model);
+                return new MemoryVisualiser(args, manifest);
             case time:
-                return new TimeVisualiser(args, model);
+                return new TimeVisualiser(args, manifest);
             default:
                 throw new RuntimeException("Unreachable statement reached!");
         }
     }
 
     /**
-     * Loads and parses the CSV file with measurements and loads the source
+     * Loads the measurements and the source
      * code of the profiled executable.
      */
     public void loadAndProcessMeasurements() {
-        loadCSV();
+        loadMeasurements();
         loadSourceCode();
     }
 
+    /**
+     * Loads the binary measurement file if it exists, otherwise loads and parses the CSV file with measurements.
+     * Measurements of the warm-up rounds, leak detection iterations, bytecode counts and means of forked JVMs
+     * are then separated from the rest.
+     *
+     * @throws UnsupportedOperationException if the measurements were generated for a different mode
+     */
+    private void loadMeasurements() {
+        final Path jcpm = args.workDir.resolve("measurements.jcpm");
+        if (Files.exists(jcpm))
+            loadJCPM(jcpm);
+        else
+            loadCSV();
+
+        separateMeasurements(JCProfilerUtil.WARMUP_PREFIX, warmupMeasurements);
+        separateMeasurements(JCProfilerUtil.LEAK_PREFIX, leakMeasurements);
+        separateMeasurements(JCProfilerUtil.BYTECODE_PREFIX, bytecodeMeasurements);
+        separateMeasurements(JCProfilerUtil.FORK_PREFIX, forkMeasurements);
+    }
+
+    /**
+     * Moves the series whose trap names start with the given prefix to the given map.
+     *
+     * @param prefix prefix of the trap names
+     * @param target map for the separated series with the prefix stripped
+     */
+    private void separateMeasurements(final String prefix, final Map<String, List<Long>> target) {
+        final Iterator<Map.Entry<String, List<Long>>> it = measurements.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, List<Long>> entry = it.next();
+            if (!entry.getKey().startsWith(prefix))
+                continue;
+
+            target.put(entry.getKey().substring(prefix.length()), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Loads the binary measurement file.  The measurements are memory-mapped instead of parsed.
+     *
+     * @param  jcpm path to the binary measurement file
+     *
+     * @throws UnsupportedOperationException if the measurements were generated for a different mode
+     */
+    private void loadJCPM(final Path jcpm) {
+        log.info("Loading measurements from {}.", jcpm);
+
+        try {
+            final JCPMFile file = JCPMFile.read(jcpm);
+            parseHeader(file.getHeader());
+            inputs = file.getInputs();
+            for (final String trapName : file.getTrapNames()) {
+                measurements.put(trapName, file.getColumn(trapName));
+
+                final BitSet skipped = file.getNotMeasured(trapName);
+                if (!skipped.isEmpty())
+                    notMeasured.put(trapName, skipped);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Loads and parses the CSV file with measurements.
      *
@@ -152,18 +244,7 @@ public abstract class AbstractVisualiser {
             final Iterator<CSVRecord> it = parser.iterator();
 
             // parse header
-            final List<String> header = it.next().toList();
-            mode = Mode.valueOf(header.get(0));
-            if (args.mode != mode)
-                throw new UnsupportedOperationException(String.format(
-                        "Visualisation executed in %s mode but CSV was generated in %s mode.", args.mode, mode));
-
-            profiledExecutableSignature = header.get(1);
-            atr = header.get(2);
-            elapsedTime = header.get(3);
-            apduHeader = header.get(4);
-            inputDescription = header.get(5).split(":", 2);
-            inputDivision = InputDivision.valueOf(header.get(6));
+            parseHeader(it.next().toList());
 
             // parse inputs
             inputs = it.next().toList();
@@ -171,22 +252,71 @@ public abstract class AbstractVisualiser {
             // parse measurements
             do {
                 final List<String> line = it.next().toList();
-                final List<Long> values = line.stream().skip(1).map(this::convertValues).collect(Collectors.toList());
+                final List<Long> values = new ArrayList<>(line.size() - 1);
+                final BitSet skipped = new BitSet();
+                for (final String value : line.subList(1, line.size())) {
+                    if (value.equals(JCProfilerUtil.NOT_MEASURED))
+                        skipped.set(values.size());
+                    values.add(skipped.get(values.size()) ? null : convertValues(value));
+                }
+
                 measurements.put(line.get(0), values);
+                if (!skipped.isEmpty())
+                    notMeasured.put(line.get(0), skipped);
             } while (it.hasNext());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Parses the header of the measurement file.
+     *
+     * @param  header list of header values
+     *
+     * @throws UnsupportedOperationException if the measurements were generated for a different mode
+     */
+    private void parseHeader(final List<String> header) {
+        mode = Mode.valueOf(header.get(0));
+        if (args.mode != mode)
+            throw new UnsupportedOperationException(String.format(
+                    "Visualisation executed in %s mode but measurements were generated in %s mode.", args.mode, mode));
+
+        profiledExecutableSignature = header.get(1);
+        atr = header.get(2);
+        elapsedTime = header.get(JCProfilerUtil.HEADER_ELAPSED_TIME);
+        apduHeader = header.get(4);
+        inputDescription = header.get(5).split(":", 2);
+        inputDivision = InputDivision.valueOf(header.get(6));
+        optionalHeaderFields.putAll(JCProfilerUtil.parseOptionalHeaderFields(header));
+    }
+
     /**
      * Loads the source code of the profiled executable.
+     *
+     * @throws RuntimeException if the measurements belong to a different executable than the instrumented one
      */
     private void loadSourceCode() {
-        // get source code, escape it for HTML and strip empty lines
-        final CtExecutable<?> executable = JCProfilerUtil.getProfiledExecutable(model, profiledExecutableSignature);
-        sourceCode = Arrays.stream(StringEscapeUtils.escapeHtml4(executable.prettyprint())
-                .split(System.lineSeparator())).filter(x -> !x.isEmpty()).collect(Collectors.toList());
+        if (!manifest.getExecutable().equals(profiledExecutableSignature))
+            throw new RuntimeException(String.format(
+                    "The measurements belong to %s but the sources were instrumented for %s!",
+                    profiledExecutableSignature, manifest.getExecutable()));
+
+        // escape the stored source code for HTML
+        sourceCode = manifest.getSourceCode().stream().map(StringEscapeUtils::escapeHtml4)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of rounds the given trap was measured in but not reached.
+     *
+     * @param  trapName name of the performance trap
+     * @return          number of unreachable rounds
+     */
+    protected long getUnreachableCount(final String trapName) {
+        final List<Long> values = measurements.get(trapName);
+        final BitSet skipped = notMeasured.getOrDefault(trapName, new BitSet());
+        return IntStream.range(0, values.size()).filter(i -> values.get(i) == null && !skipped.get(i)).count();
     }
 
     /**
@@ -218,12 +348,16 @@ public abstract class AbstractVisualiser {
         final Path outputDir = JCProfilerUtil.getPerfOutputDirectory(args.workDir);
         JCProfilerUtil.recreateDirectory(outputDir);
 
+        final Path instrDir = JCProfilerUtil.checkDirectory(
+                JCProfilerUtil.getInstrOutputDirectory(args.workDir), Stage.instrumentation);
+        try {
+            FileUtils.copyDirectory(instrDir.toFile(), outputDir.toFile());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
         log.info("Inserting measurements into sources.");
-        final SpoonAPI spoon = JCProfilerUtil.getInstrumentedSpoon(args);
-        spoon.setSourceOutputDirectory(outputDir.toFile());
-        spoon.addProcessor(getInsertMeasurementsProcessor());
-        spoon.process();
-        spoon.prettyprint();
+        getInsertMeasurementsProcessor().process(manifest, outputDir);
     }
 
     /**
@@ -262,7 +396,13 @@ public abstract class AbstractVisualiser {
         context.put("inputDivision", inputDivision.prettyPrint());
         context.put("inputs", inputs.stream().map(s -> "'" + s + "'").collect(Collectors.toList()));
         context.put("measurements", measurements);
+        context.put("unreachableCounts", measurements.keySet().stream()
+                .collect(Collectors.toMap(k -> k, this::getUnreachableCount)));
         context.put("mode", args.mode);
+        if (optionalHeaderFields.containsKey("readers"))
+            context.put("readers", Arrays.asList(optionalHeaderFields.get("readers").split(";")));
+        if (optionalHeaderFields.containsKey("warmupRounds"))
+            context.put("warmupRounds", optionalHeaderFields.get("warmupRounds"));
 
         // add mode specific stuff
         prepareVelocityContext(context);
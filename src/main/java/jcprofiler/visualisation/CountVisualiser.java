@@ -0,0 +1,131 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.visualisation;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.TrapManifest;
+import jcprofiler.visualisation.processors.AbstractInsertMeasurementsProcessor;
+import jcprofiler.visualisation.processors.InsertCountMeasurementsProcessor;
+
+import org.apache.velocity.VelocityContext;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Class for visualisation of measurements in count mode
+ */
+public class CountVisualiser extends AbstractVisualiser {
+    // minimal, maximal and mean number of trap hits over all inputs
+    private final Map<String, Long> minMeasurements = new LinkedHashMap<>();
+    private final Map<String, Long> maxMeasurements = new LinkedHashMap<>();
+    private final Map<String, Double> meanMeasurements = new LinkedHashMap<>();
+
+    // minimal, maximal and mean number of bytecodes executed before each trap over all inputs
+    private final Map<String, Long> minBytecodes = new LinkedHashMap<>();
+    private final Map<String, Long> maxBytecodes = new LinkedHashMap<>();
+    private final Map<String, Double> meanBytecodes = new LinkedHashMap<>();
+
+    /**
+     * Constructs the {@link CountVisualiser} class.
+     *
+     * @param args     object with commandline arguments
+     * @param manifest manifest of the instrumented sources
+     */
+    public CountVisualiser(final Args args, final TrapManifest manifest) {
+        super(args, manifest);
+    }
+
+    /**
+     * Loads the measurements, loads the source code of the profiled executable, computes
+     * the statistics of trap hits over all inputs and prepares input data for the heatmap.
+     */
+    @Override
+    public void loadAndProcessMeasurements() {
+        super.loadAndProcessMeasurements();
+        computeStatistics();
+        markUnreachedTraps();
+        prepareHeatmap();
+    }
+
+    /**
+     * Computes the minimal, maximal and mean number of hits and bytecodes of every trap over all inputs.
+     */
+    private void computeStatistics() {
+        computeStatistics(measurements, minMeasurements, maxMeasurements, meanMeasurements);
+        computeStatistics(bytecodeMeasurements, minBytecodes, maxBytecodes, meanBytecodes);
+    }
+
+    /**
+     * Computes the minimal, maximal and mean value of every trap over all inputs.
+     *
+     * @param values map between traps and values for each input
+     * @param min    map for minimal values
+     * @param max    map for maximal values
+     * @param mean   map for mean values rounded to two decimal places
+     */
+    private static void computeStatistics(final Map<String, List<Long>> values, final Map<String, Long> min,
+                                          final Map<String, Long> max, final Map<String, Double> mean) {
+        values.forEach((trapName, trapValues) -> {
+            final LongSummaryStatistics stats = trapValues.stream().mapToLong(Long::longValue).summaryStatistics();
+            min.put(trapName, stats.getMin());
+            max.put(trapName, stats.getMax());
+            mean.put(trapName, Math.round(stats.getAverage() * 100.) / 100.);
+        });
+    }
+
+    /**
+     * Replaces zero hit counts with null, so that the traps not reached by some inputs are highlighted.
+     */
+    private void markUnreachedTraps() {
+        measurements.replaceAll((trapName, values) -> values.stream().map(v -> v != 0 ? v : null)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Prepares heatmap traces.  Each trap line contains the mean and the maximal number of hits over all inputs.
+     */
+    private void prepareHeatmap() {
+        for (final String line : sourceCode) {
+            if (!line.contains("PM.check(PMC.TRAP")) {
+                heatmapValues.add(Arrays.asList(null, null));
+                continue;
+            }
+
+            final int beginPos = line.indexOf('(') + 1 + "PMC.".length();
+            final int endPos = line.indexOf(')');
+            final String currentTrap = line.substring(beginPos, endPos);
+
+            heatmapValues.add(Arrays.asList(meanMeasurements.get(currentTrap),
+                                            maxMeasurements.get(currentTrap).doubleValue()));
+        }
+    }
+
+    /**
+     * Returns an {@link InsertCountMeasurementsProcessor} instance.
+     *
+     * @return {@link InsertCountMeasurementsProcessor} instance
+     */
+    @Override
+    protected AbstractInsertMeasurementsProcessor getInsertMeasurementsProcessor() {
+        return new InsertCountMeasurementsProcessor(args, measurements, minMeasurements, maxMeasurements,
+                                                    meanMeasurements, minBytecodes, maxBytecodes);
+    }
+
+    /**
+     * Adds elements exclusive for the count mode to the given {@link VelocityContext} instance.
+     *
+     * @param context {@link VelocityContext} instance
+     */
+    @Override
+    protected void prepareVelocityContext(final VelocityContext context) {
+        context.put("meanBytecodes", meanBytecodes);
+        context.put("maxMeasurements", maxMeasurements);
+        context.put("meanMeasurements", meanMeasurements);
+        context.put("measureUnit", "hits");
+        context.put("minMeasurements", minMeasurements);
+        context.put("nonemptyHeatmap", maxMeasurements.values().stream().anyMatch(v -> v != 0));
+        context.put("roundCount", inputs.size());
+    }
+}
@@ -4,45 +4,175 @@
 package jcprofiler.visualisation;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.MemoryTrend;
+import jcprofiler.util.TrapManifest;
 import jcprofiler.visualisation.processors.AbstractInsertMeasurementsProcessor;
 import jcprofiler.visualisation.processors.InsertMemoryMeasurementsProcessor;
 
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.VelocityContext;
 
-import spoon.reflect.CtModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Class for visualisation of measurements in memory mode
  */
 public class MemoryVisualiser extends AbstractVisualiser {
+    /**
+     * Number of memory types measured for each input
+     */
+    public static final int MEMORY_TYPES = 3;
+
+    // minimal and maximal amount of free memory of each memory type over all inputs
+    private final Map<String, List<Long>> minMeasurements = new LinkedHashMap<>();
+    private final Map<String, List<Long>> maxMeasurements = new LinkedHashMap<>();
+
+    // trends of free memory of each memory type over the leak detection iterations
+    private final Map<String, List<MemoryTrend>> leakTrends = new LinkedHashMap<>();
+
+    // rows of the allocation site table
+    private final List<Map<String, String>> allocationSites = new ArrayList<>();
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryVisualiser.class);
+
     /**
      * Constructs the {@link MemoryVisualiser} class.
      *
-     * @param args  object with commandline arguments
-     * @param model Spoon model
+     * @param args     object with commandline arguments
+     * @param manifest manifest of the instrumented sources
      */
-    public MemoryVisualiser(final Args args, final CtModel model) {
-        super(args, model);
+    public MemoryVisualiser(final Args args, final TrapManifest manifest) {
+        super(args, manifest);
     }
 
     /**
-     * Loads and parses the CSV file with measurements, loads the source code of the profiled
-     * executable and prepares input data for the heatmap.
+     * Loads the measurements, loads the source code of the profiled executable, computes
+     * the range of free memory over all inputs, fits the trends of the leak detection iterations,
+     * attributes memory to allocation sites and prepares input data for the heatmap.
      */
     @Override
     public void loadAndProcessMeasurements() {
         super.loadAndProcessMeasurements();
+        computeMinMax();
+        computeLeakTrends();
+        computeAllocationSites();
         prepareHeatmap();
     }
 
     /**
-     * Prepares heatmap traces.
+     * Computes the number of bytes of each memory type allocated by every allocation site listed in
+     * the {@code allocationSites.csv} file, i.e. the biggest difference in free memory between the traps
+     * surrounding the site over all inputs that reached both of them.  Traps store only the free memory
+     * at their last hit, so repeatable sites, i.e. sites in loops or callees, report only their last execution.
+     */
+    private void computeAllocationSites() {
+        final Path csv = args.workDir.resolve("allocationSites.csv");
+        if (!Files.exists(csv))
+            return;
+
+        log.info("Loading allocation sites from {}.", csv);
+        try (final CSVParser parser = CSVParser.parse(csv, Charset.defaultCharset(), JCProfilerUtil.getCSVFormat())) {
+            for (final CSVRecord record : parser) {
+                final List<Long> before = measurements.get(record.get(0));
+                final List<Long> after = measurements.get(record.get(1));
+                if (before == null || after == null)
+                    throw new RuntimeException(String.format(
+                            "%s does not correspond to the measurements! Please, reinstrument the given sources.",
+                            csv));
+
+                final Map<String, String> row = new LinkedHashMap<>();
+                row.put("executable", record.get(2));
+                row.put("position", record.get(3));
+                row.put("allocations", StringEscapeUtils.escapeHtml4(record.get(4)));
+                row.put("repeatable", record.get(5));
+
+                final String[] typeNames = {"transientDeselect", "transientReset", "persistent"};
+                for (int type = 0; type < MEMORY_TYPES; type++) {
+                    Long allocated = null;
+                    for (int i = type; i < before.size(); i += MEMORY_TYPES) {
+                        if (before.get(i) == null || after.get(i) == null)
+                            continue;
+
+                        final long diff = before.get(i) - after.get(i);
+                        allocated = allocated == null ? diff : Math.max(allocated, diff);
+                    }
+
+                    row.put(typeNames[type], allocated != null ? String.valueOf(allocated) : "unreached");
+                }
+                allocationSites.add(row);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Fits a trend of each memory type of every trap over the leak detection iterations.
+     */
+    private void computeLeakTrends() {
+        leakMeasurements.forEach((trapName, values) -> {
+            final List<MemoryTrend> trends = new ArrayList<>(MEMORY_TYPES);
+            for (int type = 0; type < MEMORY_TYPES; type++) {
+                final List<Long> series = new ArrayList<>(values.size() / MEMORY_TYPES);
+                for (int i = type; i < values.size(); i += MEMORY_TYPES)
+                    series.add(values.get(i));
+                trends.add(new MemoryTrend(series));
+            }
+
+            leakTrends.put(trapName, trends);
+        });
+    }
+
+    /**
+     * Computes the minimal and maximal amount of free memory of each memory type over all inputs
+     * that reached given trap.  Both are null if the trap was not reached by any input.
+     */
+    private void computeMinMax() {
+        measurements.forEach((trapName, values) -> {
+            final List<Long> min = new ArrayList<>(MEMORY_TYPES);
+            final List<Long> max = new ArrayList<>(MEMORY_TYPES);
+            for (int type = 0; type < MEMORY_TYPES; type++) {
+                Long typeMin = null;
+                Long typeMax = null;
+                for (int i = type; i < values.size(); i += MEMORY_TYPES) {
+                    final Long value = values.get(i);
+                    if (value == null)
+                        continue;
+
+                    typeMin = typeMin == null ? value : Math.min(typeMin, value);
+                    typeMax = typeMax == null ? value : Math.max(typeMax, value);
+                }
+
+                min.add(typeMin);
+                max.add(typeMax);
+            }
+
+            minMeasurements.put(trapName, min);
+            maxMeasurements.put(trapName, max);
+        });
+    }
+
+    /**
+     * Prepares heatmap traces.  Each value corresponds to the biggest difference in available memory
+     * between the trap and the previous trap reached by the same input over all inputs.
      */
     private void prepareHeatmap() {
-        String prevActualTrap = null;
+        final int inputCount = getInputCount();
+
+        // last reached trap for each input
+        final String[] prevActualTraps = new String[inputCount];
+
         // prepare values for the heatMap
         for (final String line : sourceCode) {
             if (!line.contains("PM.check(PMC.TRAP")) {
@@ -53,30 +183,49 @@ public class MemoryVisualiser extends AbstractVisualiser {
             final int beginPos = line.indexOf('(') + 1 + "PMC.".length();
             final int endPos = line.indexOf(')');
             final String currentTrap = line.substring(beginPos, endPos);
+            final List<Long> current = measurements.get(currentTrap);
+
+            Double trans = null;
+            Double pers = null;
+            for (int input = 0; input < inputCount; input++) {
+                final int offset = input * MEMORY_TYPES;
 
-            // unreachable trap or first reachable trap
-            if (measurements.get(currentTrap).contains(null) || prevActualTrap == null) {
-                heatmapValues.add(Arrays.asList(0.0, 0.0));
+                // unreachable trap
+                if (current.subList(offset, offset + MEMORY_TYPES).contains(null))
+                    continue;
 
                 // first reachable processed trap
-                if (prevActualTrap == null)
-                    prevActualTrap = currentTrap;
+                if (prevActualTraps[input] == null) {
+                    prevActualTraps[input] = currentTrap;
+                    continue;
+                }
 
-                continue;
-            }
+                final List<Long> prev = measurements.get(prevActualTraps[input]);
 
-            final List<Long> prev = measurements.get(prevActualTrap);
-            final List<Long> current = measurements.get(currentTrap);
+                // get the biggest difference in available memory
+                final double inputTrans = Math.max(prev.get(offset) - current.get(offset),
+                                                   prev.get(offset + 1) - current.get(offset + 1));
+                final double inputPers = prev.get(offset + 2) - current.get(offset + 2);
+                trans = trans == null ? inputTrans : Math.max(trans, inputTrans);
+                pers = pers == null ? inputPers : Math.max(pers, inputPers);
 
-            // get the biggest difference in available memory
-            final double trans = (double) Math.max(prev.get(0) - current.get(0), prev.get(1) - current.get(1));
-            final double pers = (double) (prev.get(2) - current.get(2));
-            heatmapValues.add(Arrays.asList(trans, pers));
+                prevActualTraps[input] = currentTrap;
+            }
 
-            prevActualTrap = currentTrap;
+            // unreachable trap or first reachable trap for all inputs
+            heatmapValues.add(Arrays.asList(trans != null ? trans : 0.0, pers != null ? pers : 0.0));
         }
     }
 
+    /**
+     * Returns the number of measured inputs.
+     *
+     * @return number of inputs
+     */
+    private int getInputCount() {
+        return measurements.values().stream().mapToInt(List::size).max().orElse(0) / MEMORY_TYPES;
+    }
+
     /**
      * Returns an {@link InsertMemoryMeasurementsProcessor} instance.
      *
@@ -84,7 +233,7 @@ public class MemoryVisualiser extends AbstractVisualiser {
      */
     @Override
     protected AbstractInsertMeasurementsProcessor getInsertMeasurementsProcessor() {
-        return new InsertMemoryMeasurementsProcessor(args, measurements);
+        return new InsertMemoryMeasurementsProcessor(args, minMeasurements, maxMeasurements);
     }
 
     /**
@@ -94,7 +243,25 @@ public class MemoryVisualiser extends AbstractVisualiser {
      */
     @Override
     protected void prepareVelocityContext(final VelocityContext context) {
+        if (!allocationSites.isEmpty())
+            context.put("allocationSites", allocationSites);
+        context.put("inputCount", getInputCount());
+        if (optionalHeaderFields.containsKey("leakIterations")) {
+            context.put("leakIterations", optionalHeaderFields.get("leakIterations"));
+            context.put("leakTrends", leakTrends);
+
+            // slopes of the traps whose free memory of any type decreased in every iteration
+            final Map<String, List<String>> leakSlopes = new LinkedHashMap<>();
+            leakTrends.forEach((trapName, trends) -> {
+                if (trends.stream().anyMatch(MemoryTrend::isDecreasing))
+                    leakSlopes.put(trapName, trends.stream().map(t -> String.format("%.1f", t.getSlope()))
+                            .collect(Collectors.toList()));
+            });
+            context.put("leakSlopes", leakSlopes);
+        }
+        context.put("maxMeasurements", maxMeasurements);
         context.put("measureUnit", "B");
+        context.put("minMeasurements", minMeasurements);
         context.put("nonemptyHeatmap", heatmapValues.stream().anyMatch(
                 l -> l.stream().anyMatch(e -> e != null && e != 0.0)));
     }
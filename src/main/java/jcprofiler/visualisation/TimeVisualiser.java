@@ -4,6 +4,8 @@
 package jcprofiler.visualisation;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.TrapManifest;
+import jcprofiler.util.enums.TimeSource;
 import jcprofiler.visualisation.processors.AbstractInsertMeasurementsProcessor;
 
 import jcprofiler.visualisation.processors.InsertTimeMeasurementsProcessor;
@@ -13,8 +15,6 @@ import org.apache.velocity.VelocityContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.reflect.CtModel;
-
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -25,6 +25,7 @@ import java.util.stream.Collectors;
 public class TimeVisualiser extends AbstractVisualiser {
     private final Map<String, List<Long>> filteredMeasurements = new LinkedHashMap<>();
     private final Map<String, DescriptiveStatistics> filteredStatistics = new LinkedHashMap<>();
+    private final Map<String, DescriptiveStatistics> forkStatistics = new LinkedHashMap<>();
 
     private final Map<String, List<Double>> movingAverages = new LinkedHashMap<>();
 
@@ -33,26 +34,38 @@ public class TimeVisualiser extends AbstractVisualiser {
     /**
      * Constructs the {@link TimeVisualiser} class.
      *
-     * @param args  object with commandline arguments
-     * @param model Spoon model
+     * @param args     object with commandline arguments
+     * @param manifest manifest of the instrumented sources
      */
-    public TimeVisualiser(final Args args, final CtModel model) {
-        super(args, model);
+    public TimeVisualiser(final Args args, final TrapManifest manifest) {
+        super(args, manifest);
     }
 
     /**
-     * Loads and parses the CSV file with measurements, loads the source code of the profiled
-     * executable, computes moving averages of measurements, filters obvious outliers
-     * and prepares input data for the heatmap.
+     * Loads the measurements, loads the source code of the profiled
+     * executable, computes moving averages of measurements, filters obvious outliers,
+     * computes the variance between forked JVMs and prepares input data for the heatmap.
      */
     @Override
     public void loadAndProcessMeasurements() {
         super.loadAndProcessMeasurements();
         computeMovingAverages();
         filterOutliers();
+        computeForkStatistics();
         prepareHeatmap();
     }
 
+    /**
+     * Computes statistics of the means measured in individual forked JVMs.
+     */
+    private void computeForkStatistics() {
+        forkMeasurements.forEach((k, v) -> {
+            final DescriptiveStatistics ds = new DescriptiveStatistics();
+            v.stream().filter(Objects::nonNull).map(Long::doubleValue).forEach(ds::addValue);
+            forkStatistics.put(k, ds);
+        });
+    }
+
     /**
      * Filters obvious outliers from the input measurements.
      */
@@ -90,22 +103,28 @@ public class TimeVisualiser extends AbstractVisualiser {
     }
 
     /**
-     * Computes moving average of measurements.
+     * Computes moving average of measurements.  Rounds the trap was not measured in are skipped.
      */
     private void computeMovingAverages() {
         // compute moving averages
         final DescriptiveStatistics movingAverage = new DescriptiveStatistics(/* window */ 10);
         measurements.forEach((k, v) -> {
             movingAverage.clear();
-            movingAverages.put(k, v.stream().map(l -> {
+            final BitSet skipped = notMeasured.getOrDefault(k, new BitSet());
+            final List<Double> averages = new ArrayList<>(v.size());
+            for (int i = 0; i < v.size(); i++) {
+                final Long l = v.get(i);
                 if (l == null) {
-                    movingAverage.clear();
-                    return null;
+                    if (!skipped.get(i))
+                        movingAverage.clear();
+                    averages.add(null);
+                    continue;
                 }
 
                 movingAverage.addValue(l.doubleValue());
-                return movingAverage.getMean();
-            }).collect(Collectors.toList()));
+                averages.add(movingAverage.getMean());
+            }
+            movingAverages.put(k, averages);
         });
     }
 
@@ -189,7 +208,8 @@ public class TimeVisualiser extends AbstractVisualiser {
      */
     @Override
     protected AbstractInsertMeasurementsProcessor getInsertMeasurementsProcessor() {
-        return new InsertTimeMeasurementsProcessor(args, measurements, filteredStatistics);
+        return new InsertTimeMeasurementsProcessor(args, measurements, notMeasured, filteredStatistics,
+                                                   forkStatistics);
     }
 
     /**
@@ -202,6 +222,46 @@ public class TimeVisualiser extends AbstractVisualiser {
         context.put("filteredMeasurements", filteredMeasurements);
         context.put("measureUnit", args.timeUnit.prettyPrint());
         context.put("movingAverages", movingAverages);
-        context.put("roundCount", measurements.values().iterator().next().size());
+        context.put("notMeasured", measurements.keySet().stream().collect(Collectors.toMap(k -> k,
+                k -> notMeasured.getOrDefault(k, new BitSet()).stream().boxed().collect(Collectors.toList()))));
+        context.put("warmupMeasurements", warmupMeasurements);
+        // traps may have been measured in a different number of rounds with --target-precision
+        context.put("roundCount", measurements.values().stream().mapToInt(List::size).max().orElse(0));
+
+        // calibrated transport overhead per input length
+        final boolean subtracted = optionalHeaderFields.containsKey("subtractedOverhead");
+        final String overhead = optionalHeaderFields.get(subtracted ? "subtractedOverhead" : "overhead");
+        if (overhead != null) {
+            context.put("overhead", Arrays.stream(overhead.split(";")).map(s -> s.replace("=", " B: ") + " ns")
+                    .collect(Collectors.joining(", ")));
+            context.put("overheadSubtracted", subtracted);
+        }
+
+        // the largest relative standard deviation between forked JVMs
+        if (optionalHeaderFields.containsKey("forks")) {
+            final String worstTrap = forkStatistics.entrySet().stream().filter(e -> e.getValue().getN() > 1)
+                    .max(Comparator.comparingDouble(e -> getRelativeStandardDeviation(e.getValue())))
+                    .map(Map.Entry::getKey).orElse(null);
+            context.put("forks", worstTrap == null ? optionalHeaderFields.get("forks") : String.format(
+                    "%s (largest relative std dev of the mean between forks: %.2f %% in %s)",
+                    optionalHeaderFields.get("forks"),
+                    getRelativeStandardDeviation(forkStatistics.get(worstTrap)), worstTrap));
+        }
+
+        // CPU time of the simulator thread
+        if (optionalHeaderFields.containsKey("timeSource"))
+            context.put("timeSource", String.format("%s (%s samples overlapped by GC measured again)",
+                    TimeSource.valueOf(optionalHeaderFields.get("timeSource")).prettyPrint(),
+                    optionalHeaderFields.getOrDefault("gcRejected", "0")));
+    }
+
+    /**
+     * Returns the standard deviation relative to the mean.
+     *
+     * @param  ds statistics of the values
+     * @return    relative standard deviation in percents
+     */
+    private static double getRelativeStandardDeviation(final DescriptiveStatistics ds) {
+        return 100. * ds.getStandardDeviation() / ds.getMean();
     }
 }
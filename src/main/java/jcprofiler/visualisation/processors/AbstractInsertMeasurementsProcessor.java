@@ -4,22 +4,26 @@
 package jcprofiler.visualisation.processors;
 
 import jcprofiler.args.Args;
+import jcprofiler.util.TrapManifest;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import spoon.processing.AbstractProcessor;
-import spoon.reflect.code.CtFieldRead;
-import spoon.reflect.code.CtInvocation;
-import spoon.reflect.reference.CtExecutableReference;
-
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * General class for annotation of profiled sources
  */
-public abstract class AbstractInsertMeasurementsProcessor extends AbstractProcessor<CtInvocation<Void>> {
+public abstract class AbstractInsertMeasurementsProcessor {
     /**
      * Commandline arguments
      */
@@ -42,22 +46,6 @@ public abstract class AbstractInsertMeasurementsProcessor extends AbstractProces
         this.measurements = measurements;
     }
 
-    /**
-     * Decides whether the input {@link CtInvocation} corresponds to
-     * a {@code PM#check(short)} call.
-     *
-     * @param  statement the candidate invocation
-     * @return           true if yes, otherwise false
-     */
-    @Override
-    public boolean isToBeProcessed(final CtInvocation<Void> statement) {
-        final CtExecutableReference<?> executable = statement.getExecutable();
-        return executable.getDeclaringType().getSimpleName().equals("PM") &&
-               executable.getSignature().equals("check(short)") &&
-               executable.getType().equals(getFactory().Type().voidPrimitiveType()) &&
-               executable.isStatic();
-    }
-
     /**
      * Returns a commentary contents to replace the {@code PM#check(short)} call
      * for given performance trap.
@@ -68,23 +56,50 @@ public abstract class AbstractInsertMeasurementsProcessor extends AbstractProces
     protected abstract String getCommentString(final String fieldName);
 
     /**
-     * Replaces the {@code PM#check(short)} calls with
-     * a commentary with measurement statistics.
+     * Replaces the {@code PM#check(short)} calls of measured traps in the given copy
+     * of the instrumented sources with a commentary with measurement statistics.
+     *
+     * @param  manifest  manifest of the instrumented sources
+     * @param  sourceDir directory with a copy of the instrumented sources
      *
-     * @param invocation invocation to be processed
+     * @throws RuntimeException if a source file could not be read or written
      */
-    @Override
-    public void process(final CtInvocation<Void> invocation) {
-        final CtFieldRead<?> trapFieldRead = (CtFieldRead<?>) invocation.getArguments().get(0);
-        final String fieldName = trapFieldRead.getVariable().getSimpleName();
+    public void process(final TrapManifest manifest, final Path sourceDir) {
+        final Map<String, List<TrapManifest.Trap>> trapsByFile = manifest.getTraps().stream()
+                .filter(t -> !t.getFile().isEmpty() && measurements.containsKey(t.getName()))
+                .collect(Collectors.groupingBy(TrapManifest.Trap::getFile, LinkedHashMap::new, Collectors.toList()));
 
-        // skip if this trap was not measured
-        if (!measurements.containsKey(fieldName))
-            return;
+        for (final Map.Entry<String, List<TrapManifest.Trap>> entry : trapsByFile.entrySet()) {
+            final Path file = sourceDir.resolve(entry.getKey());
+            try {
+                final List<String> lines = Files.readAllLines(file, Charset.defaultCharset());
+                for (final TrapManifest.Trap trap : entry.getValue())
+                    process(lines, trap);
+                Files.write(file, lines, Charset.defaultCharset());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 
-        final String commentContents = getCommentString(fieldName);
+    /**
+     * Replaces the {@code PM#check(short)} call of the given trap with
+     * a commentary with measurement statistics.
+     *
+     * @param lines lines of the source file containing the trap
+     * @param trap  trap to be processed
+     */
+    private void process(final List<String> lines, final TrapManifest.Trap trap) {
+        final int idx = trap.getLine() - 1;
+        final Pattern call = Pattern.compile(
+                "(?:[\\w.]+\\.)?PM\\.check\\(\\s*(?:[\\w.]+\\.)?PMC\\." + trap.getName() + "\\s*\\);");
+        final Matcher matcher = idx >= 0 && idx < lines.size() ? call.matcher(lines.get(idx)) : null;
+        if (matcher == null || !matcher.find()) {
+            log.warn("{} not found at {}:{}!", trap.getName(), trap.getFile(), trap.getLine());
+            return;
+        }
 
-        log.debug("Inserting comment with measurements at {}.", invocation.getPosition());
-        invocation.replace(getFactory().createInlineComment(commentContents));
+        log.debug("Inserting comment with measurements at {}:{}.", trap.getFile(), trap.getLine());
+        lines.set(idx, lines.get(idx).substring(0, matcher.start()) + "// " + getCommentString(trap.getName()));
     }
 }
@@ -0,0 +1,85 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.visualisation.processors;
+
+import jcprofiler.args.Args;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for annotation of profiled sources in count mode
+ */
+public class InsertCountMeasurementsProcessor extends AbstractInsertMeasurementsProcessor {
+    private final Map<String, Long> minMeasurements;
+    private final Map<String, Long> maxMeasurements;
+    private final Map<String, Double> meanMeasurements;
+    private final Map<String, Long> minBytecodes;
+    private final Map<String, Long> maxBytecodes;
+
+    /**
+     * Constructs the {@link InsertCountMeasurementsProcessor} class.
+     *
+     * @param args             object with commandline arguments
+     * @param measurements     map between traps and hit counts where null corresponds to an unreached trap
+     * @param minMeasurements  map between traps and minimal number of hits over all inputs
+     * @param maxMeasurements  map between traps and maximal number of hits over all inputs
+     * @param meanMeasurements map between traps and mean number of hits over all inputs
+     * @param minBytecodes     map between traps and minimal number of preceding bytecodes over all inputs,
+     *                         empty if the bytecodes were not counted
+     * @param maxBytecodes     map between traps and maximal number of preceding bytecodes over all inputs,
+     *                         empty if the bytecodes were not counted
+     */
+    public InsertCountMeasurementsProcessor(final Args args, final Map<String, List<Long>> measurements,
+                                            final Map<String, Long> minMeasurements,
+                                            final Map<String, Long> maxMeasurements,
+                                            final Map<String, Double> meanMeasurements,
+                                            final Map<String, Long> minBytecodes,
+                                            final Map<String, Long> maxBytecodes) {
+        super(args, measurements);
+        this.minMeasurements = minMeasurements;
+        this.maxMeasurements = maxMeasurements;
+        this.meanMeasurements = meanMeasurements;
+        this.minBytecodes = minBytecodes;
+        this.maxBytecodes = maxBytecodes;
+    }
+
+    /**
+     * Returns a commentary contents to replace the {@code PM#check(short)} call
+     * for given performance trap.
+     *
+     * @param  fieldName name of the performance trap field
+     * @return           comment annotation contents
+     */
+    @Override
+    protected String getCommentString(String fieldName) {
+        final long min = minMeasurements.get(fieldName);
+        final long max = maxMeasurements.get(fieldName);
+
+        // trap was unreachable
+        if (max == 0)
+            return "Unreachable";
+
+        final String hits = min == max
+                            ? String.format("Executed: %d times", min)
+                            : String.format("Executed: %d-%d times (mean %.2f)", min, max,
+                                            meanMeasurements.get(fieldName));
+        if (!minBytecodes.containsKey(fieldName))
+            return hits;
+
+        return String.format("%s, Preceding bytecodes: %s", hits,
+                             formatRange(minBytecodes.get(fieldName), maxBytecodes.get(fieldName)));
+    }
+
+    /**
+     * Formats the range of values over all inputs.
+     *
+     * @param  min minimal value
+     * @param  max maximal value
+     * @return     the value if both are equal, otherwise the range
+     */
+    private String formatRange(final long min, final long max) {
+        return min == max ? String.valueOf(min) : String.format("%d-%d", min, max);
+    }
+}
@@ -12,14 +12,19 @@ import java.util.Map;
  * Class for annotation of profiled sources in memory mode
  */
 public class InsertMemoryMeasurementsProcessor extends AbstractInsertMeasurementsProcessor {
+    private final Map<String, List<Long>> maxMeasurements;
+
     /**
      * Constructs the {@link InsertMemoryMeasurementsProcessor} class.
      *
-     * @param args         object with commandline arguments
-     * @param measurements map between traps and measurements
+     * @param args            object with commandline arguments
+     * @param minMeasurements map between traps and minimal amount of free memory of each type over all inputs
+     * @param maxMeasurements map between traps and maximal amount of free memory of each type over all inputs
      */
-    public InsertMemoryMeasurementsProcessor(final Args args, final Map<String, List<Long>> measurements) {
-        super(args, measurements);
+    public InsertMemoryMeasurementsProcessor(final Args args, final Map<String, List<Long>> minMeasurements,
+                                             final Map<String, List<Long>> maxMeasurements) {
+        super(args, minMeasurements);
+        this.maxMeasurements = maxMeasurements;
     }
 
     /**
@@ -31,14 +36,27 @@ public class InsertMemoryMeasurementsProcessor extends AbstractInsertMeasurement
      */
     @Override
     protected String getCommentString(String fieldName) {
-        final List<Long> values = measurements.get(fieldName);
+        final List<Long> min = measurements.get(fieldName);
+        final List<Long> max = maxMeasurements.get(fieldName);
 
         // trap was unreachable
-        if (values.contains(null))
+        if (min.contains(null))
             return "Unreachable";
 
         return String.format(
-                "Free Transient Deselect: %d B, Free Transient Reset: %d B, Free Persistent: %d B",
-                values.get(0), values.get(1), values.get(2));
+                "Free Transient Deselect: %s B, Free Transient Reset: %s B, Free Persistent: %s B",
+                formatRange(min.get(0), max.get(0)), formatRange(min.get(1), max.get(1)),
+                formatRange(min.get(2), max.get(2)));
+    }
+
+    /**
+     * Formats the range of free memory over all inputs.
+     *
+     * @param  min minimal amount of free memory
+     * @param  max maximal amount of free memory
+     * @return     the value if both are equal, otherwise the range
+     */
+    private String formatRange(final long min, final long max) {
+        return min == max ? String.valueOf(min) : String.format("%d-%d", min, max);
     }
 }
@@ -7,6 +7,7 @@ import jcprofiler.args.Args;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -15,19 +16,28 @@ import java.util.Objects;
  * Class for annotation of profiled sources in time mode
  */
 public class InsertTimeMeasurementsProcessor extends AbstractInsertMeasurementsProcessor {
+    private final Map<String, BitSet> notMeasured;
     private final Map<String, DescriptiveStatistics> statisticsMap;
+    private final Map<String, DescriptiveStatistics> forkStatisticsMap;
 
     /**
      * Constructs the {@link InsertTimeMeasurementsProcessor} class.
      *
-     * @param args          object with commandline arguments
-     * @param measurements  map between traps and measurements
-     * @param statisticsMap map between traps and measurement statistics
+     * @param args              object with commandline arguments
+     * @param measurements      map between traps and measurements
+     * @param notMeasured       map between traps and rounds indexed from zero they were not measured in
+     * @param statisticsMap     map between traps and measurement statistics
+     * @param forkStatisticsMap map between traps and statistics of their means in individual forked JVMs,
+     *                          empty if the JVM was not forked
      */
     public InsertTimeMeasurementsProcessor(final Args args, final Map<String, List<Long>> measurements,
-                                           final Map<String, DescriptiveStatistics> statisticsMap) {
+                                           final Map<String, BitSet> notMeasured,
+                                           final Map<String, DescriptiveStatistics> statisticsMap,
+                                           final Map<String, DescriptiveStatistics> forkStatisticsMap) {
         super(args, measurements);
+        this.notMeasured = notMeasured;
         this.statisticsMap = statisticsMap;
+        this.forkStatisticsMap = forkStatisticsMap;
     }
 
     /**
@@ -42,15 +52,25 @@ public class InsertTimeMeasurementsProcessor extends AbstractInsertMeasurementsP
         final List<Long> values = measurements.get(fieldName);
         final DescriptiveStatistics statistics = statisticsMap.get(fieldName);
         final String unitSymbol = args.timeUnit.prettyPrint();
-        final long unreachableCount = values.stream().filter(Objects::isNull).count();
+        // rounds the trap was not measured in are neither unreachable nor counted
+        final int skippedCount = notMeasured.getOrDefault(fieldName, new BitSet()).cardinality();
+        final int measuredCount = values.size() - skippedCount;
+        final long unreachableCount = values.stream().filter(Objects::isNull).count() - skippedCount;
 
-        return String.format(
+        final String comment = String.format(
                 "Mean: %.2f %s, Std Dev: %.2f %s, Max: %d %s, Min: %d %s, Unreachable: %d/%d, %d outliers skipped",
                 statistics.getMean(), unitSymbol,
                 statistics.getStandardDeviation(), unitSymbol,
                 (int) statistics.getMax(), unitSymbol,
                 (int) statistics.getMin(), unitSymbol,
-                unreachableCount, values.size(),
-                values.size() - unreachableCount - statistics.getN());
+                unreachableCount, measuredCount,
+                measuredCount - unreachableCount - statistics.getN());
+
+        final DescriptiveStatistics forkStatistics = forkStatisticsMap.get(fieldName);
+        if (forkStatistics == null || forkStatistics.getN() < 2)
+            return comment;
+
+        return String.format("%s, Std Dev between %d forks: %.2f %s",
+                comment, forkStatistics.getN(), forkStatistics.getStandardDeviation(), unitSymbol);
     }
 }
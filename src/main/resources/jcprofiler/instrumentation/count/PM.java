@@ -0,0 +1,130 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: MIT
+
+package jcprofiler;
+
+// Explicit imports to ensure that they are not shadowed by other classes from the applet package.
+import java.lang.Short;
+
+import javacard.framework.APDU;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * PM class for counting how many times each trap was reached
+ */
+public class PM {
+    private static final short ARRAY_LENGTH = 0;
+    private static final short MAX_APDU_LENGTH = 256;
+
+    // P1 value requesting a part of the counters, the sent part is cleared
+    private static final byte GET_COUNTERS = (byte) 0x00;
+    // P1 value clearing all counters
+    private static final byte RESET_COUNTERS = (byte) 0x7E;
+    // P1 value setting the range of enabled trap IDs given as two shorts in the command data
+    private static final byte ENABLE_TRAPS = (byte) 0x7D;
+
+    // Array storing a short counter for each trap, transient to spare the persistent memory
+    // that would be rewritten on every reached trap
+    private static byte[] counters;
+
+    // Range of trap IDs that are counted, all traps are enabled by default
+    private static short firstEnabledTrap = (short) 2;
+    private static short lastEnabledTrap = Short.MAX_VALUE;
+
+    /**
+     * Allocates the counters on the first use.
+     */
+    private static void initialise() {
+        if (counters == null)
+            counters = JCSystem.makeTransientByteArray(ARRAY_LENGTH, JCSystem.CLEAR_ON_RESET);
+    }
+
+    /**
+     * Increments the counter of the given trap.
+     * The maximum value is capped by {@link Short#MAX_VALUE}.
+     * Traps outside the enabled range are ignored.
+     *
+     * @param stopCondition ID of the reached trap
+     */
+    public static void check(short stopCondition) {
+        if (stopCondition < firstEnabledTrap || stopCondition > lastEnabledTrap)
+            return;
+
+        initialise();
+
+        short trapID = (short) ((stopCondition - /* PERF_START */ 2) * Short.BYTES);
+        short count = Util.getShort(counters, trapID);
+        if (count != Short.MAX_VALUE)
+            Util.setShort(counters, trapID, (short) (count + 1));
+    }
+
+    /**
+     * Copy and send the P2th part of the counters back to the profiler and clear it,
+     * so that the counters are ready for the next execution.  The profiler retrieves
+     * all parts, including the counters of other instrumented executables.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the P2 byte has a wrong value
+     */
+    private static void sendCounters(APDU apdu) {
+        short part = (short) (apdu.getBuffer()[ISO7816.OFFSET_P2] & 0x00FF);
+        short beginOffset = (short) (part * MAX_APDU_LENGTH);
+
+        if (beginOffset > ARRAY_LENGTH)
+            ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+
+        short remainingLength = (short) (ARRAY_LENGTH - beginOffset);
+        short length = remainingLength > MAX_APDU_LENGTH ? MAX_APDU_LENGTH : remainingLength;
+
+        Util.arrayCopyNonAtomic(counters, beginOffset, apdu.getBuffer(), (short) 0, length);
+        Util.arrayFillNonAtomic(counters, beginOffset, length, (byte) 0);
+        apdu.setOutgoingAndSend((short) 0, length);
+    }
+
+    /**
+     * Sets the range of enabled traps to the one given in the command data.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the command data are too short
+     */
+    private static void enableTraps(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        if (apdu.setIncomingAndReceive() < (short) (2 * Short.BYTES))
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+
+        firstEnabledTrap = Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA);
+        lastEnabledTrap = Util.getShort(apduBuffer, (short) (ISO7816.OFFSET_CDATA + Short.BYTES));
+    }
+
+    /**
+     * Handles a counter command selected by the P1 byte.  If the P1 byte equals
+     * {@link #GET_COUNTERS}, a part of the counters is sent back, see {@link #sendCounters}
+     * for details about the P2 byte.  If the P1 byte equals {@link #RESET_COUNTERS},
+     * all counters are cleared.  If the P1 byte equals {@link #ENABLE_TRAPS},
+     * only traps with IDs between the first and the second short in the command data
+     * are counted from now on.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the P1 byte has a wrong value
+     */
+    public static void send(APDU apdu) {
+        initialise();
+
+        switch (apdu.getBuffer()[ISO7816.OFFSET_P1]) {
+            case GET_COUNTERS:
+                sendCounters(apdu);
+                break;
+            case RESET_COUNTERS:
+                Util.arrayFillNonAtomic(counters, (short) 0, ARRAY_LENGTH, (byte) 0);
+                break;
+            case ENABLE_TRAPS:
+                enableTraps(apdu);
+                break;
+            default:
+                ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        }
+    }
+}
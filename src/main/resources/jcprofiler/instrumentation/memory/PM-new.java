@@ -20,6 +20,15 @@ public class PM {
     private static final short ARRAY_LENGTH = 0;
     private static final short MAX_APDU_LENGTH = 256;
 
+    // P1 value requesting all memory types interleaved per trap
+    private static final byte ALL_MEMORY_TYPES = (byte) 0x7F;
+    // P1 value resetting all stored measurements before the next execution
+    private static final byte RESET_MEASUREMENTS = (byte) 0x7E;
+    // P1 value setting the range of enabled trap IDs given as two shorts in the command data
+    private static final byte ENABLE_TRAPS = (byte) 0x7D;
+    private static final short RECORD_LENGTH = (short) (3 * Integer.BYTES);
+    private static final short TOTAL_LENGTH = (short) (3 * ARRAY_LENGTH);
+
     // Arrays storing the amount of free memory for each trap as integers
     private static final byte[] memoryUsageTransientDeselect = new byte[ARRAY_LENGTH];
     private static final byte[] memoryUsageTransientReset = new byte[ARRAY_LENGTH];
@@ -30,6 +39,10 @@ public class PM {
 
     private static boolean initialised = false;
 
+    // Range of trap IDs whose measurements are stored, all traps are enabled by default
+    private static short firstEnabledTrap = (short) 2;
+    private static short lastEnabledTrap = Short.MAX_VALUE;
+
     /**
      * Initialise all arrays with -1 integer values which
      * correspond to unreachable traps.
@@ -46,9 +59,14 @@ public class PM {
      * Stores the amount of free memory for the given trap.
      * The maximum value is capped by {@link Integer#MAX_VALUE}.
      *
+     * Traps outside the enabled range are ignored.
+     *
      * @param stopCondition ID of the reached trap
      */
     public static void check(short stopCondition) {
+        if (stopCondition < firstEnabledTrap || stopCondition > lastEnabledTrap)
+            return;
+
         if (!initialised)
             initialise();
 
@@ -89,10 +107,77 @@ public class PM {
         apdu.setOutgoingAndSend((short) 0, length);
     }
 
+    /**
+     * Copy and send the P2th part of all memory usage info back to the profiler.
+     * The free transient deselect, transient reset and persistent memory are interleaved
+     * for each trap and the part length is given by the largest multiple of their total
+     * length that fits into the expected response length.  The response may thus be
+     * longer than {@link #MAX_APDU_LENGTH} if an extended APDU was received.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the P2 byte or the expected response length has a wrong value
+     */
+    private static void sendAll(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short part = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+
+        short expectedLength = apdu.setOutgoing();
+        short partLength = (short) (expectedLength - expectedLength % RECORD_LENGTH);
+        if (partLength == 0)
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        if (part > (short) (TOTAL_LENGTH / partLength))
+            ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+
+        short beginOffset = (short) (part * partLength);
+        short remainingLength = (short) (TOTAL_LENGTH - beginOffset);
+        short length = remainingLength > partLength ? partLength : remainingLength;
+        apdu.setOutgoingLength(length);
+
+        // interleave the values in the APDU buffer and send it whenever it is full
+        short chunkLength = (short) (apduBuffer.length - apduBuffer.length % RECORD_LENGTH);
+        short chunkOffset = 0;
+        short end = (short) ((short) (beginOffset + length) / 3);
+        for (short i = (short) (beginOffset / 3); i < end; i += Integer.BYTES) {
+            Util.arrayCopyNonAtomic(memoryUsageTransientDeselect, i, apduBuffer, chunkOffset, Integer.BYTES);
+            chunkOffset += Integer.BYTES;
+            Util.arrayCopyNonAtomic(memoryUsageTransientReset, i, apduBuffer, chunkOffset, Integer.BYTES);
+            chunkOffset += Integer.BYTES;
+            Util.arrayCopyNonAtomic(memoryUsagePersistent, i, apduBuffer, chunkOffset, Integer.BYTES);
+            chunkOffset += Integer.BYTES;
+
+            if (chunkOffset == chunkLength) {
+                apdu.sendBytes((short) 0, chunkOffset);
+                chunkOffset = 0;
+            }
+        }
+
+        if (chunkOffset != 0)
+            apdu.sendBytes((short) 0, chunkOffset);
+    }
+
+    /**
+     * Sets the range of enabled traps to the one given in the command data.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the command data are too short
+     */
+    private static void enableTraps(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        if (apdu.setIncomingAndReceive() < (short) (2 * Short.BYTES))
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+
+        firstEnabledTrap = Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA);
+        lastEnabledTrap = Util.getShort(apduBuffer, (short) (ISO7816.OFFSET_CDATA + Short.BYTES));
+    }
+
     /**
      * Sends a part of the memory usage info back to the profiler.
-     * The P1 byte selects the memory type. See {@link #sendArray}
-     * for details about the P2 byte.
+     * The P1 byte selects the memory type or {@link #ALL_MEMORY_TYPES}.
+     * See {@link #sendArray} and {@link #sendAll} for details about the P2 byte.
+     * If the P1 byte equals {@link #RESET_MEASUREMENTS}, all stored measurements
+     * are marked as unreachable instead.  If the P1 byte equals {@link #ENABLE_TRAPS},
+     * only traps with IDs between the first and the second short in the command data
+     * are measured from now on.
      *
      * @param  apdu         input APDU
      * @throws ISOException if the P1 byte has a wrong value
@@ -108,6 +193,15 @@ public class PM {
             case JCSystem.MEMORY_TYPE_PERSISTENT:
                 sendArray(memoryUsagePersistent, apdu);
                 break;
+            case ALL_MEMORY_TYPES:
+                sendAll(apdu);
+                break;
+            case RESET_MEASUREMENTS:
+                initialise();
+                break;
+            case ENABLE_TRAPS:
+                enableTraps(apdu);
+                break;
             default:
                 ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
         }
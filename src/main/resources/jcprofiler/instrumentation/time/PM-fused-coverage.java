@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: 2017-2021 Petr Švenda <petrsgit@gmail.com>
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: MIT
+
+package jcprofiler;
+
+import javacard.framework.APDU;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * PM class for time measurement where the trap ID may be fused with the trigger APDU
+ * and with a bitmap of visited traps
+ */
+public class PM {
+    // Trap ID reserved for coverage commands
+    private static final short COVERAGE = (short) 0x0000;
+    private static final byte COVERAGE_START = (byte) 0x01;
+    private static final byte COVERAGE_READ = (byte) 0x02;
+
+    // Performance measurement stop indicator
+    private static short nextPerfStop = PMC.PERF_START;
+
+    // Original header of the trigger APDU
+    private static byte triggerIns;
+    private static byte triggerP1;
+    private static byte triggerP2;
+
+    // Bitmap with one bit per trap ID, allocated on the first coverage request
+    private static byte[] coverage;
+    private static boolean coverageEnabled;
+
+    /**
+     * If coverage is enabled, marks the trap as visited.  Otherwise, if the argument equals
+     * to {@link #nextPerfStop}, an exception with its ID as the cause will be thrown.
+     *
+     * @param  stopCondition ID of the currently visited trap
+     * @throws ISOException  if the fatal trap was reached
+     */
+    public static void check(short stopCondition) {
+        if (coverageEnabled) {
+            short bit = (short) (stopCondition - PMC.PERF_START);
+            coverage[(short) (bit >> 3)] |= (byte) (1 << (byte) (bit & 7));
+            return;
+        }
+
+        if (nextPerfStop == stopCondition)
+            ISOException.throwIt(stopCondition);
+    }
+
+    /**
+     * Set the ID of next fatal trap.
+     * <br><br>
+     * If both P1 and P2 are zero, the APDU data contain the ID of the next fatal trap followed
+     * by the INS, P1 and P2 bytes of the trigger APDU and the APDU is consumed.  If the data start with
+     * the reserved {@link #COVERAGE} ID, the following byte selects a coverage command followed by
+     * a short argument instead:
+     * <ul>
+     *     <li>{@link #COVERAGE_START} clears the bitmap of the given length in bytes and enables coverage,</li>
+     *     <li>{@link #COVERAGE_READ} disables coverage and sends the bitmap starting at the given offset.</li>
+     * </ul>
+     * <br>
+     * Otherwise, P1 and P2 contain the ID of the next fatal trap and the original trigger APDU
+     * header is restored so that the APDU can be processed by the applet.
+     *
+     * @param  apdu input APDU
+     * @return      true if the APDU was consumed, false if it must be processed by the applet
+     */
+    public static boolean set(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+
+        short trapID = Util.getShort(buffer, ISO7816.OFFSET_P1);
+        if (trapID == 0) {
+            if (Util.getShort(buffer, ISO7816.OFFSET_CDATA) == COVERAGE) {
+                handleCoverage(apdu);
+                return true;
+            }
+
+            nextPerfStop = Util.getShort(buffer, ISO7816.OFFSET_CDATA);
+            triggerIns = buffer[(short) (ISO7816.OFFSET_CDATA + 2)];
+            triggerP1 = buffer[(short) (ISO7816.OFFSET_CDATA + 3)];
+            triggerP2 = buffer[(short) (ISO7816.OFFSET_CDATA + 4)];
+            return true;
+        }
+
+        nextPerfStop = trapID;
+        buffer[ISO7816.OFFSET_INS] = triggerIns;
+        buffer[ISO7816.OFFSET_P1] = triggerP1;
+        buffer[ISO7816.OFFSET_P2] = triggerP2;
+        return false;
+    }
+
+    /**
+     * Handles a coverage command.
+     *
+     * @param  apdu         input APDU
+     * @throws ISOException if the command is unknown or the bitmap length is invalid
+     */
+    private static void handleCoverage(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte command = buffer[(short) (ISO7816.OFFSET_CDATA + 2)];
+        short arg = Util.getShort(buffer, (short) (ISO7816.OFFSET_CDATA + 3));
+
+        switch (command) {
+            case COVERAGE_START:
+                if (coverage == null)
+                    coverage = JCSystem.makeTransientByteArray(arg, JCSystem.CLEAR_ON_RESET);
+                if (coverage.length < arg)
+                    ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+
+                Util.arrayFillNonAtomic(coverage, (short) 0, (short) coverage.length, (byte) 0);
+                nextPerfStop = PMC.PERF_START;
+                coverageEnabled = true;
+                break;
+            case COVERAGE_READ:
+                coverageEnabled = false;
+                if (coverage == null || arg < 0 || arg > coverage.length)
+                    ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+
+                // send as much as fits into the APDU buffer and a short response
+                short length = (short) (coverage.length - arg);
+                if (length > (short) buffer.length)
+                    length = (short) buffer.length;
+                if (length > (short) 256)
+                    length = (short) 256;
+                Util.arrayCopyNonAtomic(coverage, arg, buffer, (short) 0, length);
+                apdu.setOutgoingAndSend((short) 0, length);
+                break;
+            default:
+                ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: 2017-2021 Petr Švenda <petrsgit@gmail.com>
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: MIT
+
+package jcprofiler;
+
+import javacard.framework.APDU;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.Util;
+
+/**
+ * PM class for time measurement where the trap ID may be fused with the trigger APDU
+ */
+public class PM {
+    // Performance measurement stop indicator
+    private static short nextPerfStop = PMC.PERF_START;
+
+    // Original header of the trigger APDU
+    private static byte triggerIns;
+    private static byte triggerP1;
+    private static byte triggerP2;
+
+    /**
+     * If the argument equals to {@link #nextPerfStop}, an exception
+     * with its ID as the cause will be thrown.
+     *
+     * @param  stopCondition ID of the currently visited trap
+     * @throws ISOException  if the fatal trap was reached
+     */
+    public static void check(short stopCondition) {
+        if (nextPerfStop == stopCondition)
+            ISOException.throwIt(stopCondition);
+    }
+
+    /**
+     * Set the ID of next fatal trap.
+     * <br><br>
+     * If both P1 and P2 are zero, the APDU data contain the ID of the next fatal trap followed
+     * by the INS, P1 and P2 bytes of the trigger APDU and the APDU is consumed.
+     * <br>
+     * Otherwise, P1 and P2 contain the ID of the next fatal trap and the original trigger APDU
+     * header is restored so that the APDU can be processed by the applet.
+     *
+     * @param  apdu input APDU
+     * @return      true if the APDU was consumed, false if it must be processed by the applet
+     */
+    public static boolean set(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+
+        short trapID = Util.getShort(buffer, ISO7816.OFFSET_P1);
+        if (trapID == 0) {
+            nextPerfStop = Util.getShort(buffer, ISO7816.OFFSET_CDATA);
+            triggerIns = buffer[(short) (ISO7816.OFFSET_CDATA + 2)];
+            triggerP1 = buffer[(short) (ISO7816.OFFSET_CDATA + 3)];
+            triggerP2 = buffer[(short) (ISO7816.OFFSET_CDATA + 4)];
+            return true;
+        }
+
+        nextPerfStop = trapID;
+        buffer[ISO7816.OFFSET_INS] = triggerIns;
+        buffer[ISO7816.OFFSET_P1] = triggerP1;
+        buffer[ISO7816.OFFSET_P2] = triggerP2;
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.installation;
+
+import jcprofiler.util.BytecodeCounter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link BytecodeCountingClassLoader} class
+ */
+class BytecodeCountingClassLoaderTest {
+    private static final String PM = String.join("\n",
+            "package test;",
+            "public class PM { public static void check(short trapID) {} }");
+
+    // bytecodes before trap 2: 4 + 3 * (n + 1) for the loop condition + 13 * n for the loop body
+    // bytecodes before trap 3: 2 for the condition + 2 if the branch is taken
+    // bytecodes after trap 3: 2 for the return
+    private static final String APPLET = String.join("\n",
+            "package test;",
+            "import javacard.framework.Util;",
+            "public class Counted {",
+            "    public static short run(byte[] buffer, short n) {",
+            "        short sum = 0;",
+            "        for (short i = 0; i < n; i++)",
+            "            sum += Util.getShort(buffer, (short) 0);",
+            "        PM.check((short) 2);",
+            "        if (sum > 0)",
+            "            sum = 1;",
+            "        PM.check((short) 3);",
+            "        return sum;",
+            "    }",
+            "}");
+
+    @BeforeEach
+    @AfterEach
+    void resetCounter() {
+        BytecodeCounter.enableTraps((short) 2, Short.MAX_VALUE);
+        BytecodeCounter.reset();
+    }
+
+    @Test
+    void countLoopAndBranch(@TempDir final Path tempDir) throws Exception {
+        final Method run = loadApplet(tempDir).getMethod("run", byte[].class, short.class);
+
+        // three iterations and the branch taken
+        assertEquals((short) 1, run.invoke(null, new byte[]{0, 1}, (short) 3));
+        assertEquals(55, BytecodeCounter.getBytecodes((short) 2));
+        assertEquals(4, BytecodeCounter.getBytecodes((short) 3));
+        assertEquals(Collections.singletonMap("javacard.framework.Util.getShort", 3L),
+                     BytecodeCounter.getApiCalls((short) 2));
+        assertTrue(BytecodeCounter.getApiCalls((short) 3).isEmpty());
+
+        // no iteration and the branch not taken, counts of all hits are summed
+        // and the return after the last trap is attributed to the next reached trap
+        assertEquals((short) 0, run.invoke(null, new byte[]{0, 1}, (short) 0));
+        assertEquals(55 + 2 + 7, BytecodeCounter.getBytecodes((short) 2));
+        assertEquals(4 + 2, BytecodeCounter.getBytecodes((short) 3));
+        assertEquals(Collections.singletonMap("javacard.framework.Util.getShort", 3L),
+                     BytecodeCounter.getApiCalls((short) 2));
+    }
+
+    @Test
+    void disabledTraps(@TempDir final Path tempDir) throws Exception {
+        final Method run = loadApplet(tempDir).getMethod("run", byte[].class, short.class);
+
+        // bytecodes before the disabled trap are attributed to the next enabled one
+        BytecodeCounter.enableTraps((short) 3, (short) 3);
+        run.invoke(null, new byte[]{0, 1}, (short) 3);
+        assertEquals(0, BytecodeCounter.getBytecodes((short) 2));
+        assertEquals(55 + 4, BytecodeCounter.getBytecodes((short) 3));
+        assertEquals(Collections.singletonMap("javacard.framework.Util.getShort", 3L),
+                     BytecodeCounter.getApiCalls((short) 3));
+    }
+
+    /**
+     * Compiles the applet and the PM class and loads the applet through {@link BytecodeCountingClassLoader}.
+     *
+     * @param  tempDir temporary directory
+     * @return         the loaded applet class
+     *
+     * @throws IOException            if the sources could not be written
+     * @throws ClassNotFoundException if the applet could not be loaded
+     */
+    private static Class<?> loadApplet(final Path tempDir) throws IOException, ClassNotFoundException {
+        final Path sources = Files.createDirectories(tempDir.resolve("src").resolve("test"));
+        final Path classes = Files.createDirectories(tempDir.resolve("classes"));
+        Files.write(sources.resolve("PM.java"), PM.getBytes());
+        Files.write(sources.resolve("Counted.java"), APPLET.getBytes());
+
+        // the JavaCard API is provided by jCardSim on the classpath
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final int exitCode = compiler.run(null, null, null,
+                "-classpath", System.getProperty("java.class.path"), "-d", classes.toString(),
+                sources.resolve("PM.java").toString(), sources.resolve("Counted.java").toString());
+        assertEquals(0, exitCode);
+
+        final ClassLoader classLoader = new BytecodeCountingClassLoader(new URL[]{classes.toUri().toURL()}, "test");
+        return classLoader.loadClass("test.Counted");
+    }
+}
@@ -0,0 +1,92 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.instrumentation.processors;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.JCProfilerUtil;
+
+import org.junit.jupiter.api.Test;
+
+import spoon.Launcher;
+import spoon.reflect.declaration.CtClass;
+import spoon.reflect.declaration.CtMethod;
+import spoon.support.compiler.VirtualFile;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static spoon.testing.Assert.assertThat;
+
+/**
+ * Tests for trap insertion around allocation sites
+ */
+class InsertAllocationTrapProcessorTest {
+    @Test
+    public void process() {
+        final CtClass<?> input = parseInputClass("InsertAllocationTrapProcessorTestInput.java");
+        final CtMethod<?> allocate = input.getMethodsByName("allocate").get(0);
+        final CtClass<?> expected = parseExpectedClass(
+                JCProfilerUtil.getTrapNamePrefix(allocate), "InsertAllocationTrapProcessorTestExpected.java");
+
+        final Args args = new Args();
+        args.executable = JCProfilerUtil.getFullSignature(allocate);
+        args.useSimulator = true;
+
+        final InsertAllocationTrapProcessor processor = new InsertAllocationTrapProcessor(args);
+        assertThat(input).withProcessor(processor).isEqualTo(expected);
+
+        // every allocating statement is surrounded by a pair of traps, including the callee
+        final List<String> executables = processor.getAllocationSites().stream()
+                .map(s -> s.toList().get(2)).collect(Collectors.toList());
+        assertEquals(5, executables.size());
+        assertEquals(4, executables.stream().filter(args.executable::equals).count());
+        assertEquals("SimpleClass#helper(short)", executables.get(4));
+
+        // only the last execution of statements in the loop and in the callee is measured
+        final List<String> repeatable = processor.getAllocationSites().stream()
+                .map(s -> s.toList().get(5)).collect(Collectors.toList());
+        assertEquals(Arrays.asList("false", "false", "false", "true", "true"), repeatable);
+    }
+
+    public CtClass<?> parseInputClass(final String fileName) {
+        final Launcher spoon = new Launcher();
+
+        // add PM stub
+        spoon.addInputResource(new VirtualFile(
+                "public class PM { private static final short ARRAY_LENGTH = 0;" +
+                " public static void check(short s) {} }"));
+        spoon.addInputResource(new VirtualFile(
+                "public class PMC { public static final short PERF_START = (short) 0x1; }"));
+
+        // add the input
+        spoon.addInputResource(Objects.requireNonNull(getClass().getResource(fileName)).getPath());
+        spoon.buildModel();
+
+        return spoon.getModel().filterChildren((CtClass<?> cls) -> cls.getSimpleName().equals("SimpleClass")).first();
+    }
+
+    private CtClass<?> parseExpectedClass(final String trapNamePrefix, final String fileName) {
+        final Launcher spoon = new Launcher();
+
+        // add PM stub
+        spoon.addInputResource(new VirtualFile("public class PM { public static void check(short s) {} }"));
+
+        // Spoon must know the types of PMC fields used in SimpleClass, traps in callees use the prefix of the root
+        final StringBuilder sb = new StringBuilder("public class PMC {");
+        for (int i = 1; i <= 100; i++)
+            sb.append("public static short ").append(trapNamePrefix).append("_").append(i).append(" = 0;");
+        sb.append("}");
+
+        spoon.addInputResource(new VirtualFile(sb.toString()));
+
+        // add the input
+        spoon.addInputResource(Objects.requireNonNull(getClass().getResource(fileName)).getPath());
+        spoon.buildModel();
+
+        return spoon.getModel().filterChildren((CtClass<?> cls) -> cls.getSimpleName().equals("SimpleClass")).first();
+    }
+}
@@ -34,6 +34,29 @@ class ModifyEntryPointProcessorTest {
         assertThat(input).withProcessor(new ModifyTimeEntryPointProcessor(new Args())).isEqualTo(expected);
     }
 
+    @Test
+    public void processFused() {
+        final CtClass<?> input = parseClass("ModifyEntryPointProcessorTestInput.java",
+                "import javacard.framework.APDU;" +
+                "public class PM { public static boolean set(APDU apdu) { return true; } }");
+
+        final Args args = new Args();
+        args.fusedApdu = true;
+
+        final ModifyTimeEntryPointProcessor processor = new ModifyTimeEntryPointProcessor(args);
+        processor.setFactory(input.getFactory());
+        processor.init();
+        processor.process(input);
+
+        final CtIf handler = (CtIf) input.getMethodsByName("process").get(0).getBody().getStatement(0);
+        final CtBlock<?> thenBlock = handler.getThenStatement();
+        assertEquals(1, thenBlock.getStatements().size());
+
+        final CtIf innerIf = (CtIf) thenBlock.getStatement(0);
+        assertEquals("PM.set(apdu)", innerIf.getCondition().toString());
+        assertInstanceOf(CtReturn.class, ((CtBlock<?>) innerIf.getThenStatement()).getStatement(0));
+    }
+
     @Test
     public void alreadyInstrumented() {
         // Using the same file for input is NOT a bug!
@@ -201,12 +224,16 @@ class ModifyEntryPointProcessorTest {
     }
 
     private CtClass<?> parseClass(final String fileName) {
+        return parseClass(fileName,
+                "import javacard.framework.APDU;" +
+                "public class PM { public static void set(APDU apdu) {} }");
+    }
+
+    private CtClass<?> parseClass(final String fileName, final String pmStub) {
         final Launcher spoon = new Launcher();
 
         // add PM and PMC stubs
-        spoon.addInputResource(new VirtualFile(
-                "import javacard.framework.APDU;" +
-                "public class PM { public static void set(APDU apdu) {} }", "PM.java"));
+        spoon.addInputResource(new VirtualFile(pmStub, "PM.java"));
         spoon.addInputResource(new VirtualFile("public class PMC {}", "PMC.java"));
 
         // add the input
@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import cz.muni.fi.crocs.rcard.client.CardManager;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.TrapManifest;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link AbstractProfiler} class
+ */
+class AbstractProfilerTest {
+    @Test
+    void getArrayOfFirstTarget(@TempDir final Path tempDir) throws Exception {
+        // 200 traps need 400 bytes, i.e. two parts
+        final TrapManifest manifest = FakeCountPM.writeManifest(tempDir, 100, 100).select("test.Applet#first");
+        final FakeCountPM pm = new FakeCountPM(manifest.getTrapCount());
+        for (int i = 0; i < pm.counters.length; i++)
+            pm.counters[i] = (short) (i + /* PERF_START */ 2);
+
+        final Profiler profiler = new Profiler(pm, manifest);
+        final byte[] buffer = profiler.getArray((byte) 0, profiler.getArrayLength(Short.BYTES),
+                                                FakeCountPM.COUNTERS_PER_PART * Short.BYTES, 0);
+        assertEquals(400, buffer.length);
+        assertEquals(2, pm.requests);
+
+        // every stored value equals its trap ID
+        for (final TrapManifest.Trap trap : manifest.getTraps()) {
+            final int idx = (trap.getID() - /* PERF_START */ 2) * Short.BYTES;
+            assertEquals(trap.getID(), (short) ((buffer[idx] << 8) | (buffer[idx + 1] & 0xFF)));
+        }
+    }
+
+    /**
+     * Profiler exposing the measurement retrieval only
+     */
+    private static class Profiler extends AbstractProfiler {
+        Profiler(final CardManager cardManager, final TrapManifest manifest) {
+            super(new Args(), cardManager, manifest, /* customInsField */ null);
+        }
+
+        @Override
+        protected void profileImpl() {}
+
+        @Override
+        protected void saveMeasurements(final CSVPrinter printer) {}
+    }
+}
@@ -0,0 +1,51 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import jcprofiler.args.Args;
+import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link CountProfiler} class
+ */
+class CountProfilerTest {
+    @Test
+    void retrieveCountersOfFirstTarget(@TempDir final Path tempDir) throws Exception {
+        // 200 traps need 400 bytes, i.e. two parts
+        final TrapManifest manifest = FakeCountPM.writeManifest(tempDir, 100, 100).select("test.Applet#first");
+        final FakeCountPM pm = new FakeCountPM(manifest.getTrapCount());
+
+        final Args args = new Args();
+        args.dataRegex = "00";
+        args.repeatCount = 2;
+
+        final CountProfiler profiler = new CountProfiler(args, pm, manifest);
+        profiler.profileImpl();
+
+        // all counters including the ones of the other target were cleared by the retrieval
+        assertArrayEquals(new short[manifest.getTrapCount()], pm.counters);
+
+        final StringWriter out = new StringWriter();
+        try (final CSVPrinter printer = new CSVPrinter(out, JCProfilerUtil.getCSVFormat())) {
+            profiler.saveMeasurements(printer);
+        }
+
+        // every trap of the profiled executable was hit once in each round
+        final String[] lines = out.toString().split("\\R");
+        assertEquals(1 + manifest.getTraps().size(), lines.length);
+        assertEquals("TRAP_first_1,1,1", lines[1]);
+        assertEquals("TRAP_first_100,1,1", lines[lines.length - 1]);
+    }
+}
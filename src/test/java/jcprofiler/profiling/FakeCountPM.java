@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import cz.muni.fi.crocs.rcard.client.CardManager;
+
+import jcprofiler.util.JCProfilerUtil;
+import jcprofiler.util.TrapManifest;
+
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emulates the count PM class of an applet with two profiled targets instead of a card.  Every APDU
+ * not sent to the INS_PERF_HANDLER executes the applet, which hits every trap once.
+ */
+class FakeCountPM extends CardManager {
+    /**
+     * Number of counters sent in a single part
+     */
+    static final int COUNTERS_PER_PART = 128;
+
+    /**
+     * Counters of all traps indexed by the trap ID relative to the first trap
+     */
+    final short[] counters;
+    /**
+     * Number of APDUs sent to the INS_PERF_HANDLER
+     */
+    int requests;
+
+    /**
+     * Constructs the {@link FakeCountPM} class.
+     *
+     * @param trapCount number of traps of all targets
+     */
+    FakeCountPM(final int trapCount) {
+        super(/* logging */ false, new byte[0]);
+        counters = new short[trapCount];
+    }
+
+    @Override
+    public ResponseAPDU transmit(final CommandAPDU apdu) {
+        if (apdu.getINS() != Byte.toUnsignedInt(JCProfilerUtil.INS_PERF_HANDLER)) {
+            for (int i = 0; i < counters.length; i++)
+                counters[i]++;
+            return respond(new byte[0]);
+        }
+
+        requests++;
+
+        // RESET_COUNTERS
+        if (apdu.getP1() == 0x7E) {
+            Arrays.fill(counters, (short) 0);
+            return respond(new byte[0]);
+        }
+
+        // GET_COUNTERS sends and clears the P2th part of the counters
+        final int begin = apdu.getP2() * COUNTERS_PER_PART;
+        final int end = Math.min(counters.length, begin + COUNTERS_PER_PART);
+        final byte[] data = new byte[(end - begin) * Short.BYTES];
+        for (int i = begin; i < end; i++) {
+            data[(i - begin) * Short.BYTES] = (byte) (counters[i] >> 8);
+            data[(i - begin) * Short.BYTES + 1] = (byte) counters[i];
+            counters[i] = 0;
+        }
+        return respond(data);
+    }
+
+    /**
+     * Returns a successful response with the given data.
+     *
+     * @param  data response data
+     * @return      a {@link ResponseAPDU} instance
+     */
+    private static ResponseAPDU respond(final byte[] data) {
+        final byte[] response = Arrays.copyOf(data, data.length + 2);
+        response[data.length] = (byte) (JCProfilerUtil.SW_NO_ERROR >> 8);
+        response[data.length + 1] = (byte) JCProfilerUtil.SW_NO_ERROR;
+        return new ResponseAPDU(response);
+    }
+
+    /**
+     * Writes a count mode trap manifest with two targets with given number of traps.
+     *
+     * @param  tempDir     temporary directory
+     * @param  firstCount  number of traps of the first target
+     * @param  secondCount number of traps of the second target
+     * @return             a {@link TrapManifest} instance
+     *
+     * @throws IOException if the manifest could not be written
+     */
+    static TrapManifest writeManifest(final Path tempDir, final int firstCount, final int secondCount)
+            throws IOException {
+        final List<String> lines = new ArrayList<>(Arrays.asList(
+                "property,mode,count",
+                "property,insFields,INS_PERF_HANDLER;INS_PERF_GETCNT",
+                "property,enableTraps,false",
+                "property,trapCount," + (firstCount + secondCount),
+                "target,test.Applet#first(),false,false"));
+        for (int i = 0; i < firstCount; i++)
+            lines.add(String.format("trap,TRAP_first_%d,%d,test.Applet#first(),,0", i + 1, i + 2));
+        lines.add("target,test.Applet#second(),false,false");
+        for (int i = 0; i < secondCount; i++)
+            lines.add(String.format("trap,TRAP_second_%d,%d,test.Applet#second(),,0", i + 1, firstCount + i + 2));
+
+        final Path file = tempDir.resolve(TrapManifest.FILENAME);
+        Files.write(file, lines);
+        return TrapManifest.read(file);
+    }
+}
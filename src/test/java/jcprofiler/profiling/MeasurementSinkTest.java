@@ -0,0 +1,277 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.profiling;
+
+import jcprofiler.util.JCPMFile;
+import jcprofiler.util.JCProfilerUtil;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link MeasurementSink} class
+ */
+class MeasurementSinkTest {
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    void setAndGrow() {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("a", 1, 10L);
+        sink.set("a", 5, null);
+        sink.set("a", 6, 30L);
+
+        assertEquals(6, sink.size("a"));
+        assertEquals(0, sink.size("b"));
+        assertEquals(6, sink.getRoundCount());
+        assertEquals(10L, sink.get("a", 1));
+        assertNull(sink.get("a", 3));
+        assertFalse(sink.isMeasured("a", 3));
+        assertNull(sink.get("a", 5));
+        assertTrue(sink.isMeasured("a", 5));
+        assertEquals(30L, sink.get("a", 6));
+    }
+
+    @Test
+    void overwriteUnreachable() {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("a", 1, null);
+        sink.set("a", 1, 5L);
+
+        assertEquals(5L, sink.get("a", 1));
+    }
+
+    @Test
+    void getOutOfRange() {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("a", 1, 1L);
+
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> sink.get("a", 2));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> sink.get("a", 0));
+        assertThrows(IllegalArgumentException.class, () -> sink.get("c", 1));
+    }
+
+    @Test
+    void print() throws IOException {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("a", 1, 1L);
+        sink.set("a", 2, null);
+        sink.set("b", 1, 3L);
+
+        final StringWriter out = new StringWriter();
+        try (final CSVPrinter printer = new CSVPrinter(out, JCProfilerUtil.getCSVFormat())) {
+            sink.print(printer);
+        }
+
+        assertEquals("a,1," + NL + "b,3," + JCProfilerUtil.NOT_MEASURED + NL, out.toString());
+    }
+
+    @Test
+    void printWithPrefix() throws IOException {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("b", 1, 2L);
+
+        final StringWriter out = new StringWriter();
+        try (final CSVPrinter printer = new CSVPrinter(out, JCProfilerUtil.getCSVFormat())) {
+            sink.print(printer, JCProfilerUtil.WARMUP_PREFIX);
+        }
+
+        assertEquals("warmup:a," + JCProfilerUtil.NOT_MEASURED + NL + "warmup:b,2" + NL, out.toString());
+    }
+
+    @Test
+    void writeNotMeasured(@TempDir final Path tempDir) throws IOException {
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.set("a", 1, 1L);
+        sink.set("b", 2, null);
+
+        final Path file = tempDir.resolve("measurements.jcpm");
+        try (final JCPMFile.Writer writer = new JCPMFile.Writer(file, Collections.singletonList("time"),
+                                                                Arrays.asList("00", "01"))) {
+            sink.write(writer);
+        }
+
+        final JCPMFile jcpm = JCPMFile.read(file);
+        assertEquals(Arrays.asList(1L, null), jcpm.getColumn("a"));
+        assertEquals(Arrays.asList(null, null), jcpm.getColumn("b"));
+        assertEquals(BitSet.valueOf(new long[]{0b10}), jcpm.getNotMeasured("a"));
+        assertEquals(BitSet.valueOf(new long[]{0b01}), jcpm.getNotMeasured("b"));
+    }
+
+    @Test
+    void spoolRounds(@TempDir final Path tempDir) throws IOException {
+        final Path spool = tempDir.resolve("measurements.spool");
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        sink.spoolTo(spool);
+
+        sink.set("a", 2, 4L);
+        sink.set("b", 2, null);
+        sink.spoolRound(2);
+
+        sink.set("a", 3, 5L);
+        assertEquals(5L, sink.get("a", 3));
+        sink.spoolRound(3);
+        sink.close();
+
+        // header and two records of the round and two values
+        final long headerLength = 4 + 4 + 4 + 2 * (4 + 1);
+        assertEquals(headerLength + 2 * 3 * Long.BYTES, Files.size(spool));
+
+        // spooled rounds are dropped from memory and read back from the spool file
+        assertThrows(IllegalStateException.class, () -> sink.get("a", 2));
+        assertEquals("a,-,4,5" + NL + "b,-,,-" + NL, print(sink));
+
+        sink.deleteSpool();
+        assertFalse(Files.exists(spool));
+        assertFalse(Files.exists(tempDir.resolve("measurements.spool.columns")));
+    }
+
+    @Test
+    void resumeIgnoresPartialRecord(@TempDir final Path tempDir) throws IOException {
+        final Path spool = tempDir.resolve("measurements.spool");
+        try (final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"))) {
+            sink.spoolTo(spool);
+            sink.set("a", 2, 4L);
+            sink.set("b", 2, null);
+            sink.spoolRound(2);
+            sink.set("a", 1, 7L);
+            sink.spoolRound(1);
+        }
+
+        // a record of round 3 interrupted by a crash
+        final long length = Files.size(spool);
+        Files.write(spool, new byte[]{3, 0, 0, 0, 0, 0, 0, 0, 1}, StandardOpenOption.APPEND);
+
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList(2, 1), sink.resume(spool));
+        sink.close();
+
+        assertEquals(2, sink.size("a"));
+        assertEquals(2, sink.size("b"));
+        assertEquals(length, Files.size(spool));
+        assertEquals("a,7,4" + NL + "b,-," + NL, print(sink));
+    }
+
+    @Test
+    void resumeDifferentTraps(@TempDir final Path tempDir) throws IOException {
+        final Path spool = tempDir.resolve("measurements.spool");
+        try (final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b"))) {
+            sink.spoolTo(spool);
+        }
+
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "c"));
+        assertThrows(RuntimeException.class, () -> sink.resume(spool));
+    }
+
+    @Test
+    void resumeAdaptiveRounds(@TempDir final Path tempDir) throws IOException {
+        final List<String> trapNames = Arrays.asList("a", "b", "c");
+        final Path spool = tempDir.resolve("measurements.spool");
+        try (final MeasurementSink sink = new MeasurementSink(trapNames)) {
+            sink.spoolTo(spool);
+            for (int round = 1; round <= 2; round++) {
+                sink.set("a", round, 10L * round);
+                sink.set("b", round, null);
+                sink.set("c", round, 30L * round);
+                sink.spoolRound(round);
+            }
+
+            // adaptive round measuring only the unconverged trap
+            sink.set("c", 3, 90L);
+            sink.spoolRound(3);
+        }
+
+        final MeasurementSink sink = new MeasurementSink(trapNames);
+        assertEquals(Arrays.asList(1, 2, 3), sink.resume(spool));
+        assertEquals(2, sink.size("a"));
+        assertEquals(2, sink.size("b"));
+        assertEquals(3, sink.size("c"));
+
+        // the next adaptive round is appended to the restored ones
+        sink.set("a", 4, 40L);
+        sink.spoolRound(4);
+        sink.close();
+
+        final List<String> values = new ArrayList<>();
+        sink.forEach((trapName, round, value) -> values.add(trapName + round + "=" + value));
+        assertEquals(Arrays.asList("a1=10", "b1=null", "c1=30", "a2=20", "b2=null", "c2=60", "c3=90", "a4=40"),
+                     values);
+
+        assertEquals("a,10,20,-,40" + NL + "b,,,-,-" + NL + "c,30,60,90,-" + NL, print(sink));
+    }
+
+    @Test
+    void writeMoreRoundsThanBuffered(@TempDir final Path tempDir) throws IOException {
+        final int roundCount = MeasurementSink.MAX_BUFFERED_VALUES + 3;
+        final MeasurementSink sink = new MeasurementSink(Arrays.asList("a", "b", "c"));
+        sink.spoolTo(tempDir.resolve("measurements.spool"));
+
+        // rounds are spooled out of order and the last one stays in memory
+        for (int round = roundCount - 1; round >= 1; round--) {
+            sink.set("a", round, (long) round);
+            if (round % 2 == 0)
+                sink.set("b", round, null);
+            sink.set("c", round, (long) -round);
+            sink.spoolRound(round);
+        }
+        sink.set("b", roundCount, 1L);
+        sink.close();
+
+        final Path file = tempDir.resolve("measurements.jcpm");
+        final List<String> inputs = Collections.nCopies(roundCount, "00");
+        try (final JCPMFile.Writer writer = new JCPMFile.Writer(file, Collections.singletonList("time"), inputs)) {
+            sink.write(writer);
+        }
+
+        final JCPMFile jcpm = JCPMFile.read(file);
+        final List<Long> a = jcpm.getColumn("a");
+        final List<Long> b = jcpm.getColumn("b");
+        final List<Long> c = jcpm.getColumn("c");
+        for (int round = 1; round < roundCount; round++) {
+            assertEquals((long) round, a.get(round - 1));
+            assertNull(b.get(round - 1));
+            assertEquals((long) -round, c.get(round - 1));
+        }
+        assertNull(a.get(roundCount - 1));
+        assertEquals(1L, b.get(roundCount - 1));
+
+        final BitSet notMeasured = new BitSet();
+        for (int round = 1; round < roundCount; round += 2)
+            notMeasured.set(round - 1);
+        assertEquals(notMeasured, jcpm.getNotMeasured("b"));
+        assertTrue(jcpm.getNotMeasured("a").get(0, roundCount - 1).isEmpty());
+        assertTrue(jcpm.getNotMeasured("a").get(roundCount - 1));
+    }
+
+    /**
+     * Prints the series of the given sink.
+     *
+     * @param  sink measurement sink
+     * @return      printed CSV records
+     *
+     * @throws IOException if the printing fails
+     */
+    private static String print(final MeasurementSink sink) throws IOException {
+        final StringWriter out = new StringWriter();
+        try (final CSVPrinter printer = new CSVPrinter(out, JCProfilerUtil.getCSVFormat())) {
+            sink.print(printer);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,70 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link JCPMFile} class
+ */
+class JCPMFileTest {
+    @Test
+    void roundTrip(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("measurements.jcpm");
+        final long[] large = new long[100_000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = i * 3L;
+
+        try (final JCPMFile.Writer writer = new JCPMFile.Writer(file, Arrays.asList("time", "test.Test#foo()"),
+                                                                Arrays.asList("00", "0A1"))) {
+            writer.writeColumn("TRAP_1", new long[]{1, -2, JCPMFile.UNREACHABLE});
+            writer.writeColumn("TRAP_2", large);
+            writer.writeColumn("TRAP_3", new long[0]);
+        }
+
+        final JCPMFile jcpm = JCPMFile.read(file);
+        assertEquals(Arrays.asList("time", "test.Test#foo()"), jcpm.getHeader());
+        assertEquals(Arrays.asList("00", "0A1"), jcpm.getInputs());
+        assertEquals(Arrays.asList("TRAP_1", "TRAP_2", "TRAP_3"), Arrays.asList(jcpm.getTrapNames().toArray()));
+        assertEquals(Arrays.asList(1L, -2L, null), jcpm.getColumn("TRAP_1"));
+        assertEquals(large.length, jcpm.getColumn("TRAP_2").size());
+        assertEquals(299_997L, jcpm.getColumn("TRAP_2").get(large.length - 1));
+        assertEquals(Collections.emptyList(), jcpm.getColumn("TRAP_3"));
+    }
+
+    @Test
+    void notMeasured(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("measurements.jcpm");
+        try (final JCPMFile.Writer writer = new JCPMFile.Writer(file, Collections.singletonList("time"),
+                                                                Arrays.asList("00", "01", "02"))) {
+            writer.writeColumn("TRAP_1", new long[]{JCPMFile.NOT_MEASURED, 5, JCPMFile.UNREACHABLE});
+        }
+
+        final JCPMFile jcpm = JCPMFile.read(file);
+        assertEquals(Arrays.asList(null, 5L, null), jcpm.getColumn("TRAP_1"));
+
+        final BitSet expected = new BitSet();
+        expected.set(0);
+        assertEquals(expected, jcpm.getNotMeasured("TRAP_1"));
+    }
+
+    @Test
+    void invalidMagic(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("measurements.jcpm");
+        Files.write(file, "trapName,1,2,3,4,5,6,7,8".getBytes());
+
+        Exception e = assertThrows(RuntimeException.class, () -> JCPMFile.read(file));
+        assertEquals(file + " is not a valid measurement file!", e.getMessage());
+    }
+}
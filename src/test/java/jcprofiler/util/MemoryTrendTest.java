@@ -0,0 +1,44 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link MemoryTrend} class
+ */
+class MemoryTrendTest {
+    @Test
+    void leaking() {
+        final MemoryTrend trend = new MemoryTrend(Arrays.asList(100, 90, 80, 70));
+        assertTrue(trend.isDecreasing());
+        assertEquals(-10.0, trend.getSlope(), 1e-9);
+    }
+
+    @Test
+    void lazyAllocation() {
+        final MemoryTrend trend = new MemoryTrend(Arrays.asList(100, 80, 80, 80));
+        assertFalse(trend.isDecreasing());
+        assertTrue(trend.getSlope() < 0);
+    }
+
+    @Test
+    void unreachable() {
+        final MemoryTrend trend = new MemoryTrend(Arrays.asList(100, null, 80));
+        assertFalse(trend.isDecreasing());
+        assertEquals(-10.0, trend.getSlope(), 1e-9);
+    }
+
+    @Test
+    void singleIteration() {
+        final MemoryTrend trend = new MemoryTrend(Collections.singletonList(100));
+        assertFalse(trend.isDecreasing());
+        assertEquals(0.0, trend.getSlope());
+    }
+}
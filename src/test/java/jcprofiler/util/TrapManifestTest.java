@@ -0,0 +1,106 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+package jcprofiler.util;
+
+import jcprofiler.util.enums.Mode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link TrapManifest} class
+ */
+class TrapManifestTest {
+    @Test
+    void roundTrip(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve(TrapManifest.FILENAME);
+        Files.write(file, Arrays.asList(
+                "property,mode,time",
+                "property,insFields,INS_PERF_HANDLER;INS_PERF_SETSTOP",
+                "property,coverage,true",
+                "target,test.Applet#process(javacard.framework.APDU),false,false",
+                "trap,TRAP_test_Applet_hash_process_argb_javacard_framework_APDU_arge_1,2," +
+                        "test.Applet#process(javacard.framework.APDU),test/Applet.java,10",
+                "source,\"public void process(APDU apdu) {\"",
+                "source,}"));
+
+        final Path copy = tempDir.resolve("copy.csv");
+        TrapManifest.read(file).write(copy);
+        final TrapManifest manifest = TrapManifest.read(copy);
+
+        assertEquals(Mode.time, manifest.getMode());
+        assertFalse(manifest.isConstructor());
+        assertFalse(manifest.isMeasuredDuringInstallation());
+        assertTrue(manifest.getBooleanProperty("coverage"));
+        assertTrue(manifest.entryPointHasField("INS_PERF_SETSTOP"));
+        assertFalse(manifest.entryPointHasField("INS_PERF_GETMEM"));
+        assertThrows(RuntimeException.class, () -> manifest.getProperty("fusedApdu"));
+
+        final TrapManifest.Trap trap = manifest.getTraps().get(0);
+        assertEquals(1, manifest.getTraps().size());
+        assertEquals(2, trap.getID());
+        assertEquals("test/Applet.java", trap.getFile());
+        assertEquals(10, trap.getLine());
+        assertEquals(Arrays.asList("public void process(APDU apdu) {", "}"), manifest.getSourceCode());
+    }
+
+    @Test
+    void select(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve(TrapManifest.FILENAME);
+        Files.write(file, Arrays.asList(
+                "property,trapCount,3",
+                "target,test.Applet#<init>(byte[],short,byte),true,true",
+                "trap,TRAP_1,2,test.Applet#<init>(byte[],short,byte),,0",
+                "target,test.Applet#process(javacard.framework.APDU),false,false",
+                "trap,TRAP_2,3,test.Applet#process(javacard.framework.APDU),,0",
+                "target,test.Other#process(javacard.framework.APDU),false,false",
+                "trap,TRAP_3,4,test.Other#process(javacard.framework.APDU),,0"));
+        final TrapManifest manifest = TrapManifest.read(file);
+
+        assertEquals(3, manifest.getExecutables().size());
+        assertEquals(3, manifest.getTrapCount());
+        assertThrows(RuntimeException.class, manifest::getTraps);
+
+        assertEquals("test.Applet#process(javacard.framework.APDU)",
+                     manifest.select("test.Applet#process").getExecutable());
+        assertEquals("test.Other#process(javacard.framework.APDU)",
+                     manifest.select("test.O*#process(*)").getExecutable());
+        assertEquals(4, manifest.select("test.Other#process").getTraps().get(0).getID());
+        assertTrue(manifest.select(null).isMeasuredDuringInstallation());
+        assertEquals(3, manifest.select(null).getTrapCount());
+
+        // ambiguous or not instrumented
+        assertThrows(RuntimeException.class, () -> manifest.select("process"));
+        assertThrows(RuntimeException.class, () -> manifest.select("install"));
+    }
+
+    @Test
+    void matchesExecutable() {
+        final String signature = "test.Applet#process(javacard.framework.APDU)";
+        assertTrue(JCProfilerUtil.matchesExecutable(signature, "process"));
+        assertTrue(JCProfilerUtil.matchesExecutable(signature, "test.Applet#process"));
+        assertTrue(JCProfilerUtil.matchesExecutable(signature, "process(javacard.framework.APDU)"));
+        assertTrue(JCProfilerUtil.matchesExecutable(signature, "test.*#proc*"));
+        assertTrue(JCProfilerUtil.matchesExecutable(signature, "*#process(*)"));
+        assertFalse(JCProfilerUtil.matchesExecutable(signature, "test.Other#process"));
+        assertFalse(JCProfilerUtil.matchesExecutable(signature, "install"));
+        assertFalse(JCProfilerUtil.matchesExecutable(signature, "pro?ess(short)"));
+    }
+
+    @Test
+    void noTraps(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve(TrapManifest.FILENAME);
+        Files.write(file, Arrays.asList(
+                "property,mode,time",
+                "target,test.Applet#process(javacard.framework.APDU),false,false"));
+        assertThrows(RuntimeException.class, () -> TrapManifest.read(file));
+    }
+}
@@ -0,0 +1,46 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+import javacard.framework.JCSystem;
+import javacard.security.Key;
+import javacard.security.KeyBuilder;
+
+public class SimpleClass {
+    private byte[] transientBuffer;
+    private Object object;
+    private Key key;
+    private Object[] objects;
+
+    public void allocate(short length) {
+        short sum = 0;
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_1);
+        transientBuffer = JCSystem.makeTransientByteArray(length, JCSystem.CLEAR_ON_DESELECT);
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_2);
+        sum += length;
+        if (length > 0) {
+            PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_3);
+            object = new Object();
+            PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_4);
+        }
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_5);
+        key = KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_6);
+        for (short i = 0; i < length; i++) {
+            PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_7);
+            objects[i] = new Object();
+            PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_8);
+        }
+        helper(sum);
+    }
+
+    private void helper(short sum) {
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_9);
+        byte[] buffer = new byte[sum];
+        PM.check(PMC.TRAP_SimpleClass_hash_allocate_argb_short_arge_10);
+        buffer[0] = 1;
+    }
+
+    public void notProfiled() {
+        object = new Object();
+    }
+}
@@ -0,0 +1,36 @@
+// SPDX-FileCopyrightText: 2022-2024 Lukáš Zaoral <lukaszaoral@outlook.com>
+// SPDX-License-Identifier: GPL-3.0-only
+
+import javacard.framework.JCSystem;
+import javacard.security.Key;
+import javacard.security.KeyBuilder;
+
+public class SimpleClass {
+    private byte[] transientBuffer;
+    private Object object;
+    private Key key;
+    private Object[] objects;
+
+    public void allocate(short length) {
+        short sum = 0;
+        transientBuffer = JCSystem.makeTransientByteArray(length, JCSystem.CLEAR_ON_DESELECT);
+        sum += length;
+        if (length > 0) {
+            object = new Object();
+        }
+        key = KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        for (short i = 0; i < length; i++) {
+            objects[i] = new Object();
+        }
+        helper(sum);
+    }
+
+    private void helper(short sum) {
+        byte[] buffer = new byte[sum];
+        buffer[0] = 1;
+    }
+
+    public void notProfiled() {
+        object = new Object();
+    }
+}